@@ -22,13 +22,20 @@ public enum IlluminaChemistry implements Predicate<Document> {
   HISEQ_X("//Flowcell=\"HiSeq X\""), //
   NOVASEQ("contains(//Application, 'NovaSeq')"), //
   UNKNOWN("false");
-  private XPathExpression expr;
+  // Compiled expressions are not thread-safe, so each thread gets its own copy
+  private final ThreadLocal<XPathExpression> expr;
 
   IlluminaChemistry(String expression) {
+    // Compile it once now so a bad expression is found when the class is loaded
+    compile(expression);
+    expr = ThreadLocal.withInitial(() -> compile(expression));
+  }
+
+  private static XPathExpression compile(String expression) {
     XPathFactory xpathFactory = XPathFactory.newInstance();
     XPath xpath = xpathFactory.newXPath();
     try {
-      expr = xpath.compile(expression);
+      return xpath.compile(expression);
     } catch (XPathExpressionException e) {
       throw new IllegalArgumentException("Failed to compile XPath expression: " + expression, e);
     }
@@ -37,7 +44,7 @@ public enum IlluminaChemistry implements Predicate<Document> {
   @Override
   public boolean test(Document t) {
     try {
-      return (Boolean) expr.evaluate(t, XPathConstants.BOOLEAN);
+      return (Boolean) expr.get().evaluate(t, XPathConstants.BOOLEAN);
     } catch (XPathExpressionException e) {
       return false;
     }
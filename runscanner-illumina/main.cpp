@@ -1,9 +1,11 @@
+#include <cstdlib>
 #include <ctime>
 #include <locale>
 #include <iomanip>
 #include <iostream>
 #include <sstream>
 #include <stdexcept>
+#include <streambuf>
 #include <string>
 #include <vector>
 #include <interop/interop.h>
@@ -57,6 +59,125 @@ getRunBasesMask(const illumina::interop::model::metrics::run_metrics &run) {
   return basemask.str();
 }
 
+/* Write the characters of a string escaped for use inside a JSON string. */
+void write_json_characters(std::ostream &output, const std::string &value) {
+  for (const unsigned char c : value) {
+    switch (c) {
+    case '"':
+      output << "\\\"";
+      break;
+    case '\\':
+      output << "\\\\";
+      break;
+    case '\n':
+      output << "\\n";
+      break;
+    case '\r':
+      output << "\\r";
+      break;
+    case '\t':
+      output << "\\t";
+      break;
+    default:
+      if (c < 0x20) {
+        output << "\\u" << std::hex << std::setw(4) << std::setfill('0')
+               << (int)c << std::dec << std::setfill(' ');
+      } else {
+        output << c;
+      }
+    }
+  }
+}
+
+/* Write a string as a quoted JSON string. */
+void write_json_string(std::ostream &output, const std::string &value) {
+  output << '"';
+  write_json_characters(output, value);
+  output << '"';
+}
+
+/**
+ * Write a JSON object to a stream one field at a time, rather than building
+ * the whole object in memory first.
+ */
+class ObjectWriter {
+public:
+  explicit ObjectWriter(std::ostream &output) : output(output) {
+    output << '{';
+  }
+
+  /* Start a field; the caller must write the value. */
+  std::ostream &key(const std::string &name) {
+    if (!first) {
+      output << ',';
+    }
+    first = false;
+    write_json_string(output, name);
+    output << ':';
+    return output;
+  }
+
+  void field(const std::string &name, bool value) {
+    key(name) << (value ? "true" : "false");
+  }
+  void field(const std::string &name, int value) { key(name) << value; }
+  void field(const std::string &name, const char *value) {
+    write_json_string(key(name), value);
+  }
+  void field(const std::string &name, const std::string &value) {
+    write_json_string(key(name), value);
+  }
+  void field(const std::string &name, const std::vector<int> &values) {
+    key(name) << '[';
+    for (std::size_t i = 0; i < values.size(); i++) {
+      if (i > 0) {
+        output << ',';
+      }
+      output << values[i];
+    }
+    output << ']';
+  }
+
+  void close() { output << '}'; }
+
+private:
+  bool first = true;
+  std::ostream &output;
+};
+
+/**
+ * Write the metrics array one metric at a time, so only one is held in memory.
+ *
+ * Java expects the metrics as a string containing JSON, so each metric is
+ * converted to JSON and then escaped into the string.
+ */
+class MetricsWriter {
+public:
+  explicit MetricsWriter(std::ostream &output) : output(output) {
+    output << "\"[";
+  }
+
+  void append(const Json::Value &metric) {
+    if (!first) {
+      output << ',';
+    }
+    first = false;
+    auto json = writer.write(metric);
+    /* The FastWriter ends each document with a newline. */
+    if (!json.empty() && json.back() == '\n') {
+      json.pop_back();
+    }
+    write_json_characters(output, json);
+  }
+
+  void close() { output << "]\""; }
+
+private:
+  bool first = true;
+  std::ostream &output;
+  Json::FastWriter writer;
+};
+
 /**
  * Convert a "candlestick" or "line" point into a JSON object.
  *
@@ -105,7 +226,7 @@ void render(
     const std::string &type,
     const std::vector<std::pair<
         std::string, illumina::interop::model::plot::plot_data<T>>> &dataset,
-    Json::Value &output) {
+    MetricsWriter &output) {
   if (dataset.size() == 0)
     return;
 
@@ -201,7 +322,7 @@ void add_plot(const illumina::interop::constants::metric_type metric_name,
               const std::string &type_name, bool include_combined,
               bool include_lanes,
               illumina::interop::model::metrics::run_metrics &run,
-              Json::Value &output) {
+              MetricsWriter &output) {
   /* Create a list of pairs between series name and the data for that series. */
   std::vector<std::pair<
       std::string, illumina::interop::model::plot::plot_data<
@@ -261,7 +382,7 @@ void add_chart_row(Json::Value &values, const std::string &name,
 void add_global_chart(
     const illumina::interop::model::metrics::run_metrics &run,
     const illumina::interop::model::summary::run_summary &run_summary,
-    Json::Value &output) {
+    MetricsWriter &output) {
   Json::Value result(Json::objectValue);
   result["type"] = "chart";
   /* Create a JSON array of rows. */
@@ -333,7 +454,7 @@ void add_table_column(Json::Value &columns, const std::string &name,
 void add_lane_charts(
     const illumina::interop::model::metrics::run_metrics &run,
     const illumina::interop::model::summary::run_summary &run_summary,
-    Json::Value &output) {
+    MetricsWriter &output) {
   Json::Value result(Json::objectValue);
   result["type"] = "table";
 
@@ -401,7 +522,7 @@ void add_lane_charts(
 void add_lane_cluster_plot(
     const illumina::interop::model::metrics::run_metrics &run,
     const illumina::interop::model::summary::run_summary &run_summary,
-    Json::Value &output) {
+    MetricsWriter &output) {
   if (run_summary.begin() == run_summary.end()) {
     return;
   }
@@ -435,7 +556,7 @@ void add_lane_cluster_plot(
 void add_yield_bars(
     const illumina::interop::model::metrics::run_metrics &run,
     const illumina::interop::model::summary::run_summary &run_summary,
-    Json::Value &output) {
+    MetricsWriter &output) {
   Json::Value result(Json::objectValue);
   result["type"] = "illumina-yield-by-read";
 
@@ -478,22 +599,36 @@ void add_yield_bars(
   output.append(std::move(result));
 }
 
-int main(int argc, const char **argv) {
-  if (argc != 2) {
-    return 1;
-  }
-
-  Json::Value result(Json::objectValue);
-
-  /* Jackson expects the class to be embedded as an attribute, so we provided it
-   * here. */
-  result["platform"] = "Illumina";
-
+/**
+ * Read the InterOp data for a run directory and write the result to output as
+ * JSON for consumption by Java.
+ *
+ * If progress_only is set, only the metrics needed to count cycles are loaded
+ * and only the summary chart is included in the metrics. This is much cheaper
+ * for a run that is still sequencing, which is checked many times before it
+ * finishes.
+ *
+ * Returns 0 if the run was processed or a non-zero exit code if it could not
+ * be.
+ */
+int process_run(const std::string &directory, bool progress_only,
+                std::ostream &output) {
   auto is_complete = true;
 
   illumina::interop::model::metrics::run_metrics run;
   try {
-    run.read(argv[1]);
+    if (progress_only) {
+      /* Tile metrics are needed to know which tiles to expect cycles from. */
+      std::vector<unsigned char> valid_to_load(
+          illumina::interop::constants::MetricCount, 0);
+      valid_to_load[illumina::interop::constants::CorrectedInt] = 1;
+      valid_to_load[illumina::interop::constants::Extraction] = 1;
+      valid_to_load[illumina::interop::constants::Q] = 1;
+      valid_to_load[illumina::interop::constants::Tile] = 1;
+      run.read(directory, valid_to_load);
+    } else {
+      run.read(directory);
+    }
   } catch (illumina::interop::io::incomplete_file_exception e) {
     /* Assume that incomplete data is an active run, rather than a broken one.
      */
@@ -501,15 +636,21 @@ int main(int argc, const char **argv) {
   } catch (std::runtime_error e) {
     /* We are really unable to recover from any other exceptions, so just bail
      * out. */
-    std::cerr << "Exception from Illumina interop parser for run in " << argv[1]
-              << ": " << e.what() << std::endl;
+    std::cerr << "Exception from Illumina interop parser for run in "
+              << directory << ": " << e.what() << std::endl;
     return 2;
   }
 
+  ObjectWriter result(output);
+
+  /* Jackson expects the class to be embedded as an attribute, so we provided it
+   * here. */
+  result.field("platform", "Illumina");
+
   std::stringstream buffer;
   buffer << "Interop: " << illumina::interop::library_version()
          << " Instrument: " << run.run_parameters().version();
-  result["software"] = buffer.str();
+  result.field("software", buffer.str());
 
   /* The Illumina sequencers produce a variety of bad date formats. Reformat it
    * as "YYYY-mm-ddTHH:MM:ss". */
@@ -522,37 +663,37 @@ int main(int argc, const char **argv) {
       // it will get the DST information computed for us.
       detectedTime.tm_isdst = -1; // Unknown DST; force computation
       auto detectedTimestamp = std::mktime(&detectedTime);
-      result["startDate"] = formatDate(std::localtime(&detectedTimestamp));
+      result.field("startDate",
+                   formatDate(std::localtime(&detectedTimestamp)));
       break;
     }
   }
 
   /* Copy all the trivial values from the run information.  */
-  result["containerSerialNumber"] = run.run_info().flowcell_id();
-  result["numCycles"] = (Json::Value::Int)run.run_info().total_cycles();
-  result["pairedEndRun"] = run.run_info().is_paired_end();
-  result["runAlias"] = run.run_info().name();
-  result["sequencerName"] = run.run_info().instrument_name();
-  result["laneCount"] =
-      (Json::Value::Int)run.run_info().flowcell().lane_count();
+  result.field("containerSerialNumber", run.run_info().flowcell_id());
+  result.field("numCycles", (int)run.run_info().total_cycles());
+  result.field("pairedEndRun", run.run_info().is_paired_end());
+  result.field("runAlias", run.run_info().name());
+  result.field("sequencerName", run.run_info().instrument_name());
+  result.field("laneCount", (int)run.run_info().flowcell().lane_count());
   illumina::interop::model::summary::run_summary run_summary;
   illumina::interop::logic::summary::summarize_run_metrics(run, run_summary,
                                                            true);
 
-  result["bclCount"] =
-      (Json::Value::Int)(run.run_info().flowcell().tiles_per_lane() *
-                         run.run_info().flowcell().swath_count() *
-                         run.run_info().flowcell().surface_count());
-
-  result["imgCycle"] = (Json::Value::Int)run_summary.cycle_state()
-                           .extracted_cycle_range()
-                           .last_cycle();
-  result["scoreCycle"] = (Json::Value::Int)run_summary.cycle_state()
-                             .qscored_cycle_range()
-                             .last_cycle();
-  result["callCycle"] = (Json::Value::Int)run_summary.cycle_state()
-                            .called_cycle_range()
-                            .last_cycle();
+  result.field("bclCount",
+               (int)(run.run_info().flowcell().tiles_per_lane() *
+                     run.run_info().flowcell().swath_count() *
+                     run.run_info().flowcell().surface_count()));
+
+  result.field(
+      "imgCycle",
+      (int)run_summary.cycle_state().extracted_cycle_range().last_cycle());
+  result.field(
+      "scoreCycle",
+      (int)run_summary.cycle_state().qscored_cycle_range().last_cycle());
+  result.field(
+      "callCycle",
+      (int)run_summary.cycle_state().called_cycle_range().last_cycle());
 
   /* If there's an extraction metric with a end date, use that, reformatted as a
    * "YYYY-mm-dd" string. There can be multiple extractions, so pick the last
@@ -574,60 +715,176 @@ int main(int argc, const char **argv) {
         }));
     if (extraction_time > 0) {
       auto extraction_tm = std::localtime(&extraction_time);
-      result["completionDate"] = formatDate(extraction_tm);
+      result.field("completionDate", formatDate(extraction_tm));
     }
   }
   is_complete &= run_summary.cycle_state().called_cycle_range().last_cycle() ==
                  run.run_info().total_cycles();
 
   int readLength = 0;
-  Json::Value indexLengths(Json::arrayValue);
-  Json::Value readLengths(Json::arrayValue);
-  Json::Value::Int numReads = 0;
+  std::vector<int> indexLengths;
+  std::vector<int> readLengths;
+  int numReads = 0;
 
   for (const auto &read : run.run_info().reads()) {
     if (read.is_index()) {
-      indexLengths.append(length(read));
+      indexLengths.push_back(length(read));
     } else {
       readLength = std::max(readLength, length(read));
-      readLengths.append(length(read));
+      readLengths.push_back(length(read));
       numReads++;
     }
   }
 
-  result["numReads"] = numReads;
-  result["readLength"] = readLength;
-  result["runBasesMask"] = getRunBasesMask(run);
-  result["indexLengths"] = std::move(indexLengths);
-  result["readLengths"] = std::move(readLengths);
+  result.field("numReads", numReads);
+  result.field("readLength", readLength);
+  result.field("runBasesMask", getRunBasesMask(run));
+  result.field("indexLengths", indexLengths);
+  result.field("readLengths", readLengths);
 
   /* We can't tell the difference between the stopped or running states, so we
    * just assume running if it isn't finished. */
-  result["healthType"] = is_complete ? "COMPLETED" : "RUNNING";
-
-  /* Collect all the metrics. */
-  Json::Value metrics_results(Json::arrayValue);
-  add_plot<illumina::interop::logic::plot::plot_by_cycle>(
-      illumina::interop::constants::Q30Percent, "illumina-q30-by-cycle", true,
-      true, run, metrics_results);
-  add_plot<illumina::interop::logic::plot::plot_by_cycle>(
-      illumina::interop::constants::CalledIntensity,
-      "illumina-called-intensity-by-cycle", true, true, run, metrics_results);
-  add_plot<illumina::interop::logic::plot::plot_by_cycle>(
-      illumina::interop::constants::BasePercent,
-      "illumina-base-percent-by-cycle", true, true, run, metrics_results);
-  add_plot<plot_by_lane_wrapper>(illumina::interop::constants::Clusters,
-                                 "illumina-cluster-density-by-lane", true,
-                                 false, run, metrics_results);
+  result.field("healthType", is_complete ? "COMPLETED" : "RUNNING");
+
+  /* Write out each metric as it is collected. */
+  result.key("metrics");
+  MetricsWriter metrics_results(output);
+  if (!progress_only) {
+    add_plot<illumina::interop::logic::plot::plot_by_cycle>(
+        illumina::interop::constants::Q30Percent, "illumina-q30-by-cycle",
+        true, true, run, metrics_results);
+    add_plot<illumina::interop::logic::plot::plot_by_cycle>(
+        illumina::interop::constants::CalledIntensity,
+        "illumina-called-intensity-by-cycle", true, true, run,
+        metrics_results);
+    add_plot<illumina::interop::logic::plot::plot_by_cycle>(
+        illumina::interop::constants::BasePercent,
+        "illumina-base-percent-by-cycle", true, true, run, metrics_results);
+    add_plot<plot_by_lane_wrapper>(illumina::interop::constants::Clusters,
+                                   "illumina-cluster-density-by-lane", true,
+                                   false, run, metrics_results);
+  }
   add_global_chart(run, run_summary, metrics_results);
-  add_lane_charts(run, run_summary, metrics_results);
-  add_yield_bars(run, run_summary, metrics_results);
-  add_lane_cluster_plot(run, run_summary, metrics_results);
-  /* The FastWriter will convert the metrics into a compact JSON string. */
-  Json::FastWriter fastWriter;
-  result["metrics"] = fastWriter.write(metrics_results);
+  if (!progress_only) {
+    add_lane_charts(run, run_summary, metrics_results);
+    add_yield_bars(run, run_summary, metrics_results);
+    add_lane_cluster_plot(run, run_summary, metrics_results);
+  }
+  metrics_results.close();
+  result.close();
 
-  /* Write everything to standard output from consumption by Java. */
-  std::cout << result << std::endl;
+  output << std::endl;
   return 0;
 }
+
+/**
+ * Write a daemon response as length-prefixed chunks, so a run's JSON is sent as
+ * it is produced rather than held in memory until it is complete.
+ *
+ * Each chunk is a line containing its length in bytes followed by the bytes
+ * themselves. The response ends with a line containing 0 and the exit code.
+ */
+class ChunkedBuffer : public std::streambuf {
+public:
+  explicit ChunkedBuffer(std::ostream &output)
+      : output(output), buffer(64 * 1024) {
+    reset();
+  }
+
+  /* Send anything left and end the response. */
+  void finish(int exitcode) {
+    write_chunk();
+    output << "0 " << exitcode << "\n";
+    output.flush();
+  }
+
+protected:
+  int_type overflow(int_type ch) override {
+    write_chunk();
+    if (!traits_type::eq_int_type(ch, traits_type::eof())) {
+      *pptr() = traits_type::to_char_type(ch);
+      pbump(1);
+    }
+    return traits_type::not_eof(ch);
+  }
+
+  int sync() override {
+    write_chunk();
+    output.flush();
+    return output ? 0 : -1;
+  }
+
+private:
+  void reset() { setp(buffer.data(), buffer.data() + buffer.size()); }
+
+  void write_chunk() {
+    const auto size = pptr() - pbase();
+    if (size > 0) {
+      output << size << "\n";
+      output.write(pbase(), size);
+    }
+    reset();
+  }
+
+  std::ostream &output;
+  std::vector<char> buffer;
+};
+
+/**
+ * Process runs until standard input is closed.
+ *
+ * Each request is one line containing a run directory, optionally preceded by
+ * a time zone (as used for the TZ environment variable) and a tab. After the
+ * time zone, `progress` and a tab may be given to process the run as with
+ * `--progress`. Each
+ * response is the JSON in chunks, as written by ChunkedBuffer, ending with the
+ * exit code; if the exit code is not 0, the chunks before it must be
+ * discarded. This saves starting a new process and initialising the InterOp
+ * library for every run.
+ */
+int run_daemon() {
+  std::string request;
+  while (std::getline(std::cin, request)) {
+    auto directory = request;
+    auto progress_only = false;
+    auto separator = directory.find('\t');
+    if (separator != std::string::npos) {
+      setenv("TZ", directory.substr(0, separator).c_str(), 1);
+      tzset();
+      directory = directory.substr(separator + 1);
+      separator = directory.find('\t');
+      if (separator != std::string::npos) {
+        progress_only = directory.substr(0, separator) == "progress";
+        directory = directory.substr(separator + 1);
+      }
+    }
+    ChunkedBuffer chunks(std::cout);
+    std::ostream response(&chunks);
+    int exitcode;
+    try {
+      exitcode = process_run(directory, progress_only, response);
+    } catch (std::exception &e) {
+      /* In single-run mode, this would crash the process; here, only this
+       * request fails. */
+      std::cerr << "Exception processing run in " << directory << ": "
+                << e.what() << std::endl;
+      exitcode = 3;
+    }
+    chunks.finish(exitcode);
+  }
+  return 0;
+}
+
+int main(int argc, const char **argv) {
+  if (argc == 3 && std::string(argv[1]) == "--progress") {
+    return process_run(argv[2], true, std::cout);
+  }
+  if (argc != 2) {
+    return 1;
+  }
+  if (std::string(argv[1]) == "--daemon") {
+    return run_daemon();
+  }
+  /* Write everything to standard output from consumption by Java. */
+  return process_run(argv[1], false, std::cout);
+}
@@ -5,6 +5,7 @@ import ca.on.oicr.gsi.runscanner.scanner.processor.PathType;
 import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.File;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.TimeZone;
@@ -16,9 +17,24 @@ public class Configuration {
   private File path;
   private RunProcessor processor;
   private ObjectNode parameters;
+  private RescanPolicy rescanPolicy = new RescanPolicy();
+  private ExecutorConfiguration executor = new ExecutorConfiguration();
+  private Duration timeout;
 
   private TimeZone timeZone;
 
+  public ExecutorConfiguration getExecutor() {
+    return executor;
+  }
+
+  /** The name of the pool that processes this sequencer's runs */
+  public String getExecutorName() {
+    if (executor.getName() != null) {
+      return executor.getName();
+    }
+    return processor == null ? "UNKNOWN" : processor.getPlatformType().name();
+  }
+
   public List<File> getIgnoreSubdirectories() {
     return ignoreSubdirectories;
   }
@@ -35,19 +51,37 @@ public class Configuration {
     return parameters;
   }
 
+  public RescanPolicy getRescanPolicy() {
+    return rescanPolicy;
+  }
+
   public Stream<Pair<File, Configuration>> getRuns() {
     return processor.getRunsFromRoot(getPath()).map(directory -> new Pair<>(directory, this));
   }
 
+  /** The longest a run may take to process before it is abandoned; null if there is no limit */
+  public Duration getTimeout() {
+    return timeout;
+  }
+
   public TimeZone getTimeZone() {
     return timeZone;
   }
 
+  private boolean isTimeoutValid() {
+    return timeout == null || (!timeout.isNegative() && !timeout.isZero());
+  }
+
   public boolean isValid() {
 
     // If the path is VIRTUAL, we only care that a path string and timezone are provided
     if (processor != null && processor.getPathType() == PathType.VIRTUAL) {
-      return path != null && timeZone != null && processor.validateParameters(parameters);
+      return path != null
+          && timeZone != null
+          && processor.validateParameters(parameters)
+          && rescanPolicy.isValid()
+          && executor.isValid()
+          && isTimeoutValid();
     }
 
     return path != null
@@ -55,7 +89,10 @@ public class Configuration {
         && path.canRead()
         && path.canExecute()
         && processor != null
-        && timeZone != null;
+        && timeZone != null
+        && rescanPolicy.isValid()
+        && executor.isValid()
+        && isTimeoutValid();
   }
 
   public String validitySummary() {
@@ -69,6 +106,9 @@ public class Configuration {
     }
     if (processor == null) summary += "Processor is null! ";
     if (timeZone == null) summary += "TimeZone is null! ";
+    if (!rescanPolicy.isValid()) summary += "Rescan policy is invalid! ";
+    if (!executor.isValid()) summary += "Executor is invalid! ";
+    if (!isTimeoutValid()) summary += "Timeout must be positive! ";
     if (processor != null && processor.getPathType() == PathType.VIRTUAL) {
       if (!processor.validateParameters(parameters))
         summary += "Parameters not configured correctly! ";
@@ -76,6 +116,10 @@ public class Configuration {
     return summary;
   }
 
+  public void setExecutor(ExecutorConfiguration executor) {
+    this.executor = executor == null ? new ExecutorConfiguration() : executor;
+  }
+
   public void setIgnoreSubdirectories(List<File> ignoreSubdirectories) {
     if (ignoreSubdirectories == null) {
       this.ignoreSubdirectories = new ArrayList<>();
@@ -92,10 +136,18 @@ public class Configuration {
     this.parameters = parameters;
   }
 
+  public void setRescanPolicy(RescanPolicy rescanPolicy) {
+    this.rescanPolicy = rescanPolicy == null ? new RescanPolicy() : rescanPolicy;
+  }
+
   public void setProcessor(RunProcessor processor) {
     this.processor = processor;
   }
 
+  public void setTimeout(Duration timeout) {
+    this.timeout = timeout;
+  }
+
   public void setTimeZone(TimeZone timeZone) {
     this.timeZone = timeZone;
   }
@@ -0,0 +1,348 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import ca.on.oicr.gsi.runscanner.scanner.processor.PathType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watch sequencer output directories so that new runs and run completion markers are noticed within
+ * seconds rather than at the next sweep.
+ *
+ * <p>Each root, and the directories beneath it down to the depth its processor finds runs at (see
+ * {@link ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor#getWatchDepth()}), is watched for
+ * new entries, and new directories within that depth are watched as they appear. Each in-progress
+ * run directory immediately beneath a root is also watched for the marker files its processor
+ * recognises (see {@link
+ * ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor#isRunMarker(String)}). Changes are
+ * collected until the filesystem has been quiet for a moment and then handed to the listener as the
+ * set of changed directories under each root. If events were lost, the root itself is reported,
+ * meaning any run under it may have changed.
+ *
+ * <p>Watches are only a hint: some filesystems (e.g., network mounts written by another host) never
+ * deliver events, so the scheduler must still sweep periodically.
+ */
+final class DirectoryWatcher implements AutoCloseable {
+  /** Receives the directories that changed, grouped by the configuration they belong to. */
+  interface Listener {
+    void changed(Configuration root, Set<File> directories);
+  }
+
+  private static final class Watched {
+    // How many levels below the root the directory is
+    private final int depth;
+    private final File directory;
+    private final boolean isRun;
+    private volatile Configuration root;
+
+    private Watched(Configuration root, File directory, int depth, boolean isRun) {
+      this.root = root;
+      this.directory = directory;
+      this.depth = depth;
+      this.isRun = isRun;
+    }
+
+    private boolean isRoot() {
+      return !isRun && depth == 0;
+    }
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+  public static DirectoryWatcher create(Listener listener, Duration quietPeriod)
+      throws IOException {
+    DirectoryWatcher watcher =
+        new DirectoryWatcher(listener, quietPeriod, FileSystems.getDefault().newWatchService());
+    watcher.thread.start();
+    return watcher;
+  }
+
+  // The watches that are registered; only modified while synchronized
+  private final Map<WatchKey, Watched> keys = new HashMap<>();
+  private final Listener listener;
+  private final long quietPeriod;
+  // Roots that have been swept at least once since their watch was registered
+  private final Set<File> reconciled = new HashSet<>();
+  private final WatchService service;
+  private final Thread thread;
+  // Roots where watches cannot be used; these are left to the periodic sweep
+  private final Set<File> unwatchable = new HashSet<>();
+
+  private DirectoryWatcher(Listener listener, Duration quietPeriod, WatchService service) {
+    this.listener = listener;
+    this.quietPeriod = quietPeriod.toMillis();
+    this.service = service;
+    thread = new Thread(this::run, "runscanner-directory-watcher");
+    thread.setDaemon(true);
+  }
+
+  @Override
+  public void close() throws IOException {
+    service.close();
+    thread.interrupt();
+  }
+
+  /**
+   * Determine if the watches on a root have been trusted through a complete sweep.
+   *
+   * <p>A sweep of a root that has not been reconciled will find runs that predate the watch, so
+   * only sweeps of reconciled roots can tell if the watch is missing events.
+   */
+  public synchronized boolean isReconciled(File root) {
+    return reconciled.contains(root);
+  }
+
+  /** Determine if changes under a root are being delivered by this watcher. */
+  public synchronized boolean isWatching(File root) {
+    return keys.values().stream()
+        .anyMatch(watched -> watched.isRoot() && watched.directory.equals(root));
+  }
+
+  public synchronized void markReconciled(File root) {
+    if (isWatching(root)) {
+      reconciled.add(root);
+    }
+  }
+
+  /**
+   * Stop watching a root because its watches have proven unreliable.
+   *
+   * <p>The root will not be watched again until the server is restarted.
+   */
+  public synchronized void unwatch(File root) {
+    unwatchable.add(root);
+    reconciled.remove(root);
+    cancel(watched -> watched.root.getPath().equals(root));
+  }
+
+  /**
+   * Update the roots being watched to match the configuration.
+   *
+   * <p>Roots that are new are registered and roots that have been removed from the configuration
+   * are no longer watched. Roots that cannot be registered are left to the periodic sweep.
+   */
+  public synchronized void watchRoots(Collection<Configuration> configurations) {
+    Map<File, Configuration> wanted = new HashMap<>();
+    for (Configuration configuration : configurations) {
+      if (configuration.isValid()
+          && configuration.getProcessor().getPathType() != PathType.VIRTUAL
+          && !unwatchable.contains(configuration.getPath())) {
+        wanted.put(configuration.getPath(), configuration);
+      }
+    }
+    cancel(watched -> !wanted.containsKey(watched.root.getPath()));
+    reconciled.retainAll(wanted.keySet());
+    // The configuration may have been reloaded, so point existing watches at the new copy
+    for (Watched watched : keys.values()) {
+      watched.root = wanted.get(watched.root.getPath());
+    }
+    for (Configuration configuration : wanted.values()) {
+      if (!isWatching(configuration.getPath())) {
+        watchTree(configuration, configuration.getPath(), 0);
+      }
+    }
+  }
+
+  /**
+   * Update the run directories being watched under a root.
+   *
+   * @param root the configuration the runs belong to
+   * @param directories the run directories that are still in progress; only those immediately under
+   *     the root are watched
+   */
+  public synchronized void watchRuns(Configuration root, Set<File> directories) {
+    if (!isWatching(root.getPath())) {
+      return;
+    }
+    Set<File> wanted = new HashSet<>();
+    for (File directory : directories) {
+      if (root.getPath().equals(directory.getParentFile())) {
+        wanted.add(directory);
+      }
+    }
+    // Drop the runs that are no longer wanted; whatever is left in wanted afterwards is new
+    cancel(
+        watched ->
+            watched.isRun
+                && watched.root.getPath().equals(root.getPath())
+                && !wanted.remove(watched.directory));
+    for (File directory : wanted) {
+      if (keys.values().stream().noneMatch(watched -> watched.directory.equals(directory))) {
+        register(root, directory, 1, true);
+      }
+    }
+  }
+
+  /** Start watching a single run directory immediately under a watched root. */
+  public synchronized void watchRun(Configuration root, File directory) {
+    if (isWatching(root.getPath())
+        && root.getPath().equals(directory.getParentFile())
+        && keys.values().stream().noneMatch(watched -> watched.directory.equals(directory))) {
+      register(root, directory, 1, true);
+    }
+  }
+
+  private void cancel(Predicate<Watched> predicate) {
+    Iterator<Map.Entry<WatchKey, Watched>> iterator = keys.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<WatchKey, Watched> entry = iterator.next();
+      if (predicate.test(entry.getValue())) {
+        entry.getKey().cancel();
+        iterator.remove();
+      }
+    }
+  }
+
+  private boolean register(Configuration root, File directory, int depth, boolean isRun) {
+    try {
+      // Only new entries matter above the runs; activity inside a run is noticed through its
+      // markers
+      WatchKey key =
+          !isRun
+              ? directory.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE)
+              : directory
+                  .toPath()
+                  .register(
+                      service,
+                      StandardWatchEventKinds.ENTRY_CREATE,
+                      StandardWatchEventKinds.ENTRY_MODIFY);
+      keys.put(key, new Watched(root, directory, depth, isRun));
+      return true;
+    } catch (IOException | UnsupportedOperationException e) {
+      if (!isRun && depth == 0) {
+        log.warn("Cannot watch {}; it will only be swept periodically", directory, e);
+        unwatchable.add(directory);
+      } else {
+        // The directory may have been deleted; the sweep will sort it out
+        log.debug("Cannot watch directory {}", directory, e);
+      }
+    } catch (ClosedWatchServiceException e) {
+      // Shutting down
+    }
+    return false;
+  }
+
+  /**
+   * Watch a directory for new entries and, if runs can be further down, the directories already
+   * inside it. Links are not followed, as the processors do not follow them looking for runs.
+   */
+  private void watchTree(Configuration root, File directory, int depth) {
+    if (!register(root, directory, depth, false)
+        || depth + 1 >= root.getProcessor().getWatchDepth()) {
+      return;
+    }
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory.toPath())) {
+      for (Path entry : entries) {
+        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+          watchTree(root, entry.toFile(), depth + 1);
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Cannot list {} to watch the directories in it", directory, e);
+    }
+  }
+
+  private void run() {
+    Map<Configuration, Set<File>> pending = new HashMap<>();
+    long firstPending = 0;
+    while (true) {
+      WatchKey key;
+      try {
+        key = pending.isEmpty() ? service.take() : service.poll(quietPeriod, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      if (key != null) {
+        boolean wasEmpty = pending.isEmpty();
+        collect(key, pending);
+        if (wasEmpty && !pending.isEmpty()) {
+          firstPending = System.nanoTime();
+        }
+      }
+      // Flush once things are quiet, but don't let a directory that never stops changing delay
+      // other runs indefinitely
+      if (!pending.isEmpty()
+          && (key == null
+              || System.nanoTime() - firstPending
+                  > TimeUnit.MILLISECONDS.toNanos(quietPeriod * 4))) {
+        for (Map.Entry<Configuration, Set<File>> entry : pending.entrySet()) {
+          try {
+            listener.changed(entry.getKey(), entry.getValue());
+          } catch (Exception e) {
+            log.error("Failed to handle changes under " + entry.getKey().getPath(), e);
+          }
+        }
+        pending = new HashMap<>();
+      }
+    }
+  }
+
+  private void collect(WatchKey key, Map<Configuration, Set<File>> pending) {
+    Watched watched;
+    synchronized (this) {
+      watched = keys.get(key);
+    }
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (watched == null) {
+        continue;
+      }
+      File changed;
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        // Events were dropped, so assume anything in the directory might have changed, including
+        // new directories that need to be watched
+        changed = watched.directory;
+        if (!watched.isRun) {
+          synchronized (this) {
+            if (keys.containsKey(key)) {
+              watchTree(watched.root, watched.directory, watched.depth);
+            }
+          }
+        }
+      } else {
+        File child = watched.directory.toPath().resolve((Path) event.context()).toFile();
+        if (!watched.isRun) {
+          changed = child;
+          if (watched.depth + 1 < watched.root.getProcessor().getWatchDepth()
+              && Files.isDirectory(child.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            synchronized (this) {
+              // The root may have stopped being watched since the event was queued
+              if (keys.containsKey(key)) {
+                watchTree(watched.root, child, watched.depth + 1);
+              }
+            }
+          }
+        } else if (watched.root.getProcessor().isRunMarker(child.getName())) {
+          changed = watched.directory;
+        } else {
+          continue;
+        }
+      }
+      pending.computeIfAbsent(watched.root, k -> new HashSet<>()).add(changed);
+    }
+    if (!key.reset()) {
+      synchronized (this) {
+        keys.remove(key);
+      }
+    }
+  }
+}
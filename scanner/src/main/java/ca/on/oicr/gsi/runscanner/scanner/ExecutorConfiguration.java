@@ -0,0 +1,87 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+/**
+ * The pool of threads that processes a sequencer's runs.
+ *
+ * <p>This is read from the <code>executor</code> property of a sequencer in the configuration file.
+ * Sequencers that use the same executor name share one pool; by default, there is one pool for each
+ * platform. Keeping slow or stalled sequencers in their own pool means they cannot starve the rest.
+ * If sequencers sharing a pool give different sizes, the first one in the configuration file is
+ * used.
+ */
+public class ExecutorConfiguration {
+  /** How the pool's threads spend their time, which determines the default sizes */
+  public enum Mode {
+    /** Runs are mostly parsed in memory; one thread per processor */
+    CPU,
+    /**
+     * Runs are mostly waiting on network file systems or remote services; many threads, with each
+     * sequencer limited to a share of them
+     */
+    IO
+  }
+
+  /** The number of threads per processor in an I/O-bound pool */
+  public static final int IO_THREADS_PER_PROCESSOR = 8;
+
+  private Mode mode = Mode.CPU;
+  private String name;
+  private Integer queueCapacity;
+  private Integer sequencerConcurrency;
+  private Integer threads;
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /** The name of the pool; if absent, the sequencer's platform is used */
+  public String getName() {
+    return name;
+  }
+
+  /** The number of runs that can wait to be processed; if absent, the server default is used */
+  public Integer getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * The number of runs from one sequencer that can be processed at once; if absent, unlimited for
+   * CPU-bound pools and the number of processors for I/O-bound pools
+   */
+  public Integer getSequencerConcurrency() {
+    return sequencerConcurrency;
+  }
+
+  /** The number of runs that can be processed at once; if absent, this depends on the mode */
+  public Integer getThreads() {
+    return threads;
+  }
+
+  public boolean isValid() {
+    return mode != null
+        && (name == null || !name.isBlank())
+        && (queueCapacity == null || queueCapacity > 0)
+        && (sequencerConcurrency == null || sequencerConcurrency > 0)
+        && (threads == null || threads > 0);
+  }
+
+  public void setMode(Mode mode) {
+    this.mode = mode;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public void setQueueCapacity(Integer queueCapacity) {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public void setSequencerConcurrency(Integer sequencerConcurrency) {
+    this.sequencerConcurrency = sequencerConcurrency;
+  }
+
+  public void setThreads(Integer threads) {
+    this.threads = threads;
+  }
+}
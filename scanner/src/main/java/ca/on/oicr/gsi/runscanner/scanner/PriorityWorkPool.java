@@ -0,0 +1,276 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of threads that process runs from a bounded queue, most urgent first.
+ *
+ * <p>Runs of the same priority are processed in the order they were submitted, so the round-robin
+ * interleaving of sequencers produced by the scheduler is preserved within each priority. When the
+ * queue is full, a new run displaces the least urgent, most recently submitted run if it is more
+ * urgent; otherwise, it is rejected. Displaced and rejected runs are not lost: they will be found
+ * again by a later sweep.
+ *
+ * <p>A run may also be limited by a set of permits shared with other runs (e.g., all the runs from
+ * one sequencer). A thread skips over runs whose permits are all in use and takes the next most
+ * urgent run instead, so one busy sequencer does not hold up the rest of the queue.
+ */
+final class PriorityWorkPool {
+  /** How urgently a run needs processing, from most to least urgent */
+  public enum Priority {
+    /** The run has never been processed */
+    NEW,
+    /** The run is in progress, but is expected to finish soon or has written a completion marker */
+    NEAR_COMPLETION,
+    /** The run is in progress and is due to be checked again */
+    RECHECK,
+    /** The run failed to process and is due to be retried */
+    RETRY
+  }
+
+  private final class Task {
+    private final Runnable dropped;
+    private final Semaphore permits;
+    private final Priority priority;
+    private final long queued = System.nanoTime();
+    private final long sequence = sequenceNumber.getAndIncrement();
+    private final Runnable work;
+
+    private Task(Priority priority, Semaphore permits, Runnable work, Runnable dropped) {
+      this.priority = priority;
+      this.permits = permits;
+      this.work = work;
+      this.dropped = dropped;
+    }
+  }
+
+  private static final String EXECUTOR_LABEL = "executor";
+  private static final String PRIORITY_LABEL = "priority";
+
+  private static final Counter displaced =
+      Counter.builder()
+          .name("miso_runscanner_queue_displaced")
+          .help(
+              "The number of waiting runs removed from a full processing queue to make room for more urgent runs.")
+          .labelNames(EXECUTOR_LABEL, PRIORITY_LABEL)
+          .register();
+
+  private static final Logger log = LoggerFactory.getLogger(PriorityWorkPool.class);
+
+  private static final Counter rejected =
+      Counter.builder()
+          .name("miso_runscanner_queue_rejected")
+          .help("The number of runs that could not be added to a full processing queue.")
+          .labelNames(EXECUTOR_LABEL, PRIORITY_LABEL)
+          .register();
+
+  private static final Histogram waitTime =
+      Histogram.builder()
+          .classicUpperBounds(1, 10, 60, 300, 900, 1800, 3600, 7200, 14400, 43200)
+          .name("miso_runscanner_queue_wait_time")
+          .help("Time runs spent waiting in the processing queue in seconds.")
+          .labelNames(EXECUTOR_LABEL, PRIORITY_LABEL)
+          .register();
+
+  private int capacity;
+  // Signalled when a run is added or permits are released
+  private final Condition notEmpty;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final String name;
+  private final TreeSet<Task> queue =
+      new TreeSet<>(
+          Comparator.<Task, Priority>comparing(task -> task.priority)
+              .thenComparingLong(task -> task.sequence));
+  private final AtomicLong sequenceNumber = new AtomicLong();
+  private final int threads;
+  private final ExecutorService workers;
+
+  /**
+   * Create a new pool
+   *
+   * @param name the name of the pool, used to label metrics
+   * @param threads the number of runs to process at once
+   * @param capacity the number of runs that can wait to be processed
+   */
+  public PriorityWorkPool(String name, int threads, int capacity) {
+    this.name = name;
+    this.threads = threads;
+    this.capacity = capacity;
+    notEmpty = lock.newCondition();
+    workers = Executors.newFixedThreadPool(threads);
+    for (int i = 0; i < threads; i++) {
+      workers.execute(this::work);
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  public void setCapacity(int capacity) {
+    lock.lock();
+    try {
+      this.capacity = capacity;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop accepting runs. Runs being processed are allowed to finish and runs that are waiting are
+   * dropped.
+   */
+  public void shutdown() {
+    List<Task> abandoned;
+    lock.lock();
+    try {
+      workers.shutdown();
+      abandoned = new ArrayList<>(queue);
+      queue.clear();
+      // Wake up idle threads so they notice the shutdown
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (Task task : abandoned) {
+      task.dropped.run();
+    }
+  }
+
+  /** Stop all the threads, interrupting any runs being processed and abandoning queued runs. */
+  public void shutdownNow() {
+    workers.shutdownNow();
+  }
+
+  /**
+   * Add a run to the queue.
+   *
+   * @param priority how urgently the run should be processed
+   * @param work the processing to do
+   * @param dropped called if the run is later displaced from the queue before it is processed
+   * @return true if the run was queued; false if the queue is full of more urgent runs
+   */
+  public boolean submit(Priority priority, Runnable work, Runnable dropped) {
+    return submit(priority, null, work, dropped);
+  }
+
+  /**
+   * Add a run to the queue that may only be processed while it holds one of a set of permits.
+   *
+   * @param priority how urgently the run should be processed
+   * @param permits the permits the run must acquire before being processed, or null for no limit
+   * @param work the processing to do
+   * @param dropped called if the run is later displaced from the queue before it is processed
+   * @return true if the run was queued; false if the queue is full of more urgent runs
+   */
+  public boolean submit(Priority priority, Semaphore permits, Runnable work, Runnable dropped) {
+    Task task = new Task(priority, permits, work, dropped);
+    Task victim = null;
+    lock.lock();
+    try {
+      if (workers.isShutdown()) {
+        rejected.labelValues(name, priority.name()).inc();
+        return false;
+      }
+      if (queue.size() >= capacity) {
+        Task last = queue.isEmpty() ? null : queue.last();
+        if (last == null || last.priority.compareTo(priority) <= 0) {
+          rejected.labelValues(name, priority.name()).inc();
+          return false;
+        }
+        victim = queue.pollLast();
+      }
+      queue.add(task);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+    if (victim != null) {
+      displaced.labelValues(name, victim.priority.name()).inc();
+      victim.dropped.run();
+    }
+    return true;
+  }
+
+  private Task take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (true) {
+        if (queue.isEmpty() && workers.isShutdown()) {
+          return null;
+        }
+        Iterator<Task> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+          Task task = iterator.next();
+          if (task.permits == null || task.permits.tryAcquire()) {
+            iterator.remove();
+            return task;
+          }
+        }
+        notEmpty.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void release(Task task) {
+    if (task.permits == null) {
+      return;
+    }
+    lock.lock();
+    try {
+      task.permits.release();
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void work() {
+    while (!workers.isShutdown()) {
+      Task task;
+      try {
+        task = take();
+      } catch (InterruptedException e) {
+        if (workers.isShutdown()) {
+          return;
+        }
+        continue;
+      }
+      if (task == null) {
+        return;
+      }
+      waitTime
+          .labelValues(name, task.priority.name())
+          .observe((System.nanoTime() - task.queued) / 1e9);
+      try {
+        task.work.run();
+      } catch (Exception e) {
+        log.error("Unexpected error processing run", e);
+      } finally {
+        release(task);
+      }
+      // Don't let an interrupt aimed at one run leak into the next
+      Thread.interrupted();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Decides how long to wait before scanning a run again, either because it is still in progress or
+ * because it failed to process.
+ *
+ * <p>This is read from the <code>rescanPolicy</code> property of a sequencer in the configuration
+ * file. All delays are in minutes. With no properties set, runs in progress are scanned every 10
+ * minutes and failed runs are retried every 20 minutes.
+ *
+ * <p>Each time a run in progress is scanned and produces exactly the same result as the previous
+ * scan, the delay is multiplied by <code>backoff</code>, up to <code>maximumDelay</code>. If the
+ * processor can report how far along the run is, the delay is shortened so that the run is scanned
+ * when it is expected to finish, but not sooner than <code>earliestDelay</code>. Runs in a
+ * particular health state can be given a fixed delay using <code>healthDelays</code>. Failed runs
+ * back off the same way from <code>failureDelay</code> up to <code>maximumFailureDelay</code> for
+ * every consecutive failure.
+ */
+public class RescanPolicy {
+  private double backoff = 1;
+  private int delay = 10;
+  private Integer earliestDelay;
+  private int failureDelay = 20;
+  private Map<HealthType, Integer> healthDelays = Collections.emptyMap();
+  private Integer maximumDelay;
+  private Integer maximumFailureDelay;
+
+  /**
+   * Estimate how long a run will take to finish from two observations of its progress.
+   *
+   * @param previousProgress the fraction of the run complete at the earlier observation
+   * @param previousTime the time of the earlier observation
+   * @param progress the fraction of the run complete now
+   * @param time the time of the current observation
+   * @return the time remaining, if the run has made progress
+   */
+  static Optional<Duration> estimateRemaining(
+      double previousProgress, Instant previousTime, double progress, Instant time) {
+    if (!(progress > previousProgress) || !time.isAfter(previousTime) || progress >= 1) {
+      return Optional.empty();
+    }
+    double elapsed = Duration.between(previousTime, time).toMillis();
+    return Optional.of(
+        Duration.ofMillis(Math.round(elapsed * (1 - progress) / (progress - previousProgress))));
+  }
+
+  private static Duration backoff(int base, int maximum, double multiplier, int repeats) {
+    double minutes = base * Math.pow(multiplier, repeats);
+    return Duration.ofMinutes(Math.round(Math.min(minutes, maximum)));
+  }
+
+  public double getBackoff() {
+    return backoff;
+  }
+
+  public int getDelay() {
+    return delay;
+  }
+
+  public int getEarliestDelay() {
+    return earliestDelay == null ? delay : earliestDelay;
+  }
+
+  public int getFailureDelay() {
+    return failureDelay;
+  }
+
+  public Map<HealthType, Integer> getHealthDelays() {
+    return healthDelays;
+  }
+
+  public int getMaximumDelay() {
+    return maximumDelay == null ? delay : maximumDelay;
+  }
+
+  public int getMaximumFailureDelay() {
+    return maximumFailureDelay == null ? failureDelay : maximumFailureDelay;
+  }
+
+  public boolean isValid() {
+    return backoff >= 1
+        && delay > 0
+        && getEarliestDelay() > 0
+        && getEarliestDelay() <= delay
+        && getMaximumDelay() >= delay
+        && failureDelay > 0
+        && getMaximumFailureDelay() >= failureDelay
+        && healthDelays.values().stream().allMatch(value -> value != null && value > 0);
+  }
+
+  /**
+   * Determine how long to wait before scanning a run that is not done.
+   *
+   * @param health the health of the run in the latest scan
+   * @param unchangedScans the number of scans in a row that produced the same result as the one
+   *     before
+   * @param remaining an estimate of how long until the run finishes, if one could be made
+   */
+  public Duration rescanDelay(HealthType health, int unchangedScans, Optional<Duration> remaining) {
+    Integer healthDelay = health == null ? null : healthDelays.get(health);
+    if (healthDelay != null) {
+      return Duration.ofMinutes(healthDelay);
+    }
+    Duration result = backoff(delay, getMaximumDelay(), backoff, unchangedScans);
+    if (remaining.isPresent() && remaining.get().compareTo(result) < 0) {
+      Duration earliest = Duration.ofMinutes(getEarliestDelay());
+      result = remaining.get().compareTo(earliest) < 0 ? earliest : remaining.get();
+    }
+    return result;
+  }
+
+  /**
+   * Determine how long to wait before retrying a run that failed to process.
+   *
+   * @param failures the number of times in a row the run has failed, including the latest
+   */
+  public Duration retryDelay(int failures) {
+    return backoff(failureDelay, getMaximumFailureDelay(), backoff, Math.max(0, failures - 1));
+  }
+
+  public void setBackoff(double backoff) {
+    this.backoff = backoff;
+  }
+
+  public void setDelay(int delay) {
+    this.delay = delay;
+  }
+
+  public void setEarliestDelay(Integer earliestDelay) {
+    this.earliestDelay = earliestDelay;
+  }
+
+  public void setFailureDelay(int failureDelay) {
+    this.failureDelay = failureDelay;
+  }
+
+  public void setHealthDelays(Map<HealthType, Integer> healthDelays) {
+    this.healthDelays =
+        healthDelays == null || healthDelays.isEmpty()
+            ? Collections.emptyMap()
+            : new EnumMap<>(healthDelays);
+  }
+
+  public void setMaximumDelay(Integer maximumDelay) {
+    this.maximumDelay = maximumDelay;
+  }
+
+  public void setMaximumFailureDelay(Integer maximumFailureDelay) {
+    this.maximumFailureDelay = maximumFailureDelay;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "every %d-%d minutes (backoff %.1f, earliest %d, by health %s); failures every %d-%d minutes",
+        delay,
+        getMaximumDelay(),
+        backoff,
+        getEarliestDelay(),
+        healthDelays,
+        failureDelay,
+        getMaximumFailureDelay());
+  }
+}
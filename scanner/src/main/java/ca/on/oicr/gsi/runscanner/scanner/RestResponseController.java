@@ -39,14 +39,9 @@ public class RestResponseController {
           "Time to serve a progressive request (in seconds).");
   @Autowired private Scheduler scheduler;
 
-  // We create a token that is effectively random upon initialisation so that we know if the client
-  // thinks it's talking to the same instance
-  // of the server
-  private final long token = System.currentTimeMillis();
-
   /**
    * Given a known run name. If no run is found, null is returned. If there are multiple runs with
-   * the same name that are from different sequencers, one is randomly selected.
+   * the same name that are from different sequencers, the most recently processed one is selected.
    */
   @GetMapping("/run/{name}")
   @Operation(summary = "Get run by name")
@@ -57,9 +52,7 @@ public class RestResponseController {
   public ResponseEntity<NotificationDto> getByName(
       @PathVariable("name") @Parameter(description = "Run name") String id) {
     return scheduler
-        .finished()
-        .filter(dto -> dto.getRunAlias().equals(id))
-        .findAny()
+        .finishedByAlias(id)
         .map(dto -> new ResponseEntity<>(dto, HttpStatus.OK))
         .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
   }
@@ -78,7 +71,8 @@ public class RestResponseController {
 
   /**
    * Given a known run name. get its metrics. If no run is found, null is returned. If there are
-   * multiple runs with the same name that are from different sequencers, one is randomly selected.
+   * multiple runs with the same name that are from different sequencers, the most recently
+   * processed one is selected.
    */
   @GetMapping("/run/{name}/metrics")
   @Operation(summary = "Get metrics by run name")
@@ -89,13 +83,7 @@ public class RestResponseController {
   @ResponseBody
   public JsonNode getMetricsByName(
       @PathVariable("name") @Parameter(description = "Run name") String id) throws IOException {
-    String response =
-        scheduler
-            .finished()
-            .filter(dto -> dto.getRunAlias().equals(id))
-            .findAny()
-            .map(NotificationDto::getMetrics)
-            .orElse(null);
+    String response = scheduler.finishedByAlias(id).map(NotificationDto::getMetrics).orElse(null);
     if (response == null) throw new ResourceNotFoundException();
 
     ObjectMapper mapper = new ObjectMapper();
@@ -122,8 +110,8 @@ public class RestResponseController {
    *
    * <p>The purpose of the token is to identify ourselves. Since this service might be restarted
    * between the requests, the token identifies this instance of the server for the life time of its
-   * run. If the token doesn't match, we send the client all the data we know about and give them
-   * the new token.
+   * run (or, if a scan journal is configured, for as long as the journal exists). If the token
+   * doesn't match, we send the client all the data we know about and give them the new token.
    *
    * <p>We also need to track time. Rather than keep track of wall time, we use an incrementing
    * counter (epoch) that we increment whenever we finish processing a run. If the client sends us a
@@ -141,6 +129,7 @@ public class RestResponseController {
           @RequestBody
           ProgressiveRequestDto request) {
     ProgressiveResponseDto response = new ProgressiveResponseDto();
+    long token = scheduler.getToken();
     response.setToken(token);
     int requestedEpoch = request.getToken() == token ? request.getEpoch() : 0;
     try (AutoCloseable timer = progressiveLatency.start()) {
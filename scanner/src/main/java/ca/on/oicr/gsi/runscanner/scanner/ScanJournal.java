@@ -0,0 +1,378 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import ca.on.oicr.gsi.runscanner.dto.NotificationDto;
+import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only on-disk record of the scheduler's cache so that processed runs, the client token, and
+ * the epoch survive a restart.
+ *
+ * <p>Each line of the journal is one JSON {@link Record}. When the journal is replayed, later
+ * records replace earlier ones for the same path. A line that cannot be parsed at the end of the
+ * file (i.e., a write interrupted by a crash) is discarded. Each append is forced to disk before it
+ * returns, with appends made at the same time sharing one force. The journal is compacted when it
+ * is opened and whenever it grows well beyond the live entries, by count or by size.
+ */
+public final class ScanJournal implements AutoCloseable {
+
+  /** The kind of change a journal line records. */
+  public enum RecordType {
+    /** The token handed to clients of the progressive endpoint */
+    TOKEN,
+    /** A run was processed successfully */
+    FINISHED,
+    /**
+     * A run was processed again, or its files were unchanged, and the result was the same as the
+     * last {@link #FINISHED} record for it; only when to scan it again changed
+     */
+    UNCHANGED,
+    /** A run threw an exception while processing */
+    FAILED,
+    /** A run was removed from the cache by a user */
+    INVALIDATED
+  }
+
+  /** A single line in the journal */
+  @JsonInclude(Include.NON_NULL)
+  public static final class Record {
+    private NotificationDto dto;
+    private Integer epoch;
+    private Instant nextScan;
+    private String path;
+    private String reason;
+    private Integer repeats;
+    private Instant time;
+    private Long token;
+    private RecordType type;
+
+    public static Record failed(
+        File directory, Instant time, int failures, Instant retry, String reason) {
+      Record record = new Record();
+      record.setType(RecordType.FAILED);
+      record.setPath(directory.getPath());
+      record.setTime(time);
+      record.setRepeats(failures);
+      record.setNextScan(retry);
+      record.setReason(reason);
+      return record;
+    }
+
+    public static Record finished(
+        File directory,
+        int epoch,
+        Instant created,
+        Instant nextScan,
+        int unchangedScans,
+        NotificationDto dto) {
+      Record record = new Record();
+      record.setType(RecordType.FINISHED);
+      record.setPath(directory.getPath());
+      record.setEpoch(epoch);
+      record.setTime(created);
+      record.setNextScan(nextScan);
+      record.setRepeats(unchangedScans);
+      record.setDto(dto);
+      return record;
+    }
+
+    public static Record unchanged(
+        File directory, int epoch, Instant created, Instant nextScan, int unchangedScans) {
+      Record record = new Record();
+      record.setType(RecordType.UNCHANGED);
+      record.setPath(directory.getPath());
+      record.setEpoch(epoch);
+      record.setTime(created);
+      record.setNextScan(nextScan);
+      record.setRepeats(unchangedScans);
+      return record;
+    }
+
+    public static Record invalidated(File directory) {
+      Record record = new Record();
+      record.setType(RecordType.INVALIDATED);
+      record.setPath(directory.getPath());
+      return record;
+    }
+
+    public static Record token(long token) {
+      Record record = new Record();
+      record.setType(RecordType.TOKEN);
+      record.setToken(token);
+      return record;
+    }
+
+    public NotificationDto getDto() {
+      return dto;
+    }
+
+    public Integer getEpoch() {
+      return epoch;
+    }
+
+    /** The time the run should be scanned again; absent if the run is done */
+    public Instant getNextScan() {
+      return nextScan;
+    }
+
+    public String getPath() {
+      return path;
+    }
+
+    /** For a failed run, why it failed, if known */
+    public String getReason() {
+      return reason;
+    }
+
+    /**
+     * For a finished run, the number of scans in a row that were unchanged; for a failed run, the
+     * number of failures in a row
+     */
+    public Integer getRepeats() {
+      return repeats;
+    }
+
+    public Instant getTime() {
+      return time;
+    }
+
+    public Long getToken() {
+      return token;
+    }
+
+    public RecordType getType() {
+      return type;
+    }
+
+    public void setDto(NotificationDto dto) {
+      this.dto = dto;
+    }
+
+    public void setEpoch(Integer epoch) {
+      this.epoch = epoch;
+    }
+
+    public void setNextScan(Instant nextScan) {
+      this.nextScan = nextScan;
+    }
+
+    public void setPath(String path) {
+      this.path = path;
+    }
+
+    public void setReason(String reason) {
+      this.reason = reason;
+    }
+
+    public void setRepeats(Integer repeats) {
+      this.repeats = repeats;
+    }
+
+    public void setTime(Instant time) {
+      this.time = time;
+    }
+
+    public void setToken(Long token) {
+      this.token = token;
+    }
+
+    public void setType(RecordType type) {
+      this.type = type;
+    }
+  }
+
+  private static final Logger log = LoggerFactory.getLogger(ScanJournal.class);
+
+  /** Don't bother compacting small journals, no matter how many stale records they hold */
+  private static final int MINIMUM_COMPACTION_SIZE = 1000;
+
+  /** Don't bother compacting a journal that has had less than this appended, however small */
+  private static final long MINIMUM_COMPACTION_BYTES = 16L << 20;
+
+  private static final ObjectMapper MAPPER = RunProcessor.createObjectMapper();
+
+  /**
+   * Read all the records in a journal.
+   *
+   * @param file the journal file; if it does not exist, no records are returned
+   * @return the records in the order they were written
+   */
+  public static List<Record> read(File file) throws IOException {
+    List<Record> records = new ArrayList<>();
+    if (!file.exists()) {
+      return records;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.isBlank()) {
+          continue;
+        }
+        try {
+          records.add(MAPPER.readValue(line, Record.class));
+        } catch (JsonProcessingException e) {
+          if (reader.readLine() == null) {
+            // The last write was interrupted; everything before it is still good.
+            log.warn("Discarding incomplete last line {} of scan journal {}", lineNumber, file);
+            break;
+          }
+          throw new IOException(
+              String.format("Scan journal %s is corrupt at line %d", file, lineNumber), e);
+        }
+      }
+    }
+    return records;
+  }
+
+  /**
+   * Replace the contents of a journal with a compact set of records and open it for appending.
+   *
+   * @param file the journal file
+   * @param records the live records; these should start with a {@link RecordType#TOKEN} record
+   */
+  public static ScanJournal open(File file, Stream<Record> records) throws IOException {
+    ScanJournal journal = new ScanJournal(file.toPath());
+    journal.compact(records);
+    return journal;
+  }
+
+  private long appendedBytes;
+  private int appendedSinceCompaction;
+  private FileChannel channel;
+  private long compactedBytes;
+  // The number of appends written and forced to disk; forcing is done outside the lock so appends
+  // from other threads can join the next force
+  private long forced;
+  private final Object forceLock = new Object();
+  private final Path path;
+  private long written;
+
+  private ScanJournal(Path path) {
+    this.path = path;
+  }
+
+  /** Write a record to the end of the journal and force it to disk. */
+  public void append(Record record) throws IOException {
+    byte[] line = (MAPPER.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+    FileChannel target;
+    long sequence;
+    synchronized (this) {
+      if (channel == null) {
+        throw new IOException("Scan journal is closed: " + path);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(line);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      appendedBytes += line.length;
+      appendedSinceCompaction++;
+      target = channel;
+      sequence = ++written;
+    }
+    synchronized (forceLock) {
+      if (forced >= sequence) {
+        // Another append's force covered this one
+        return;
+      }
+      long covered;
+      synchronized (this) {
+        covered = written;
+      }
+      try {
+        target.force(false);
+      } catch (ClosedChannelException e) {
+        // A compaction replaced the file, and the new one was forced with this record in it
+        return;
+      }
+      forced = Math.max(forced, covered);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.force(false);
+      channel.close();
+      channel = null;
+    }
+  }
+
+  /**
+   * Rewrite the journal to contain only the supplied records.
+   *
+   * <p>The new journal is written to a temporary file and moved into place, so a crash during
+   * compaction leaves the previous journal intact.
+   */
+  public synchronized void compact(Stream<Record> records) throws IOException {
+    close();
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel output =
+            FileChannel.open(
+                temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        BufferedWriter writer =
+            new BufferedWriter(Channels.newWriter(output, StandardCharsets.UTF_8))) {
+      for (Record record : (Iterable<Record>) records::iterator) {
+        writer.write(MAPPER.writeValueAsString(record));
+        writer.newLine();
+      }
+      writer.flush();
+      output.force(false);
+    }
+    Files.move(
+        temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory();
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    compactedBytes = channel.size();
+    appendedBytes = 0;
+    appendedSinceCompaction = 0;
+  }
+
+  /** Make the move of a compacted journal into place durable, where the platform allows it */
+  private void forceDirectory() {
+    Path directory = path.toAbsolutePath().getParent();
+    try (FileChannel parent = FileChannel.open(directory, StandardOpenOption.READ)) {
+      parent.force(true);
+    } catch (IOException e) {
+      log.debug("Cannot force directory {} containing scan journal", directory, e);
+    }
+  }
+
+  /**
+   * Determine if the journal has accumulated enough superseded records to be worth compacting.
+   *
+   * @param liveEntries the number of records a compacted journal would hold
+   */
+  public synchronized boolean shouldCompact(int liveEntries) {
+    return appendedSinceCompaction > Math.max(MINIMUM_COMPACTION_SIZE, liveEntries)
+        || appendedBytes > Math.max(MINIMUM_COMPACTION_BYTES, compactedBytes);
+  }
+}
@@ -3,6 +3,8 @@ package ca.on.oicr.gsi.runscanner.scanner;
 import ca.on.oicr.gsi.Pair;
 import ca.on.oicr.gsi.runscanner.dto.NotificationDto;
 import ca.on.oicr.gsi.runscanner.dto.type.Platform;
+import ca.on.oicr.gsi.runscanner.scanner.ExecutorConfiguration.Mode;
+import ca.on.oicr.gsi.runscanner.scanner.processor.Cancellation;
 import ca.on.oicr.gsi.runscanner.scanner.processor.PathType;
 import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,24 +14,34 @@ import io.prometheus.metrics.core.metrics.Gauge;
 import io.prometheus.metrics.core.metrics.Histogram;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -42,24 +54,41 @@ import org.springframework.stereotype.Service;
 /** Periodically scan the run directories and cache the results. */
 @Service
 public class Scheduler {
+  private static final String EXECUTOR_LABEL = "executor";
   private static final String PLATFORM_LABEL = "platform";
+  private static final String ROOT_LABEL = "root";
+
+  /** Holder for a run that has failed to process. */
+  static class FailedWork {
+    int failures;
+    // Why processing failed, if known
+    String reason;
+    Instant retry;
+    Instant time;
+  }
 
   /** Holder for a run that has been scanned. */
-  private static class FinishedWork {
+  static class FinishedWork {
     Instant created = Instant.now();
     NotificationDto dto;
     int epoch;
+    // The processor's fingerprint of the run's files before it was processed, if it provides one
+    String fingerprint;
+    // When the run should be scanned again, as decided by the rescan policy; null if it is done
+    Instant nextScan;
+    // The number of scans in a row that produced the same result as the scan before
+    int unchangedScans;
 
     /**
      * Determine if the run should be scanned again.
      *
-     * <p>This only happens if the run is not marked as done by the processor and 10 minutes have
-     * past since the last process. The automatic rerunning done by scheduler is not sufficient to
-     * determine if the run needs to be reprocessed since it isn't clear how long the run waited in
-     * the processing queue.
+     * <p>This only happens if the run is not marked as done by the processor and the delay chosen
+     * by the sequencer's {@link RescanPolicy} has past since the last process. The automatic
+     * rerunning done by scheduler is not sufficient to determine if the run needs to be reprocessed
+     * since it isn't clear how long the run waited in the processing queue.
      */
     public boolean shouldRerun() {
-      return !dto.isDone() && Duration.between(created, Instant.now()).toMinutes() > 10;
+      return !dto.isDone() && (nextScan == null || Instant.now().isAfter(nextScan));
     }
   }
 
@@ -98,9 +127,16 @@ public class Scheduler {
     private ObjectNode parameters;
     private String path;
     private Platform platformType;
+    private ExecutorConfiguration executor;
+    private RescanPolicy rescanPolicy;
+    private Integer timeout;
     private String timeZone;
     private List<File> ignoreSubdirectories;
 
+    public ExecutorConfiguration getExecutor() {
+      return executor;
+    }
+
     public String getName() {
       return name;
     }
@@ -117,6 +153,14 @@ public class Scheduler {
       return platformType;
     }
 
+    public RescanPolicy getRescanPolicy() {
+      return rescanPolicy;
+    }
+
+    public Integer getTimeout() {
+      return timeout;
+    }
+
     public String getTimeZone() {
       return timeZone;
     }
@@ -125,6 +169,10 @@ public class Scheduler {
       return ignoreSubdirectories;
     }
 
+    public void setExecutor(ExecutorConfiguration executor) {
+      this.executor = executor;
+    }
+
     public void setName(String name) {
       this.name = name;
     }
@@ -141,6 +189,14 @@ public class Scheduler {
       this.platformType = platformType;
     }
 
+    public void setRescanPolicy(RescanPolicy rescanPolicy) {
+      this.rescanPolicy = rescanPolicy;
+    }
+
+    public void setTimeout(Integer timeout) {
+      this.timeout = timeout;
+    }
+
     public void setTimeZone(String timeZone) {
       this.timeZone = timeZone;
     }
@@ -150,6 +206,28 @@ public class Scheduler {
     }
   }
 
+  /**
+   * The permits for the runs of one sequencer. Runs hold on to the permits they were queued with,
+   * so a change in the limit resizes the permits rather than replacing them.
+   */
+  static class SequencerPermits extends Semaphore {
+    private int limit;
+
+    public SequencerPermits(int limit) {
+      super(limit);
+      this.limit = limit;
+    }
+
+    public void resize(int limit) {
+      if (limit > this.limit) {
+        release(limit - this.limit);
+      } else if (limit < this.limit) {
+        reducePermits(this.limit - limit);
+      }
+      this.limit = limit;
+    }
+  }
+
   private static class UnreadableDirectories implements Predicate<File> {
     private final Set<File> rejects = new HashSet<>();
 
@@ -215,6 +293,21 @@ public class Scheduler {
               "The current round of processing done for keeping the client in sync when progressively scanning.")
           .register();
 
+  private static final Counter timeouts =
+      Counter.builder()
+          .name("miso_runscanner_timeouts")
+          .help("The number of runs abandoned because they took too long to process.")
+          .labelNames(PLATFORM_LABEL, ROOT_LABEL)
+          .register();
+
+  private static final Counter fingerprintChecks =
+      Counter.builder()
+          .name("miso_runscanner_fingerprint_checks")
+          .help(
+              "The number of runs whose files were compared to the last time they were processed, by whether they were unchanged and processing was skipped.")
+          .labelNames(PLATFORM_LABEL, "result")
+          .register();
+
   private static final Counter errors =
       Counter.builder()
           .name("miso_runscanner_errors")
@@ -222,6 +315,18 @@ public class Scheduler {
           .labelNames(PLATFORM_LABEL)
           .register();
 
+  private static final Counter journalErrors =
+      Counter.builder()
+          .name("miso_runscanner_journal_errors")
+          .help("The number of times a change could not be written to the scan journal.")
+          .register();
+
+  private static final Gauge journalRestoredRuns =
+      Gauge.builder()
+          .name("miso_runscanner_journal_restored_runs")
+          .help("The number of processed runs restored from the scan journal at startup.")
+          .register();
+
   private static Logger log = LoggerFactory.getLogger(Scheduler.class);
 
   private static final Gauge newRunsScanned =
@@ -233,10 +338,18 @@ public class Scheduler {
   private static final Gauge processingRuns =
       Gauge.builder()
           .name("miso_runscanner_processing_runs")
-          .labelNames(PLATFORM_LABEL)
+          .labelNames(PLATFORM_LABEL, EXECUTOR_LABEL)
           .help("The number of runs currently being processed.")
           .register();
 
+  private static final Gauge nextScanTime =
+      Gauge.builder()
+          .name("miso_runscanner_next_scan_time_seconds")
+          .help(
+              "The epoch time when a run that is in progress or failed will next be eligible for scanning.")
+          .labelNames("directory")
+          .register();
+
   private static final Histogram processTime =
       Histogram.builder()
           .classicUpperBounds(1, 5, 10, 30, 60, 300, 600, 3600)
@@ -259,9 +372,29 @@ public class Scheduler {
       Gauge.builder()
           .name("miso_runscanner_waiting_runs")
           .help("The number of runs waiting to be processed.")
+          .labelNames(PLATFORM_LABEL, EXECUTOR_LABEL)
+          .register();
+
+  private static final Counter watchFallbacks =
+      Counter.builder()
+          .name("miso_runscanner_watch_fallbacks")
+          .help(
+              "The number of times a watched directory missed a new run and was returned to periodic sweeping.")
+          .register();
+
+  private static final Counter watchTriggeredRuns =
+      Counter.builder()
+          .name("miso_runscanner_watch_triggered_runs")
+          .help("The number of runs queued because a directory watch reported a change.")
           .labelNames(PLATFORM_LABEL)
           .register();
 
+  private static final Gauge watchedRoots =
+      Gauge.builder()
+          .name("miso_runscanner_watched_roots")
+          .help("The number of sequencer directories that are being watched for changes.")
+          .register();
+
   private static final Gauge lastScanStartTime =
       Gauge.builder()
           .name("miso_runscanner_last_scan_start_time_seconds")
@@ -279,52 +412,134 @@ public class Scheduler {
 
   private Instant configurationLastRead = Instant.now();
 
+  // The modification time of the configuration file, in milliseconds, when it was last read
+  private long configurationFileModified;
+
+  private static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+  // A run in progress that is at least this far along is prioritised as nearly complete
+  private static final double NEAR_COMPLETION_PROGRESS = 0.9;
+
+  // A run that a reconciling sweep finds, but the watcher never reported, must be at least this old
+  // before the watch on its root is considered broken
+  private static final Duration WATCH_GRACE_PERIOD = Duration.ofMinutes(5);
+
+  // How long to wait for a watched directory to stop changing before queuing its runs
+  private static final Duration WATCH_QUIET_PERIOD = Duration.ofSeconds(5);
+
   private final AtomicInteger epoch = new AtomicInteger();
 
   // The paths that threw an exception while processing.
-  private final Map<File, Instant> failed = new ConcurrentHashMap<>();
+  private final Map<File, FailedWork> failed = new ConcurrentHashMap<>();
 
   // The paths for which we have a notification to send.
   private final Map<File, FinishedWork> finishedWork = new ConcurrentHashMap<>();
 
+  // The same notifications as finishedWork, ordered by the epoch in which they were processed, so
+  // that progressive requests only need to visit the runs that changed. This is only modified while
+  // holding the finishedWork entry for the run (i.e., inside compute), so the two stay in sync.
+  private final ConcurrentNavigableMap<Integer, FinishedWork> finishedByEpoch =
+      new ConcurrentSkipListMap<>();
+
+  // The paths in finishedWork, indexed by the run alias reported by the processor and by the name
+  // of the run directory. Like finishedByEpoch, these are only modified inside finishedWork's
+  // compute. Run aliases are not guaranteed to be unique across sequencers.
+  private final Map<String, Set<File>> finishedByAlias = new ConcurrentHashMap<>();
+  private final Map<String, Set<File>> finishedByDirectoryName = new ConcurrentHashMap<>();
+
   private boolean isConfigurationGood = true;
 
+  // The on-disk copy of the cache, if one is configured
+  private ScanJournal journal;
+
   // The paths that are currently being processed (and the corresponding processor).
   private final Set<File> processing = new ConcurrentSkipListSet<>();
 
+  // The number of runs queued for or being processed by each processor
+  private final Map<RunProcessor, Integer> processorUsers = new ConcurrentHashMap<>();
+
+  // Processors that have been replaced by a configuration reload, but still have runs queued; each
+  // is closed when its last run is done
+  private final Set<RunProcessor> retiredProcessors = ConcurrentHashMap.newKeySet();
+
   // The directories that contain run directories that need to be scanned and the processors for
   // those runs.
   private List<Configuration> roots = Collections.emptyList();
 
   private ScheduledFuture<?> scanDirectoriesFuture = null;
 
+  // The number of runs from each sequencer that can be processed at once, by sequencer path; a
+  // sequencer that is absent is not limited
+  private final Map<File, SequencerPermits> sequencerPermits = new ConcurrentHashMap<>();
+
   private Instant scanLastStarted = null;
 
   private boolean scanningNow = false;
   private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
+  // Enforces processing deadlines; this is separate from the scheduler so that a long sweep does
+  // not delay abandoning runs
+  private final ScheduledExecutorService deadlines = Executors.newScheduledThreadPool(1);
+
+  // We create a token that is effectively random upon initialisation so that clients know if they
+  // are talking to the same instance of the server. If a journal is in use, the token is restored
+  // from it since the cache (and epochs) will also be restored.
+  private long token = System.currentTimeMillis();
+
   private UnreadableDirectories unreadableDirectories;
 
-  // Executors.newFixedThreadPool uses a LinkedBlockingQueue by default for its work pool, which
-  // results in scanning jobs being executed in order of submission
-  private final ExecutorService workPool =
-      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+  // The pools that process runs, by executor name (see Configuration.getExecutorName). Each pool
+  // processes runs most urgent first (see priorityOf) and, within a priority, in order of
+  // submission, so the round-robin order of the sweep is preserved.
+  private final Map<String, PriorityWorkPool> workPools = new ConcurrentHashMap<>();
+
+  private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
 
   // The paths that need to be processed (and the corresponding processor).
   private final Set<File> workToDo = new ConcurrentSkipListSet<>();
 
+  // Delivers changes to the roots between sweeps, if enabled
+  private DirectoryWatcher watcher;
+
+  private boolean watchDirectories;
+
+  // Roots that are being watched are only listed this often; the runs already found under them are
+  // still rechecked and retried on every sweep
+  private Duration watchReconcileInterval = Duration.ofHours(2);
+
+  private Instant watchLastReconciled = Instant.EPOCH;
+
   public Stream<NotificationDto> finished() {
     return finished(0, x -> true);
   }
 
-  public Stream<NotificationDto> finished(long epoch, Predicate<FinishedWork> filter) {
-    return finishedWork.values().stream()
-        .filter(x -> x.epoch >= epoch)
-        .sorted((a, b) -> a.epoch - b.epoch)
-        .filter(filter)
+  /**
+   * Get the runs processed since an epoch, in the order they were processed.
+   *
+   * @param epoch the first epoch to include
+   * @param limit a predicate that decides whether to keep taking runs; the stream ends at the first
+   *     run this rejects
+   */
+  public Stream<NotificationDto> finished(long epoch, Predicate<FinishedWork> limit) {
+    return finishedByEpoch.tailMap((int) Math.min(epoch, Integer.MAX_VALUE), true).values().stream()
+        .takeWhile(limit)
         .map(x -> x.dto);
   }
 
+  /**
+   * Find a processed run by its alias.
+   *
+   * <p>If runs from different sequencers share the alias, the one processed most recently is
+   * returned.
+   */
+  public Optional<NotificationDto> finishedByAlias(String runAlias) {
+    return finishedByAlias.getOrDefault(runAlias, Collections.emptySet()).stream()
+        .map(finishedWork::get)
+        .filter(Objects::nonNull)
+        .max(Comparator.comparingInt(work -> work.epoch))
+        .map(work -> work.dto);
+  }
+
   public Stream<Configuration> getConfiguration() {
     return roots.stream();
   }
@@ -361,6 +576,10 @@ public class Scheduler {
     return workToDo;
   }
 
+  public long getToken() {
+    return token;
+  }
+
   public Set<File> getFSUnreadableDirectories() {
     Set<File> unreadables;
 
@@ -386,10 +605,17 @@ public class Scheduler {
   }
 
   public boolean invalidate(String runName) {
-    return finishedWork.keySet().stream()
-        .filter(file -> file.getName().equals(runName))
-        .map(finishedWork::remove)
-        .anyMatch(Objects::nonNull);
+    List<File> invalidated =
+        new ArrayList<>(finishedByDirectoryName.getOrDefault(runName, Collections.emptySet()))
+            .stream().filter(this::removeFinished).collect(Collectors.toList());
+    invalidated.forEach(
+        file -> {
+          if (!failed.containsKey(file)) {
+            nextScanTime.remove(file.getPath());
+          }
+          writeJournal(ScanJournal.Record.invalidated(file));
+        });
+    return !invalidated.isEmpty();
   }
 
   /**
@@ -451,59 +677,471 @@ public class Scheduler {
    * <p>This means that it is not in a processing queue, failed processing last time, not in the
    * list of subdirectories to ignore nor needs reprocessing (for runs still active on the
    * sequencer)
+   *
+   * @param changed whether a watch has reported a change to the run; if so, a run still active on
+   *     the sequencer is reprocessed without waiting
    */
-  private boolean isUnprocessed(File directory, List<File> ignoreDirectories, File baseDirectory) {
+  private boolean isUnprocessed(
+      File directory, List<File> ignoreDirectories, File baseDirectory, boolean changed) {
     return !workToDo.contains(directory)
         && !processing.contains(directory)
-        && (!failed.containsKey(directory)
-            || Duration.between(failed.get(directory), Instant.now()).toMinutes() > 20)
-        && (!finishedWork.containsKey(directory) || finishedWork.get(directory).shouldRerun())
+        && (!failed.containsKey(directory) || Instant.now().isAfter(failed.get(directory).retry))
+        && (!finishedWork.containsKey(directory)
+            || (changed
+                ? !finishedWork.get(directory).dto.isDone()
+                : finishedWork.get(directory).shouldRerun()))
         // Exclude from processing if directory name in list of directories to ignore,
         // or it is a sub-directory of an ignore directory
         && !skipSubDirectory(directory, ignoreDirectories, baseDirectory);
   }
 
-  /** Push a run directory into the processing queue. */
-  private void queueDirectory(
-      final File directory, final RunProcessor processor, final TimeZone tz) {
-    workToDo.add(directory);
-    waitingRuns.labelValues(processor.getPlatformType().name()).inc();
-    workPool.submit(
-        () -> {
-          Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-          processing.add(directory);
-          processingRuns.labelValues(processor.getPlatformType().name()).inc();
-          workToDo.remove(directory);
-          waitingRuns.labelValues(processor.getPlatformType().name()).dec();
-
-          long runStartTime = System.nanoTime();
-          String instrumentName = "unknown";
-          try {
-            NotificationDto dto = processor.process(directory, tz);
-            if (!isStringBlankOrNull(dto.getSequencerName())) {
-              instrumentName = dto.getSequencerName();
-            }
-            FinishedWork work = new FinishedWork();
-            work.dto = dto;
-            work.epoch = epoch.incrementAndGet();
-            finishedWork.put(directory, work);
-            failed.remove(directory);
-            epochGauge.set(work.epoch);
-          } catch (Exception e) {
-            log.error("Failed to process run: " + directory.getPath(), e);
-            errors.labelValues(processor.getPlatformType().name()).inc();
-            failed.put(directory, Instant.now());
+  /** Add or replace the cached result for a run directory, keeping the indices up to date. */
+  private void putFinished(File directory, FinishedWork work) {
+    finishedWork.compute(
+        directory,
+        (key, previous) -> {
+          if (previous != null) {
+            finishedByEpoch.remove(previous.epoch, previous);
+            removeFromIndex(finishedByAlias, previous.dto.getRunAlias(), directory);
           }
-          goodRuns.set(finishedWork.size());
-          badRuns.set(failed.size());
-          processTime
-              .labelValues(processor.getPlatformType().name(), instrumentName)
-              .observe((System.nanoTime() - runStartTime) / 1e9);
-          processing.remove(directory);
-          processingRuns.labelValues(processor.getPlatformType().name()).dec();
+          finishedByEpoch.put(work.epoch, work);
+          addToIndex(finishedByAlias, work.dto.getRunAlias(), directory);
+          addToIndex(finishedByDirectoryName, directory.getName(), directory);
+          return work;
         });
   }
 
+  /**
+   * Remove the cached result for a run directory, keeping the indices up to date.
+   *
+   * @return true if there was a cached result
+   */
+  private boolean removeFinished(File directory) {
+    AtomicBoolean removed = new AtomicBoolean();
+    finishedWork.computeIfPresent(
+        directory,
+        (key, previous) -> {
+          finishedByEpoch.remove(previous.epoch, previous);
+          removeFromIndex(finishedByAlias, previous.dto.getRunAlias(), directory);
+          removeFromIndex(finishedByDirectoryName, directory.getName(), directory);
+          removed.set(true);
+          return null;
+        });
+    return removed.get();
+  }
+
+  private static void addToIndex(Map<String, Set<File>> index, String name, File directory) {
+    if (name == null) {
+      return;
+    }
+    index.compute(
+        name,
+        (key, directories) -> {
+          Set<File> result = directories == null ? ConcurrentHashMap.newKeySet() : directories;
+          result.add(directory);
+          return result;
+        });
+  }
+
+  private static void removeFromIndex(Map<String, Set<File>> index, String name, File directory) {
+    if (name == null) {
+      return;
+    }
+    index.computeIfPresent(
+        name,
+        (key, directories) -> {
+          directories.remove(directory);
+          return directories.isEmpty() ? null : directories;
+        });
+  }
+
+  /**
+   * Decide how urgently a run needs to be processed.
+   *
+   * @param changed whether a watch has reported a completion marker for the run
+   */
+  private PriorityWorkPool.Priority priorityOf(
+      File directory, RunProcessor processor, boolean changed) {
+    if (failed.containsKey(directory)) {
+      return PriorityWorkPool.Priority.RETRY;
+    }
+    FinishedWork previous = finishedWork.get(directory);
+    if (previous == null) {
+      return PriorityWorkPool.Priority.NEW;
+    }
+    if (changed || processor.getProgress(previous.dto).orElse(0) >= NEAR_COMPLETION_PROGRESS) {
+      return PriorityWorkPool.Priority.NEAR_COMPLETION;
+    }
+    return PriorityWorkPool.Priority.RECHECK;
+  }
+
+  /**
+   * Push a run directory into the processing queue.
+   *
+   * <p>If the queue is full of more urgent runs, the run is not queued and will be picked up by a
+   * later sweep.
+   *
+   * @param changed whether a watch has reported a completion marker for the run
+   */
+  private void queueDirectory(
+      final File directory, final Configuration configuration, boolean changed) {
+    // The sweep and the watcher may both find the same run
+    if (!workToDo.add(directory)) {
+      return;
+    }
+    final RunProcessor processor = configuration.getProcessor();
+    final String executor = configuration.getExecutorName();
+    final PriorityWorkPool pool = workPools.get(executor);
+    waitingRuns.labelValues(processor.getPlatformType().name(), executor).inc();
+    useProcessor(processor);
+    // If the configuration was reloaded and the pool removed, treat it like a full queue
+    boolean queued =
+        pool != null
+            && pool.submit(
+                priorityOf(directory, processor, changed),
+                sequencerPermits.get(configuration.getPath()),
+                () -> {
+                  try {
+                    process(directory, configuration);
+                  } finally {
+                    releaseProcessor(processor);
+                  }
+                },
+                () -> {
+                  workToDo.remove(directory);
+                  waitingRuns.labelValues(processor.getPlatformType().name(), executor).dec();
+                  releaseProcessor(processor);
+                });
+    if (!queued) {
+      workToDo.remove(directory);
+      waitingRuns.labelValues(processor.getPlatformType().name(), executor).dec();
+      releaseProcessor(processor);
+    }
+  }
+
+  private void useProcessor(RunProcessor processor) {
+    processorUsers.merge(processor, 1, Integer::sum);
+  }
+
+  /** Note that a run is done with its processor and close the processor if it has been retired. */
+  private void releaseProcessor(RunProcessor processor) {
+    if (processorUsers.computeIfPresent(processor, (key, count) -> count == 1 ? null : count - 1)
+            == null
+        && retiredProcessors.remove(processor)) {
+      processor.close();
+    }
+  }
+
+  /** Close a processor that is no longer configured once the runs queued for it are done. */
+  private void retireProcessor(RunProcessor processor) {
+    retiredProcessors.add(processor);
+    if (!processorUsers.containsKey(processor) && retiredProcessors.remove(processor)) {
+      processor.close();
+    }
+  }
+
+  /**
+   * Process a run directory that has been taken from the queue and record the result.
+   *
+   * <p>If the sequencer has a timeout and processing takes longer, the run is cancelled and
+   * recorded as failed immediately. Whatever the processor eventually produces is discarded.
+   */
+  private void process(final File directory, final Configuration configuration) {
+    final RunProcessor processor = configuration.getProcessor();
+    final RescanPolicy policy = configuration.getRescanPolicy();
+    final String executor = configuration.getExecutorName();
+    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+    processing.add(directory);
+    processingRuns.labelValues(processor.getPlatformType().name(), executor).inc();
+    workToDo.remove(directory);
+    waitingRuns.labelValues(processor.getPlatformType().name(), executor).dec();
+
+    long runStartTime = System.nanoTime();
+    String instrumentName = "unknown";
+    final Cancellation cancellation = Cancellation.begin();
+    final ScheduledFuture<?> deadline =
+        configuration.getTimeout() == null
+            ? null
+            : deadlines.schedule(
+                () -> timeOut(directory, configuration, cancellation),
+                configuration.getTimeout().toMillis(),
+                TimeUnit.MILLISECONDS);
+    boolean skipped = false;
+    try {
+      final FinishedWork previous = finishedWork.get(directory);
+      final Optional<String> fingerprint = fingerprint(directory, processor);
+      if (previous != null
+          && previous.fingerprint != null
+          && fingerprint.isPresent()
+          && !failed.containsKey(directory)) {
+        skipped = fingerprint.get().equals(previous.fingerprint);
+        fingerprintChecks
+            .labelValues(processor.getPlatformType().name(), skipped ? "unchanged" : "changed")
+            .inc();
+        if (skipped) {
+          if (cancellation.finish()) {
+            reuseFinished(directory, previous, processor, policy);
+          }
+          return;
+        }
+      }
+      NotificationDto dto = processor.process(directory, configuration.getTimeZone());
+      if (!isStringBlankOrNull(dto.getSequencerName())) {
+        instrumentName = dto.getSequencerName();
+      }
+      if (!cancellation.finish()) {
+        log.warn("Discarding result for {} since it was abandoned", directory);
+        return;
+      }
+      FinishedWork work = new FinishedWork();
+      work.dto = dto;
+      work.epoch = epoch.incrementAndGet();
+      work.fingerprint = fingerprint.orElse(null);
+      scheduleRescan(directory, work, previous, processor, policy);
+      putFinished(directory, work);
+      failed.remove(directory);
+      epochGauge.set(work.epoch);
+      // The journal already has this result, so only record the new schedule
+      writeJournal(
+          previous != null && dto.equals(previous.dto)
+              ? ScanJournal.Record.unchanged(
+                  directory, work.epoch, work.created, work.nextScan, work.unchangedScans)
+              : ScanJournal.Record.finished(
+                  directory, work.epoch, work.created, work.nextScan, work.unchangedScans, dto));
+    } catch (Exception e) {
+      if (cancellation.finish()) {
+        log.error("Failed to process run: " + directory.getPath(), e);
+        errors.labelValues(processor.getPlatformType().name()).inc();
+        recordFailure(directory, policy, e.toString());
+      }
+    } finally {
+      cancellation.finish();
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+      // Don't leave an interrupt from the deadline for whatever the thread does next
+      Thread.interrupted();
+      goodRuns.set(finishedWork.size());
+      badRuns.set(failed.size());
+      if (!skipped) {
+        processTime
+            .labelValues(processor.getPlatformType().name(), instrumentName)
+            .observe((System.nanoTime() - runStartTime) / 1e9);
+      }
+      processing.remove(directory);
+      processingRuns.labelValues(processor.getPlatformType().name(), executor).dec();
+    }
+  }
+
+  /**
+   * Get the processor's fingerprint for a run. If it cannot be computed, the run is processed
+   * normally, which will report the problem if there is one.
+   */
+  private static Optional<String> fingerprint(File directory, RunProcessor processor) {
+    try {
+      return processor.getFingerprint(directory);
+    } catch (IOException e) {
+      log.debug("Cannot fingerprint {}", directory, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Keep the previous result for a run whose files have not changed, counting it as an unchanged
+   * scan. The epoch is not changed since there is nothing new to send to clients.
+   */
+  private void reuseFinished(
+      File directory, FinishedWork previous, RunProcessor processor, RescanPolicy policy) {
+    FinishedWork work = new FinishedWork();
+    work.created = previous.created;
+    work.dto = previous.dto;
+    work.epoch = previous.epoch;
+    work.fingerprint = previous.fingerprint;
+    scheduleRescan(directory, work, previous, processor, policy);
+    putFinished(directory, work);
+    writeJournal(
+        ScanJournal.Record.unchanged(
+            directory, work.epoch, work.created, work.nextScan, work.unchangedScans));
+  }
+
+  /** Record that a run could not be processed and decide when to try again. */
+  private void recordFailure(File directory, RescanPolicy policy, String reason) {
+    FailedWork failure = new FailedWork();
+    FailedWork previous = failed.get(directory);
+    failure.time = Instant.now();
+    failure.failures = previous == null ? 1 : previous.failures + 1;
+    failure.reason = reason;
+    failure.retry = failure.time.plus(policy.retryDelay(failure.failures));
+    failed.put(directory, failure);
+    nextScanTime.labelValues(directory.getPath()).set(failure.retry.getEpochSecond());
+    writeJournal(
+        ScanJournal.Record.failed(
+            directory, failure.time, failure.failures, failure.retry, failure.reason));
+  }
+
+  /**
+   * Abandon a run that has passed its sequencer's deadline.
+   *
+   * <p>Time the run spent waiting for memory or a helper process is not counted, so if it has not
+   * been active for the whole timeout, the deadline is pushed back by the time it waited.
+   */
+  private void timeOut(File directory, Configuration configuration, Cancellation cancellation) {
+    Duration remaining = configuration.getTimeout().minus(cancellation.getActiveTime());
+    if (remaining.compareTo(Duration.ZERO) > 0) {
+      if (!cancellation.isDone()) {
+        deadlines.schedule(
+            () -> timeOut(directory, configuration, cancellation),
+            remaining.toNanos(),
+            TimeUnit.NANOSECONDS);
+      }
+      return;
+    }
+    if (!cancellation.cancel()) {
+      return;
+    }
+    String reason =
+        String.format(
+            "Processing took longer than %d minutes", configuration.getTimeout().toMinutes());
+    log.error("Abandoning run {}: {}", directory, reason);
+    timeouts
+        .labelValues(
+            configuration.getProcessor().getPlatformType().name(),
+            configuration.getPath().getPath())
+        .inc();
+    recordFailure(directory, configuration.getRescanPolicy(), reason);
+    badRuns.set(failed.size());
+  }
+
+  /**
+   * Decide when a run that has just been processed should be scanned again.
+   *
+   * @param work the new result for the run
+   * @param previous the previous result for the run, if there was one
+   */
+  private static void scheduleRescan(
+      File directory,
+      FinishedWork work,
+      FinishedWork previous,
+      RunProcessor processor,
+      RescanPolicy policy) {
+    if (work.dto.isDone()) {
+      nextScanTime.remove(directory.getPath());
+      return;
+    }
+    work.unchangedScans =
+        previous != null && work.dto.equals(previous.dto) ? previous.unchangedScans + 1 : 0;
+    Optional<Duration> remaining = Optional.empty();
+    OptionalDouble progress = processor.getProgress(work.dto);
+    if (previous != null && progress.isPresent()) {
+      OptionalDouble previousProgress = processor.getProgress(previous.dto);
+      if (previousProgress.isPresent()) {
+        remaining =
+            RescanPolicy.estimateRemaining(
+                previousProgress.getAsDouble(),
+                previous.created,
+                progress.getAsDouble(),
+                work.created);
+      }
+    }
+    work.nextScan =
+        work.created.plus(
+            policy.rescanDelay(work.dto.getHealthType(), work.unchangedScans, remaining));
+    nextScanTime.labelValues(directory.getPath()).set(work.nextScan.getEpochSecond());
+  }
+
+  /**
+   * Queue the runs under a root that a watch has reported as changed.
+   *
+   * <p>Only the reported paths are searched for runs; the rest of the root is left to the sweep.
+   *
+   * @param directories the changed paths under the root; if this includes the root itself, any run
+   *     may have changed, so the whole root is listed and the usual rules for reprocessing apply
+   */
+  private void queueChanged(Configuration configuration, Set<File> directories) {
+    if (!configuration.isValid()) {
+      return;
+    }
+    boolean everything = directories.contains(configuration.getPath());
+    (everything
+            ? configuration.getRuns().map(Pair::first)
+            : directories.stream()
+                .flatMap(
+                    changed ->
+                        configuration
+                            .getProcessor()
+                            .getRunsFromDirectory(configuration.getPath(), changed))
+                .distinct())
+        .filter(run -> run.canRead() && run.canExecute())
+        .filter(
+            run ->
+                isUnprocessed(
+                    run,
+                    configuration.getIgnoreSubdirectories(),
+                    configuration.getPath(),
+                    !everything))
+        .forEach(
+            run -> {
+              watchTriggeredRuns
+                  .labelValues(configuration.getProcessor().getPlatformType().name())
+                  .inc();
+              watcher.watchRun(configuration, run);
+              queueDirectory(run, configuration, !everything);
+            });
+  }
+
+  /**
+   * Check that a run found by a sweep was one the watcher could have reported.
+   *
+   * <p>If a run that has never been seen turns up under a watched root well after it was created,
+   * the watch is not delivering events (as happens on some network mounts) and the root is returned
+   * to periodic sweeping.
+   */
+  private void checkWatched(Pair<File, Configuration> entry) {
+    File root = entry.second().getPath();
+    if (watcher != null
+        && watcher.isReconciled(root)
+        && !finishedWork.containsKey(entry.first())
+        && !failed.containsKey(entry.first())
+        && Instant.ofEpochMilli(entry.first().lastModified())
+            .isBefore(Instant.now().minus(WATCH_GRACE_PERIOD))) {
+      log.warn(
+          "Run {} was never reported by the watch on {}. It will be swept every 15 minutes instead.",
+          entry.first(),
+          root);
+      watchFallbacks.inc();
+      watcher.unwatch(root);
+      updateWatchedRoots();
+    }
+  }
+
+  /**
+   * Find the runs under a watched root that have already been processed and are due to be checked
+   * again or retried.
+   *
+   * <p>The watch reports new runs and completion markers, but not the progress of runs that are
+   * still being written, so these are checked on every sweep without listing the root.
+   */
+  List<Pair<File, Configuration>> knownRuns(Configuration configuration) {
+    Path root = configuration.getPath().toPath();
+    return Stream.concat(finishedWork.keySet().stream(), failed.keySet().stream())
+        .distinct()
+        .filter(run -> run.toPath().startsWith(root) && !run.toPath().equals(root))
+        .filter(
+            run ->
+                isUnprocessed(
+                    run, configuration.getIgnoreSubdirectories(), configuration.getPath(), false))
+        .filter(File::exists)
+        .map(run -> new Pair<>(run, configuration))
+        .collect(Collectors.toList());
+  }
+
+  private void updateWatchedRoots() {
+    watchedRoots.set(
+        watcher == null
+            ? 0
+            : roots.stream().filter(root -> watcher.isWatching(root.getPath())).count());
+  }
+
   /**
    * Rebuild the set of sequencer directories to scan from the configuration file.
    *
@@ -514,11 +1152,30 @@ public class Scheduler {
    * <p>Changing the configuration does not clear the cache. So if a sequencer's configuration is
    * changed from valid to invalid to valid again, it will not trigger re-processing of the previous
    * output, even if the timezone or processor is changed.
+   *
+   * <p>A sequencer whose platform, processor name, and parameters are unchanged keeps its existing
+   * processor, along with anything that processor has cached. Processors that are no longer needed
+   * are closed once the runs queued for them have been processed.
    */
   private void readConfiguration() {
     ObjectMapper mapper = new ObjectMapper();
     configurationLastRead = Instant.now();
+    configurationFileModified = configurationFile.lastModified();
     configurationTimestamp.set(configurationLastRead.getEpochSecond());
+    List<Configuration> previousRoots = roots;
+    Map<List<Object>, Deque<RunProcessor>> unchanged = new HashMap<>();
+    for (Configuration previous : previousRoots) {
+      if (previous.getProcessor() != null) {
+        unchanged
+            .computeIfAbsent(
+                processorKey(
+                    previous.getProcessor().getPlatformType(),
+                    previous.getProcessor().getName(),
+                    previous.getParameters()),
+                k -> new ArrayDeque<>())
+            .add(previous.getProcessor());
+      }
+    }
     try {
       roots =
           Arrays.stream(mapper.readValue(configurationFile, SuppliedDirectoryConfig[].class))
@@ -528,11 +1185,26 @@ public class Scheduler {
                     destination.setIgnoreSubdirectories(source.getIgnoreSubdirectories());
                     destination.setPath(new File(source.getPath()));
                     destination.setTimeZone(TimeZone.getTimeZone(source.getTimeZone()));
+                    Deque<RunProcessor> reusable =
+                        unchanged.get(
+                            processorKey(
+                                source.getPlatformType(),
+                                source.getName(),
+                                source.getParameters()));
                     destination.setProcessor(
-                        RunProcessor.processorFor(
-                                source.getPlatformType(), source.getName(), source.getParameters())
-                            .orElse(null));
+                        reusable == null || reusable.isEmpty()
+                            ? RunProcessor.processorFor(
+                                    source.getPlatformType(),
+                                    source.getName(),
+                                    source.getParameters())
+                                .orElse(null)
+                            : reusable.poll());
                     destination.setParameters(source.getParameters());
+                    destination.setRescanPolicy(source.getRescanPolicy());
+                    if (source.getTimeout() != null) {
+                      destination.setTimeout(Duration.ofMinutes(source.getTimeout()));
+                    }
+                    destination.setExecutor(source.getExecutor());
                     // Create gauge metric to inform us if directory is valid or not
                     loadingRunDirectoryValid
                         .labelValues(source.getPath())
@@ -543,6 +1215,8 @@ public class Scheduler {
               .collect(Collectors.toList());
       configurationEntries.set(roots.size());
       isConfigurationGood = !roots.isEmpty();
+      updateWorkPools();
+      unchanged.values().stream().flatMap(Deque::stream).forEach(this::retireProcessor);
     } catch (IOException e) {
       log.error("Configuration is bad.", e);
       isConfigurationGood = false;
@@ -550,14 +1224,288 @@ public class Scheduler {
     configurationValid.set(isConfigurationGood ? 1 : 0);
   }
 
+  private static List<Object> processorKey(
+      Platform platformType, String name, ObjectNode parameters) {
+    return Arrays.asList(platformType, name, parameters);
+  }
+
+  private static void closeProcessors(List<Configuration> configurations) {
+    for (Configuration configuration : configurations) {
+      if (configuration.getProcessor() != null) {
+        configuration.getProcessor().close();
+      }
+    }
+  }
+
+  /**
+   * Create, resize, or remove the processing pools to match the configuration.
+   *
+   * <p>A pool whose number of threads has changed, or which is no longer used, is shut down: runs
+   * being processed finish and runs waiting are dropped to be found by the next sweep.
+   */
+  private synchronized void updateWorkPools() {
+    Set<File> limited = new HashSet<>();
+    Map<String, ExecutorConfiguration> wanted = new HashMap<>();
+    for (Configuration configuration : roots) {
+      if (configuration.getProcessor() == null || !configuration.getExecutor().isValid()) {
+        continue;
+      }
+      ExecutorConfiguration existing =
+          wanted.putIfAbsent(configuration.getExecutorName(), configuration.getExecutor());
+      if (existing != null
+          && existing != configuration.getExecutor()
+          && (configuration.getExecutor().getThreads() != null
+              || configuration.getExecutor().getQueueCapacity() != null
+              || configuration.getExecutor().getMode() != existing.getMode())) {
+        log.warn(
+            "Sequencer {} shares executor {} with another sequencer; its size is ignored",
+            configuration.getPath(),
+            configuration.getExecutorName());
+      }
+      int limit =
+          Math.min(
+              configuration.getProcessor().getMaximumConcurrency(),
+              sequencerConcurrencyFor(
+                  configuration.getExecutor(),
+                  wanted.get(configuration.getExecutorName()).getMode()));
+      if (limit < Integer.MAX_VALUE) {
+        limited.add(configuration.getPath());
+        sequencerPermits
+            .computeIfAbsent(configuration.getPath(), k -> new SequencerPermits(limit))
+            .resize(limit);
+      }
+    }
+    // Runs already queued for a sequencer that is no longer limited still wait for their permits
+    sequencerPermits.keySet().retainAll(limited);
+    workPools
+        .entrySet()
+        .removeIf(
+            entry -> {
+              ExecutorConfiguration executor = wanted.get(entry.getKey());
+              if (executor != null && threadsFor(executor) == entry.getValue().getThreads()) {
+                return false;
+              }
+              entry.getValue().shutdown();
+              return true;
+            });
+    wanted.forEach(
+        (name, executor) ->
+            workPools
+                .computeIfAbsent(
+                    name, k -> new PriorityWorkPool(name, threadsFor(executor), queueCapacity))
+                .setCapacity(
+                    executor.getQueueCapacity() == null
+                        ? queueCapacity
+                        : executor.getQueueCapacity()));
+  }
+
+  private static int sequencerConcurrencyFor(ExecutorConfiguration executor, Mode poolMode) {
+    if (executor.getSequencerConcurrency() != null) {
+      return executor.getSequencerConcurrency();
+    }
+    return poolMode == Mode.IO ? Runtime.getRuntime().availableProcessors() : Integer.MAX_VALUE;
+  }
+
+  private static int threadsFor(ExecutorConfiguration executor) {
+    if (executor.getThreads() != null) {
+      return executor.getThreads();
+    }
+    return executor.getMode() == Mode.IO
+        ? Runtime.getRuntime().availableProcessors()
+            * ExecutorConfiguration.IO_THREADS_PER_PROCESSOR
+        : Runtime.getRuntime().availableProcessors();
+  }
+
   @Value("${runscanner.configFile}")
   public void setConfigurationFile(String filename) {
     configurationFile = new File(filename);
     readConfiguration();
   }
 
-  /** Initiate scanning every 15 minutes until stopped. */
+  /**
+   * Set the number of runs that can wait to be processed in each pool that does not set its own
+   * capacity.
+   */
+  @Value("${runscanner.queueCapacity:10000}")
+  public void setQueueCapacity(int capacity) {
+    queueCapacity = capacity;
+    updateWorkPools();
+  }
+
+  /**
+   * Watch the sequencer directories so new runs and completed runs are queued within seconds.
+   *
+   * <p>Directories that are watched are only swept at the reconciliation interval. Directories that
+   * cannot be watched, or where the watch turns out to miss runs, are swept every 15 minutes.
+   */
+  @Value("${runscanner.watchDirectories:false}")
+  public void setWatchDirectories(boolean watchDirectories) {
+    this.watchDirectories = watchDirectories;
+  }
+
+  @Value("${runscanner.watchReconcileMinutes:120}")
+  public void setWatchReconcileMinutes(long minutes) {
+    watchReconcileInterval = Duration.ofMinutes(minutes);
+  }
+
+  /**
+   * Restore the cache from a journal file and record all further changes to it.
+   *
+   * <p>If no file is configured, the cache is kept only in memory and every run will be processed
+   * again after a restart. If the journal cannot be read, it is left untouched for a human to
+   * inspect and the cache is kept only in memory.
+   */
+  @Value("${runscanner.journalFile:}")
+  public void setJournalFile(String filename) {
+    if (isStringBlankOrNull(filename)) {
+      return;
+    }
+    File file = new File(filename);
+    List<ScanJournal.Record> records;
+    try {
+      records = ScanJournal.read(file);
+    } catch (IOException e) {
+      log.error("Cannot read scan journal. Run results will not be kept between restarts.", e);
+      return;
+    }
+    for (ScanJournal.Record record : records) {
+      switch (record.getType()) {
+        case TOKEN:
+          token = record.getToken();
+          break;
+        case FINISHED:
+          FinishedWork work = new FinishedWork();
+          work.created = record.getTime();
+          work.dto = record.getDto();
+          work.epoch = record.getEpoch();
+          work.nextScan = work.dto.isDone() ? null : record.getNextScan();
+          work.unchangedScans = record.getRepeats() == null ? 0 : record.getRepeats();
+          putFinished(new File(record.getPath()), work);
+          failed.remove(new File(record.getPath()));
+          epoch.accumulateAndGet(work.epoch, Math::max);
+          break;
+        case UNCHANGED:
+          FinishedWork last = finishedWork.get(new File(record.getPath()));
+          if (last == null) {
+            log.warn("Ignoring scan journal record for unknown run {}", record.getPath());
+            break;
+          }
+          FinishedWork repeated = new FinishedWork();
+          repeated.created = record.getTime();
+          repeated.dto = last.dto;
+          repeated.epoch = record.getEpoch();
+          repeated.nextScan = repeated.dto.isDone() ? null : record.getNextScan();
+          repeated.unchangedScans = record.getRepeats() == null ? 0 : record.getRepeats();
+          putFinished(new File(record.getPath()), repeated);
+          failed.remove(new File(record.getPath()));
+          epoch.accumulateAndGet(repeated.epoch, Math::max);
+          break;
+        case FAILED:
+          FailedWork failure = new FailedWork();
+          failure.time = record.getTime();
+          failure.failures = record.getRepeats() == null ? 1 : record.getRepeats();
+          failure.reason = record.getReason();
+          failure.retry =
+              record.getNextScan() == null
+                  ? failure.time.plus(new RescanPolicy().retryDelay(failure.failures))
+                  : record.getNextScan();
+          failed.put(new File(record.getPath()), failure);
+          break;
+        case INVALIDATED:
+          removeFinished(new File(record.getPath()));
+          break;
+      }
+    }
+    finishedWork.forEach(
+        (directory, work) -> {
+          if (work.nextScan != null && !failed.containsKey(directory)) {
+            nextScanTime.labelValues(directory.getPath()).set(work.nextScan.getEpochSecond());
+          }
+        });
+    failed.forEach(
+        (directory, failure) ->
+            nextScanTime.labelValues(directory.getPath()).set(failure.retry.getEpochSecond()));
+    log.info(
+        "Restored {} processed and {} failed runs from scan journal {}",
+        finishedWork.size(),
+        failed.size(),
+        file);
+    journalRestoredRuns.set(finishedWork.size());
+    goodRuns.set(finishedWork.size());
+    badRuns.set(failed.size());
+    epochGauge.set(epoch.get());
+    try {
+      journal = ScanJournal.open(file, journalSnapshot());
+    } catch (IOException e) {
+      log.error("Cannot write scan journal. Run results will not be kept between restarts.", e);
+    }
+  }
+
+  /** Create the minimal set of journal records that reproduce the current cache. */
+  private Stream<ScanJournal.Record> journalSnapshot() {
+    return Stream.of(
+            Stream.of(ScanJournal.Record.token(token)),
+            finishedWork.entrySet().stream()
+                .sorted(Comparator.comparingInt(entry -> entry.getValue().epoch))
+                .map(
+                    entry ->
+                        ScanJournal.Record.finished(
+                            entry.getKey(),
+                            entry.getValue().epoch,
+                            entry.getValue().created,
+                            entry.getValue().nextScan,
+                            entry.getValue().unchangedScans,
+                            entry.getValue().dto)),
+            failed.entrySet().stream()
+                .map(
+                    entry ->
+                        ScanJournal.Record.failed(
+                            entry.getKey(),
+                            entry.getValue().time,
+                            entry.getValue().failures,
+                            entry.getValue().retry,
+                            entry.getValue().reason)))
+        .flatMap(x -> x);
+  }
+
+  /**
+   * Append a change to the journal, if one is in use.
+   *
+   * <p>The in-memory cache must be updated before calling this so that a concurrent compaction
+   * cannot drop the change.
+   */
+  private void writeJournal(ScanJournal.Record record) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.append(record);
+      if (journal.shouldCompact(finishedWork.size() + failed.size())) {
+        journal.compact(journalSnapshot());
+      }
+    } catch (IOException e) {
+      journalErrors.inc();
+      log.error("Failed to write to scan journal", e);
+    }
+  }
+
+  /**
+   * Initiate scanning every 15 minutes until stopped.
+   *
+   * <p>If watching is enabled, changes in watched directories are queued as they happen and those
+   * directories are only listed at the reconciliation interval. Runs already found in them are
+   * still rechecked and retried by every sweep.
+   */
   public synchronized void start() {
+    if (watchDirectories && watcher == null) {
+      try {
+        watcher = DirectoryWatcher.create(this::queueChanged, WATCH_QUIET_PERIOD);
+        watcher.watchRoots(roots);
+        updateWatchedRoots();
+      } catch (IOException e) {
+        log.error("Cannot watch directories. They will be swept every 15 minutes instead.", e);
+      }
+    }
     if (scanDirectoriesFuture == null) {
       scanDirectoriesFuture =
           scheduler.scheduleWithFixedDelay(
@@ -569,11 +1517,20 @@ public class Scheduler {
                 scanningNow = true;
                 if (configurationFile != null
                     && configurationFile.exists()
-                    && configurationFile.lastModified() > configurationLastRead.getEpochSecond()) {
+                    && configurationFile.lastModified() != configurationFileModified) {
                   readConfiguration();
                 }
                 scanLastStarted = Instant.now();
                 lastScanStartTime.set(System.currentTimeMillis());
+                if (watcher != null) {
+                  watcher.watchRoots(roots);
+                  updateWatchedRoots();
+                }
+                boolean reconcile =
+                    watcher == null
+                        || Duration.between(watchLastReconciled, scanLastStarted)
+                                .compareTo(watchReconcileInterval)
+                            >= 0;
                 UnreadableDirectories newUnreadableDirectories = new UnreadableDirectories();
                 try (StreamCountSpy<Pair<File, Configuration>> newRuns =
                         new StreamCountSpy<>(newRunsScanned);
@@ -582,12 +1539,26 @@ public class Scheduler {
                     StreamCountSpy<Pair<File, Configuration>> accepted =
                         new StreamCountSpy<>(acceptedDirectories);
                     AutoCloseable timer = scanTime.start()) {
-                  roundRobin(
-                          roots.stream() //
+                  List<List<Pair<File, Configuration>>> runsBySequencer =
+                      roots.stream() //
+                          .filter(Configuration::isValid) //
+                          .filter(
+                              configuration ->
+                                  reconcile || !watcher.isWatching(configuration.getPath())) //
+                          .map(
+                              configuration ->
+                                  configuration.getRuns().collect(Collectors.toList())) //
+                          .collect(Collectors.toList());
+                  List<List<Pair<File, Configuration>>> knownRunsBySequencer =
+                      reconcile
+                          ? Collections.emptyList()
+                          : roots.stream() //
                               .filter(Configuration::isValid) //
-                              .map(
-                                  configuration ->
-                                      configuration.getRuns().collect(Collectors.toList())) //
+                              .filter(configuration -> watcher.isWatching(configuration.getPath()))
+                              .map(this::knownRuns) //
+                              .collect(Collectors.toList());
+                  roundRobin(
+                          Stream.concat(runsBySequencer.stream(), knownRunsBySequencer.stream())
                               .collect(Collectors.toList())) //
                       .peek(attempted) //
                       .filter(
@@ -601,15 +1572,34 @@ public class Scheduler {
                             return isUnprocessed(
                                 entry.first(),
                                 entry.second().getIgnoreSubdirectories(),
-                                entry.second().getPath());
+                                entry.second().getPath(),
+                                false);
                           }) //
                       .peek(newRuns) //
-                      .forEach(
-                          entry ->
-                              queueDirectory(
-                                  entry.first(),
-                                  entry.second().getProcessor(),
-                                  entry.second().getTimeZone()));
+                      .peek(this::checkWatched) //
+                      .forEach(entry -> queueDirectory(entry.first(), entry.second(), false));
+                  if (watcher != null) {
+                    // Watch the runs that are still in progress for their completion markers
+                    for (List<Pair<File, Configuration>> runs : runsBySequencer) {
+                      if (runs.isEmpty()) {
+                        continue;
+                      }
+                      Configuration configuration = runs.get(0).second();
+                      watcher.watchRuns(
+                          configuration,
+                          runs.stream()
+                              .map(Pair::first)
+                              .filter(
+                                  run ->
+                                      !finishedWork.containsKey(run)
+                                          || !finishedWork.get(run).dto.isDone())
+                              .collect(Collectors.toSet()));
+                      watcher.markReconciled(configuration.getPath());
+                    }
+                    if (reconcile) {
+                      watchLastReconciled = scanLastStarted;
+                    }
+                  }
                 } catch (Exception e) {
                   log.error("Error scanning directory.", e);
                 }
@@ -628,7 +1618,26 @@ public class Scheduler {
       scanDirectoriesFuture.cancel(false);
       scanDirectoriesFuture = null;
     }
-    workPool.shutdownNow();
+    workPools.values().forEach(PriorityWorkPool::shutdownNow);
+    deadlines.shutdownNow();
+    closeProcessors(roots);
+    retiredProcessors.forEach(RunProcessor::close);
+    retiredProcessors.clear();
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        log.error("Failed to stop watching directories", e);
+      }
+      watcher = null;
+    }
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException e) {
+        log.error("Failed to close scan journal", e);
+      }
+    }
   }
 
   /**
@@ -200,6 +200,19 @@ public class UserInterfaceController {
                               }
                               renderer.line(
                                   "Time Zone", configuration.getTimeZone().getDisplayName());
+                              renderer.line(
+                                  "Rescan Policy", configuration.getRescanPolicy().toString());
+                              renderer.line(
+                                  "Executor",
+                                  configuration.getExecutorName()
+                                      + " ("
+                                      + configuration.getExecutor().getMode()
+                                      + ")");
+                              renderer.line(
+                                  "Timeout",
+                                  configuration.getTimeout() == null
+                                      ? "None"
+                                      : configuration.getTimeout().toMinutes() + " minutes");
                               if (processor == null) {
                                 renderer.line(
                                     "Valid?", "No: Scanner implementation failed to initialize");
@@ -0,0 +1,191 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks whether all the base call files for an Illumina run have been copied to the <code>
+ * Data/Intensities/BaseCalls</code> directory.
+ *
+ * <p>The cycle directories of all lanes are listed in parallel on a fixed number of threads shared
+ * by all runs. A cycle directory found to be complete is remembered, so rechecking a run that is
+ * still copying only lists the cycles that were not complete last time.
+ */
+final class BaseCallsCheck {
+  private static final Predicate<String> BCL_FILENAME =
+      Pattern.compile("^(s_[0-9]*_[0-9]*\\.bcl(\\.gz)?|L\\d*_\\d*.cbcl)").asPredicate();
+
+  private static final Predicate<String> BCL_BGZF_FILENAME =
+      Pattern.compile("^[0-9]*\\.(bcl\\.bgzf|cbcl)").asPredicate();
+
+  private static final Counter listings =
+      Counter.builder()
+          .name("miso_runscanner_illumina_output_listings")
+          .help(
+              "The number of lane and cycle directories listed when checking that an Illumina run's base calls have been copied")
+          .labelNames("directory")
+          .register();
+
+  private static final Counter remembered_cycles =
+      Counter.builder()
+          .name("miso_runscanner_illumina_output_remembered_cycles")
+          .help(
+              "The number of cycle directories not listed when checking that an Illumina run's base calls have been copied because they were already complete")
+          .register();
+
+  private static final Logger log = LoggerFactory.getLogger(BaseCallsCheck.class);
+
+  private static long count(Path directory, Predicate<String> filename) throws IOException {
+    try (Stream<Path> walk = Files.walk(directory, 1)) {
+      return walk.map(file -> file.getFileName().toString()).filter(filename).count();
+    }
+  }
+
+  // Complete cycle directories, by run directory
+  private final Map<File, Set<Path>> completeCycles = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor executor;
+
+  public BaseCallsCheck(int threads) {
+    AtomicInteger threadCount = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "illumina-output-check-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Stop the threads once the checks already started have finished. Runs that were queued before
+   * the processor was closed are still checked, but on the calling thread.
+   */
+  public void close() {
+    executor.shutdown();
+    completeCycles.clear();
+  }
+
+  /** Discard what is remembered about a run, once it will not be checked again. */
+  public void forget(File runDirectory) {
+    completeCycles.remove(runDirectory);
+  }
+
+  /**
+   * Check that every lane has a complete set of base call files.
+   *
+   * <p>For MiSeq and HiSeq, every cycle directory in a lane must have a complete set of BCL files.
+   * For NextSeq, a lane must have a file per cycle.
+   *
+   * @param runDirectory the run's directory, used to remember complete cycles
+   * @param baseCallDirectory the run's BaseCalls directory
+   * @param lanes the number of lanes
+   * @param cycles the number of cycles
+   * @param bclCount the number of BCL files expected in each cycle directory
+   */
+  public boolean isComplete(
+      File runDirectory, Path baseCallDirectory, int lanes, int cycles, long bclCount)
+      throws ExecutionException, InterruptedException {
+    Set<Path> complete =
+        completeCycles.computeIfAbsent(runDirectory, k -> ConcurrentHashMap.newKeySet());
+    List<List<Future<Boolean>>> laneCycles = new ArrayList<>();
+    try {
+      for (int lane = 1; lane <= lanes; lane++) {
+        Path laneDir = baseCallDirectory.resolve(String.format("L%03d", lane));
+        List<Future<Boolean>> checks = new ArrayList<>();
+        for (int cycle = 1; cycle <= cycles; cycle++) {
+          Path cycleDir = laneDir.resolve(String.format("C%d.1", cycle));
+          if (complete.contains(cycleDir)) {
+            remembered_cycles.inc();
+          } else {
+            checks.add(submit(() -> isCycleComplete(cycleDir, bclCount, complete)));
+          }
+        }
+        laneCycles.add(checks);
+      }
+      for (int lane = 1; lane <= lanes; lane++) {
+        boolean completeCycleData = true;
+        for (Future<Boolean> check : laneCycles.get(lane - 1)) {
+          if (!check.get()) {
+            completeCycleData = false;
+            break;
+          }
+        }
+        if (!completeCycleData
+            && !isLaneComplete(baseCallDirectory.resolve(String.format("L%03d", lane)), cycles)) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      // Stop listing the remaining directories once the answer is known
+      laneCycles.stream().flatMap(List::stream).forEach(check -> check.cancel(true));
+    }
+  }
+
+  private Future<Boolean> submit(Callable<Boolean> check) {
+    try {
+      return executor.submit(check);
+    } catch (RejectedExecutionException e) {
+      FutureTask<Boolean> task = new FutureTask<>(check);
+      task.run();
+      return task;
+    }
+  }
+
+  private boolean isCycleComplete(Path cycleDir, long bclCount, Set<Path> complete) {
+    // A cycle that has not started yet doesn't count against the lane
+    if (!cycleDir.toFile().exists()) {
+      return true;
+    }
+    listings.labelValues("cycle").inc();
+    try {
+      if (count(cycleDir, BCL_FILENAME) == bclCount) {
+        complete.add(cycleDir);
+        return true;
+      }
+      return false;
+    } catch (IOException e) {
+      log.error("Failed to walk lane directory: " + cycleDir.getParent().toString(), e);
+      return false;
+    }
+  }
+
+  private boolean isLaneComplete(Path laneDir, int cycles) {
+    listings.labelValues("lane").inc();
+    try {
+      return count(laneDir, BCL_BGZF_FILENAME) == cycles;
+    } catch (IOException e) {
+      log.error("Failed to walk lane directory: " + laneDir.toString(), e);
+      return false;
+    }
+  }
+}
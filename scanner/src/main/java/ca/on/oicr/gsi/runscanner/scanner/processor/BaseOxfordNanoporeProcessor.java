@@ -3,33 +3,170 @@ package ca.on.oicr.gsi.runscanner.scanner.processor;
 import ca.on.oicr.gsi.runscanner.dto.NotificationDto;
 import ca.on.oicr.gsi.runscanner.dto.OxfordNanoporeNotificationDto;
 import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
-import ch.systemsx.cisd.hdf5.HDF5FactoryProvider;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import io.prometheus.metrics.core.metrics.Counter;
 import java.io.*;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public abstract class BaseOxfordNanoporeProcessor extends RunProcessor {
+  /**
+   * Run metadata, named after the FAST5 tracking_id and context_tags attributes it comes from.
+   * Empty values are left out.
+   */
+  protected record RunAttributes(Map<String, String> trackingId, Map<String, String> contextTags) {
+    public Optional<String> trackingId(String name) {
+      return Optional.ofNullable(trackingId.get(name));
+    }
+
+    public Optional<String> contextTags(String name) {
+      return Optional.ofNullable(contextTags.get(name));
+    }
+  }
+
+  private static final List<String> CONTEXT_TAGS_ATTRIBUTES =
+      List.of("flow_cell_product_code", "flowcell_type", "sequencing_kit");
+  private static final List<String> TRACKING_ID_ATTRIBUTES =
+      List.of(
+          "device_id",
+          "exp_script_purpose",
+          "exp_start_time",
+          "flow_cell_id",
+          "flow_cell_product_code",
+          "hostname",
+          "protocols_version",
+          "version");
+
+  private static final Counter metadata_source =
+      Counter.builder()
+          .name("miso_runscanner_oxfordnanopore_metadata_source")
+          .help(
+              "The number of Oxford Nanopore runs whose metadata was read from a MinKNOW report, a POD5 file, or a FAST5 file")
+          .labelNames("source")
+          .register();
+
   /** Used for error and debug logging */
   private final Logger log = LoggerFactory.getLogger(BaseOxfordNanoporeProcessor.class);
 
+  /**
+   * Looks for runs below a directory, reusing the directory's previous listing if it has not been
+   * modified since, and looking in its subdirectories in parallel
+   */
+  private final class DirectoryScan extends RecursiveTask<List<File>> {
+    private final BasicFileAttributes attributes;
+    private final Path directory;
+    private final Map<Path, Listing> next;
+    private final Map<Path, Listing> previous;
+
+    private DirectoryScan(
+        Path directory,
+        BasicFileAttributes attributes,
+        Map<Path, Listing> previous,
+        Map<Path, Listing> next) {
+      this.directory = directory;
+      this.attributes = attributes;
+      this.previous = previous;
+      this.next = next;
+    }
+
+    @Override
+    protected List<File> compute() {
+      log.debug("Pre-visit: {}", directory);
+      // If directory matches criteria we know exclude the directory from consideration, don't go
+      // into the directory
+      if (excludedDirectoryFormat(directory) || olderThanCutoff(attributes)) {
+        log.debug("Skipping {} because we found an excluded directory in it.", directory);
+        return List.of();
+      }
+      Listing listing = previous.get(directory);
+      if (listing != null && listing.modified().equals(attributes.lastModifiedTime())) {
+        root_directories.labelValues("reused").inc();
+      } else {
+        root_directories.labelValues("listed").inc();
+        try {
+          listing = list(directory, attributes);
+        } catch (IOException e) {
+          log.error("Failed to visit {}", directory);
+          log.error(e.getMessage());
+          return List.of();
+        }
+      }
+      next.put(directory, listing);
+      if (listing.run()) {
+        return List.of(directory.toFile());
+      }
+
+      final List<DirectoryScan> scans = new ArrayList<>();
+      for (final Path subdirectory : listing.subdirectories()) {
+        try {
+          scans.add(
+              new DirectoryScan(
+                  subdirectory,
+                  Files.readAttributes(
+                      subdirectory, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS),
+                  previous,
+                  next));
+        } catch (NoSuchFileException e) {
+          // It has been deleted since the listing
+        } catch (IOException e) {
+          log.error("Failed to visit {}", subdirectory);
+          log.error(e.getMessage());
+        }
+      }
+      final List<File> runDirectories = new ArrayList<>();
+      for (final DirectoryScan scan : invokeAll(scans)) {
+        runDirectories.addAll(scan.join());
+      }
+      log.debug("Done visiting {}", directory);
+      return runDirectories;
+    }
+  }
+
+  /**
+   * What a directory held the last time it was listed: whether it is a run directory and, if it is
+   * not, the subdirectories that may hold runs
+   */
+  private record Listing(FileTime modified, boolean run, List<Path> subdirectories) {}
+
+  private static final Counter root_directories =
+      Counter.builder()
+          .name("miso_runscanner_oxfordnanopore_root_directories")
+          .help(
+              "The number of directories visited while looking for Oxford Nanopore runs, and whether their previous listing was reused")
+          .labelNames("result")
+          .register();
+
+  /** The number of directories looked in at once while looking for runs */
+  private static final int ROOT_SCAN_THREADS = 8;
+
+  /**
+   * MinKNOW writes each run to experiment/sample/run under the root and only creates the reads
+   * directory that makes it a run afterwards, so everything down to the run directories is watched
+   */
+  private static final int WATCH_DEPTH = 4;
+
   /** Used for reporting non-fast5 files encountered while looking for fast5s */
   private final Logger mysteryFiles = LoggerFactory.getLogger("mysteryLogger");
 
+  // Directory listings from the last time each root was searched, by root and then by directory
+  private final Map<Path, Map<Path, Listing>> listings = new ConcurrentHashMap<>();
+  private final ForkJoinPool rootScanPool = new ForkJoinPool(ROOT_SCAN_THREADS);
   private Path rootPath;
 
-  protected static String trackingId;
-  protected static String contextTags;
   protected static final int LANE_COUNT = 1;
 
   /** Skip processing anything older than 2017 since they typically fail */
@@ -48,6 +185,22 @@ public abstract class BaseOxfordNanoporeProcessor extends RunProcessor {
     return isFileFast5(file.getFileName().toString());
   }
 
+  protected static boolean isFilePod5(String fileName) {
+    return fileName.endsWith(".pod5");
+  }
+
+  protected static boolean isFilePod5(File file) {
+    return isFilePod5(file.getName());
+  }
+
+  protected static boolean isFilePod5(Path file) {
+    return isFilePod5(file.getFileName().toString());
+  }
+
+  private static boolean isFileReads(Path file) {
+    return isFileFast5(file) || isFilePod5(file);
+  }
+
   public BaseOxfordNanoporeProcessor(Builder builder) {
     super(builder);
   }
@@ -60,92 +213,106 @@ public abstract class BaseOxfordNanoporeProcessor extends RunProcessor {
   @Override
   public Stream<File> getRunsFromRoot(File root) {
     rootPath = root.toPath();
-    final List<File> runDirectories = new ArrayList<>();
+    final Map<Path, Listing> previous = listings.getOrDefault(rootPath, Map.of());
+    final Map<Path, Listing> next = new ConcurrentHashMap<>();
+    final List<File> runDirectories;
     try {
-      Files.walkFileTree(
-          root.toPath(),
-          new FileVisitor<Path>() {
-
-            /**
-             * Actions to take before visiting each individual file within the directory, mostly
-             * dealing with directory path.
-             */
-            @Override
-            public FileVisitResult preVisitDirectory(
-                Path path, BasicFileAttributes basicFileAttributes) throws IOException {
-              log.debug("Pre-visit: {}", path);
-
-              /**
-               * If directory matches criteria we know exclude the directory from consideration,
-               * don't go into the directory (SKIP_SUBTREE)
-               */
-              if (excludedDirectoryFormat(path) || olderThanCutoff(path)) {
-                log.debug("Skipping {} because we found an excluded directory in it.", path);
-                return FileVisitResult.SKIP_SUBTREE;
-              }
-
-              /**
-               * readsDirectoryForRun returns a Stream of paths which may potentially exist, and
-               * which we know would be valid reads directories. If any of the paths returned by
-               * readsDirectoryForRun exist, add path to runDirectories, then do not visit the files
-               * within the directory (SKIP_SUBTREE). anyMatch(isDirectory) is used to check for the
-               * existence of one or more of the directories returned by readsDirectoryForRun.
-               */
-              if (readsDirectoryForRun(path).anyMatch(p -> p.toFile().isDirectory())) {
-                log.debug("Adding {}", path);
-                runDirectories.add(path.toFile());
-                return FileVisitResult.SKIP_SUBTREE;
-              }
-
-              // If directory has directories or fast5s in, keep going through directory (CONTINUE)
-              if (Stream.of(path.toFile().listFiles())
-                      .filter(f -> f.isDirectory() || isFileFast5(f))
-                      .count()
-                  > 0) {
-                return FileVisitResult.CONTINUE;
-              }
-
-              // There's nothing good in this directory, so don't go within (SKIP_SUBTREE)
-              return FileVisitResult.SKIP_SUBTREE;
-            }
-
-            /** Actions to take on file(s) within directory. */
-            @Override
-            public FileVisitResult visitFile(Path path, BasicFileAttributes basicFileAttributes) {
-              // If file is a fast5 file, add directory path to runDirectories
-              if (isFileFast5(path)) {
-                runDirectories.add(path.getParent().toFile());
-                return FileVisitResult.SKIP_SIBLINGS;
-              } else {
-                /**
-                 * If file isn't fast5, log because it probably shouldn't be in sequencer output,
-                 * but keep going (CONTINUE) because we know from preVisitDirectory that there's
-                 * something worth looking at in here
-                 */
-                mysteryFiles.debug(path.toString());
-                return FileVisitResult.CONTINUE;
-              }
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
-              log.error("Failed to visit {}", path);
-              log.error(e.getMessage());
-              return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult postVisitDirectory(Path path, IOException e) throws IOException {
-              log.debug("Done visiting {}", path);
-              return FileVisitResult.CONTINUE;
-            }
-          });
+      runDirectories =
+          rootScanPool.invoke(
+              new DirectoryScan(
+                  rootPath,
+                  Files.readAttributes(rootPath, BasicFileAttributes.class),
+                  previous,
+                  next));
     } catch (IOException e) {
       log.error(e.getMessage(), e);
+      return Stream.empty();
     }
+    listings.put(rootPath, next);
     return runDirectories.stream();
   }
 
+  /**
+   * Search only the part of the root around a reported path. The path may be a new reads directory
+   * or a file written into a run, which makes its parent the run, so the search starts from the
+   * parent unless that is the root itself. Listings of the root's other directories are left as
+   * they are for the next full search to reuse.
+   */
+  @Override
+  public Stream<File> getRunsFromDirectory(File root, File path) {
+    Path start = path.toPath();
+    if (!start.startsWith(root.toPath()) || start.equals(root.toPath())) {
+      return Stream.empty();
+    }
+    if (!start.getParent().equals(root.toPath())) {
+      start = start.getParent();
+    }
+    rootPath = root.toPath();
+    final Map<Path, Listing> known =
+        listings.computeIfAbsent(rootPath, k -> new ConcurrentHashMap<>());
+    try {
+      final BasicFileAttributes attributes =
+          Files.readAttributes(start, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (!attributes.isDirectory()) {
+        return Stream.empty();
+      }
+      return rootScanPool.invoke(new DirectoryScan(start, attributes, known, known)).stream();
+    } catch (NoSuchFileException e) {
+      return Stream.empty();
+    } catch (IOException e) {
+      log.error(e.getMessage(), e);
+      return Stream.empty();
+    }
+  }
+
+  @Override
+  public int getWatchDepth() {
+    return WATCH_DEPTH;
+  }
+
+  /** List a directory, checking the type of each entry once */
+  private Listing list(Path directory, BasicFileAttributes attributes) throws IOException {
+    final Set<Path> childDirectories = new HashSet<>();
+    final SortedSet<Path> subdirectories = new TreeSet<>();
+    boolean hasReads = false;
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+      for (final Path entry : entries) {
+        // A directory with fast5s or pod5s in is a run, so nothing else in it matters
+        if (isFileReads(entry)) {
+          hasReads = true;
+          break;
+        }
+        final BasicFileAttributes entryAttributes;
+        try {
+          entryAttributes =
+              Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        if (entryAttributes.isDirectory()) {
+          childDirectories.add(entry);
+          subdirectories.add(entry);
+        } else if (entryAttributes.isSymbolicLink() && Files.isDirectory(entry)) {
+          // A linked reads directory still makes a run, but links are not followed further
+          childDirectories.add(entry);
+        } else {
+          // If file isn't fast5 or pod5, log because it probably shouldn't be in sequencer output
+          mysteryFiles.debug(entry.toString());
+        }
+      }
+    }
+    /*
+     * readsDirectoryForRun returns a Stream of paths which may potentially exist, and which we know
+     * would be valid reads directories. If any of them is in the listing, this is a run directory
+     * and the directories within it are not visited.
+     */
+    if (hasReads || readsDirectoryForRun(directory).anyMatch(childDirectories::contains)) {
+      log.debug("Adding {}", directory);
+      return new Listing(attributes.lastModifiedTime(), true, List.of());
+    }
+    return new Listing(attributes.lastModifiedTime(), false, List.copyOf(subdirectories));
+  }
+
   /**
    * Returns true if provided Path points to a directory in a format we are skipping for
    * compatibility reasons.
@@ -158,8 +325,10 @@ public abstract class BaseOxfordNanoporeProcessor extends RunProcessor {
   protected abstract Stream<Path> readsDirectoryForRun(Path path);
 
   /**
-   * Unlike the other process() implementations, this one is 'synchronized'. This is because JHDF5
-   * is *NOT THREADSAFE* and will start using read names from other files if not controlled
+   * Read the run's metadata from the MinKNOW report if there is one, and otherwise from the first
+   * POD5 or FAST5 file found. Only the HDF5 read of a FAST5 file is done one run at a time, through
+   * {@link Fast5Reader}, because JHDF5 is *NOT THREADSAFE* and will start using read names from
+   * other files if not controlled. POD5 files are read concurrently.
    *
    * @param runDirectory the directory to scan (which will be output from {@link
    *     #getRunsFromRoot(File)}
@@ -167,142 +336,164 @@ public abstract class BaseOxfordNanoporeProcessor extends RunProcessor {
    * @return NotificationDto containing run information
    * @throws IOException
    */
-  public synchronized NotificationDto process(File runDirectory, TimeZone tz) throws IOException {
-    final File firstFile =
-        readsDirectoryForRun(runDirectory.toPath())
-            .filter(p -> p.toFile().isDirectory())
-            .flatMap(
-                p -> {
-                  // Using walk() rather than list() prevents overlooking the case where /0 is empty
-                  // but /37 has fast5s
-                  try (Stream<Path> files = Files.walk(p)) {
-                    return files
-                        .filter(BaseOxfordNanoporeProcessor::isFileFast5)
-                        .findFirst()
-                        .map(Path::toFile)
-                        .map(Stream::of)
-                        .orElseGet(Stream::empty);
-                  } catch (IOException e) {
-                    log.error(e.getMessage(), e);
-                    return Stream.empty();
-                  }
-                })
-            .findFirst()
-            .orElseThrow(
-                // This can be thrown in cases of extremely large numbers of fast5s. This is OK
-                () -> new IOException("Cannot find FAST5 file in run directory: " + runDirectory));
-
-    log.debug("For runDirectory = {} we will be considering file: {}", runDirectory, firstFile);
+  public NotificationDto process(File runDirectory, TimeZone tz) throws IOException {
     OxfordNanoporeNotificationDto onnd = new OxfordNanoporeNotificationDto();
-    try (IHDF5Reader genericReader = HDF5FactoryProvider.get().openForReading(firstFile)) {
-
-      // Unless we have UniqueGlobalKey,
-      // Get the name of a read so we can access the metadata. getAllGroupMembers() doesn't return
-      // names in any
-      // particular order so this is arbitrary.
-      String read_name =
-          genericReader.object().exists("/UniqueGlobalKey")
-              ? "UniqueGlobalKey"
-              : genericReader.object().getAllGroupMembers("/").get(0);
-
-      log.debug("Selected read name {} from {}", read_name, firstFile);
-
-      Path p = runDirectory.toPath();
-      final int runDirectoryNameCount = p.getNameCount();
-      // when running ProcessRun, the rootPath is not set resulting in a NullPointerException
-      final int rootDirectoryNameCount =
-          rootPath == null ? runDirectoryNameCount - 3 : rootPath.getNameCount();
-      onnd.setRunAlias(
-          p.subpath(rootDirectoryNameCount, runDirectoryNameCount).toString().replaceAll("/", "_"));
-      onnd.setSequencerFolderPath(runDirectory.toString());
-
-      trackingId = read_name + "/tracking_id";
-      contextTags = read_name + "/context_tags";
-
-      if (genericReader.hasAttribute(trackingId, "flow_cell_id")) {
-        String id = genericReader.string().getAttr(trackingId, "flow_cell_id");
-        if (!(id.equals(""))) onnd.setContainerSerialNumber(id);
-      }
-
-      onnd.setLaneCount(LANE_COUNT);
-      onnd.setHealthType(HealthType.UNKNOWN);
 
-      if (genericReader.hasAttribute(trackingId, "exp_start_time")) {
-        String start = genericReader.string().getAttr(trackingId, "exp_start_time");
-        if (!(start.equals(""))) onnd.setStartDate(ZonedDateTime.parse(start).toInstant());
+    Path p = runDirectory.toPath();
+    final int runDirectoryNameCount = p.getNameCount();
+    // when running ProcessRun, the rootPath is not set resulting in a NullPointerException
+    final int rootDirectoryNameCount =
+        rootPath == null ? runDirectoryNameCount - 3 : rootPath.getNameCount();
+    onnd.setRunAlias(
+        p.subpath(rootDirectoryNameCount, runDirectoryNameCount).toString().replaceAll("/", "_"));
+    onnd.setSequencerFolderPath(runDirectory.toString());
+    onnd.setLaneCount(LANE_COUNT);
+    onnd.setHealthType(HealthType.UNKNOWN);
+
+    final File[] runFiles = Objects.requireNonNull(runDirectory.listFiles());
+    final Optional<File> summaryFile =
+        Stream.of(runFiles).filter(f -> f.getName().matches("final_summary.*\\.txt")).findFirst();
+    if (summaryFile.isPresent()) {
+      final Properties summary = new Properties();
+      try (final InputStream summaryInput = new FileInputStream(summaryFile.get())) {
+        summary.load(summaryInput);
       }
-
-      if (genericReader.hasAttribute(trackingId, "version")) {
-        String version = genericReader.string().getAttr(trackingId, "version");
-        if (!(version.equals(""))) onnd.setSoftware(version);
+      if (summary.containsKey("started")) {
+        onnd.setHealthType(HealthType.RUNNING);
       }
-
-      if (genericReader.hasAttribute(trackingId, "protocols_version")) {
-        String protocolVersion = genericReader.string().getAttr(trackingId, "protocols_version");
-        if (!(protocolVersion.equals(""))) onnd.setProtocolVersion(protocolVersion);
+      if (summary.containsKey("acquisition_stopped")
+          && !summary.getProperty("acquisition_stopped").isEmpty()) {
+        onnd.setCompletionDate(
+            ZonedDateTime.parse(summary.getProperty("acquisition_stopped")).toInstant());
+        onnd.setHealthType(HealthType.COMPLETED);
       }
+    }
 
-      if (genericReader.hasAttribute(trackingId, "exp_script_purpose")) {
-        String runType = genericReader.string().getAttr(trackingId, "exp_script_purpose");
-        if (!(runType.equals(""))) onnd.setRunType(runType);
+    final Optional<File> reportFile =
+        Stream.of(runFiles).filter(f -> f.getName().matches("report_.*\\.json")).findFirst();
+    Optional<RunAttributes> attributes =
+        reportFile.isPresent() ? MinknowReport.read(reportFile.get()) : Optional.empty();
+    if (attributes.isPresent()) {
+      metadata_source.labelValues("report").inc();
+      log.debug(
+          "For runDirectory = {} we will be considering report: {}", runDirectory, reportFile);
+    } else {
+      final File firstFile = findReadsFile(runDirectory);
+      log.debug("For runDirectory = {} we will be considering file: {}", runDirectory, firstFile);
+      if (isFilePod5(firstFile)) {
+        metadata_source.labelValues("pod5").inc();
+        attributes = Optional.of(Pod5Reader.read(firstFile));
+      } else {
+        metadata_source.labelValues("fast5").inc();
+        attributes =
+            Optional.of(Fast5Reader.read(firstFile, reader -> readFast5(firstFile, reader)));
       }
+    }
 
-      if (genericReader.hasAttribute(trackingId, "flow_cell_product_code")) {
-        String flowCellProductCode =
-            genericReader.string().getAttr(trackingId, "flow_cell_product_code");
-        if (!(flowCellProductCode.equals(""))) onnd.setContainerModel(flowCellProductCode);
-      } else if (genericReader.hasAttribute(contextTags, "flow_cell_product_code")) {
-        String flowCellProductCode =
-            genericReader.string().getAttr(contextTags, "flow_cell_product_code");
-        if (!(flowCellProductCode.equals(""))) onnd.setContainerModel(flowCellProductCode);
-      } else if (genericReader.hasAttribute(contextTags, "flowcell_type")) {
-        String flowcellType = genericReader.string().getAttr(contextTags, "flowcell_type");
-        if (!(flowcellType.equals(""))) onnd.setContainerModel(flowcellType);
-      }
+    setAttributes(onnd, attributes.get());
+    additionalProcess(onnd, attributes.get());
+    return onnd;
+  }
 
-      if (genericReader.hasAttribute(contextTags, "sequencing_kit")) {
-        String sequencingKit = genericReader.string().getAttr(contextTags, "sequencing_kit");
-        if (!(sequencingKit.equals(""))) onnd.setSequencingKit(sequencingKit);
-      }
-      final Optional<File> summaryFile =
-          Stream.of(Objects.requireNonNull(runDirectory.listFiles()))
-              .filter(f -> f.getName().matches("final_summary.*\\.txt"))
-              .findFirst();
-      if (summaryFile.isPresent()) {
-        final Properties summary = new Properties();
-        try (final InputStream summaryInput = new FileInputStream(summaryFile.get())) {
-          summary.load(summaryInput);
-        }
-        if (summary.containsKey("started")) {
-          onnd.setHealthType(HealthType.RUNNING);
-        }
-        if (summary.containsKey("acquisition_stopped")
-            && !summary.getProperty("acquisition_stopped").isEmpty()) {
-          onnd.setCompletionDate(
-              ZonedDateTime.parse(summary.getProperty("acquisition_stopped")).toInstant());
-          onnd.setHealthType(HealthType.COMPLETED);
+  private File findReadsFile(File runDirectory) throws IOException {
+    return readsDirectoryForRun(runDirectory.toPath())
+        .filter(p -> p.toFile().isDirectory())
+        .flatMap(
+            p -> {
+              // Using walk() rather than list() prevents overlooking the case where /0 is empty
+              // but /37 has fast5s
+              try (Stream<Path> files = Files.walk(p)) {
+                return files
+                    .filter(BaseOxfordNanoporeProcessor::isFileReads)
+                    .findFirst()
+                    .map(Path::toFile)
+                    .map(Stream::of)
+                    .orElseGet(Stream::empty);
+              } catch (IOException e) {
+                log.error(e.getMessage(), e);
+                return Stream.empty();
+              }
+            })
+        .findFirst()
+        .orElseThrow(
+            // This can be thrown in cases of extremely large numbers of fast5s. This is OK
+            () ->
+                new IOException(
+                    "Cannot find FAST5 or POD5 file in run directory: " + runDirectory));
+  }
+
+  /** Read the run's attributes from an open FAST5 file. This runs on the reader's thread. */
+  private RunAttributes readFast5(File firstFile, IHDF5Reader genericReader) {
+    // Unless we have UniqueGlobalKey,
+    // Get the name of a read so we can access the metadata. getAllGroupMembers() doesn't return
+    // names in any
+    // particular order so this is arbitrary.
+    String read_name =
+        genericReader.object().exists("/UniqueGlobalKey")
+            ? "UniqueGlobalKey"
+            : genericReader.object().getAllGroupMembers("/").get(0);
+
+    log.debug("Selected read name {} from {}", read_name, firstFile);
+
+    return new RunAttributes(
+        readAttributes(genericReader, read_name + "/tracking_id", TRACKING_ID_ATTRIBUTES),
+        readAttributes(genericReader, read_name + "/context_tags", CONTEXT_TAGS_ATTRIBUTES));
+  }
+
+  private static Map<String, String> readAttributes(
+      IHDF5Reader reader, String objectPath, List<String> names) {
+    Map<String, String> attributes = new HashMap<>();
+    for (String name : names) {
+      if (reader.hasAttribute(objectPath, name)) {
+        String value = reader.string().getAttr(objectPath, name);
+        if (!value.isEmpty()) {
+          attributes.put(name, value);
         }
       }
-
-      additionalProcess(onnd, genericReader);
-      return onnd;
     }
+    return attributes;
+  }
+
+  private static void setAttributes(OxfordNanoporeNotificationDto onnd, RunAttributes attributes) {
+    attributes.trackingId("flow_cell_id").ifPresent(onnd::setContainerSerialNumber);
+    attributes
+        .trackingId("exp_start_time")
+        .ifPresent(start -> onnd.setStartDate(ZonedDateTime.parse(start).toInstant()));
+    attributes.trackingId("version").ifPresent(onnd::setSoftware);
+    attributes.trackingId("protocols_version").ifPresent(onnd::setProtocolVersion);
+    attributes.trackingId("exp_script_purpose").ifPresent(onnd::setRunType);
+    attributes
+        .trackingId("flow_cell_product_code")
+        .or(() -> attributes.contextTags("flow_cell_product_code"))
+        .or(() -> attributes.contextTags("flowcell_type"))
+        .ifPresent(onnd::setContainerModel);
+    attributes.contextTags("sequencing_kit").ifPresent(onnd::setSequencingKit);
   }
 
   /**
-   * Tests whether file at path is older than Jan 1 2017.
+   * Tests whether a file is older than Jan 1 2017.
    *
-   * @param path path leading to file to test
-   * @return true if file is older than Jan 1 2017 OR IOException occurs, false otherwise
+   * @param attributes the file's attributes
+   * @return true if file is older than Jan 1 2017, false otherwise
    */
-  protected boolean olderThanCutoff(Path path) throws IOException {
-    return Files.readAttributes(path, BasicFileAttributes.class)
-            .creationTime()
-            .compareTo(CUTOFF_DATE)
-        <= 0;
+  protected static boolean olderThanCutoff(BasicFileAttributes attributes) {
+    return attributes.creationTime().compareTo(CUTOFF_DATE) <= 0;
   }
 
-  protected abstract void additionalProcess(OxfordNanoporeNotificationDto nnd, IHDF5Reader reader);
+  @Override
+  public void close() {
+    rootScanPool.shutdownNow();
+    listings.clear();
+  }
+
+  /**
+   * Set any platform-specific information from the run's attributes
+   *
+   * @param nnd the run information to fill in
+   * @param attributes the attributes read from the MinKNOW report, POD5 file, or FAST5 file
+   */
+  protected abstract void additionalProcess(
+      OxfordNanoporeNotificationDto nnd, RunAttributes attributes);
 
   public void setRootPath(Path newPath) {
     rootPath = newPath;
@@ -0,0 +1,146 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allows the scheduler to abandon a run that is taking too long to process.
+ *
+ * <p>The scheduler begins a cancellation on the thread that processes a run. If the run is
+ * cancelled, the thread is interrupted. Since not all blocking operations respond to interruption
+ * (e.g., reading the output of a child process), a processor can also register actions that will
+ * unblock it, such as killing the child process, using {@link #onCancel(Runnable)}.
+ *
+ * <p>A run that is held back waiting for a shared resource (e.g., memory or a helper process) is
+ * not making slow progress, so time spent in {@link #pause()} does not count against its deadline.
+ */
+public final class Cancellation {
+  /** A period in which the run is waiting its turn; closing it resumes the deadline */
+  public interface Pause extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Start tracking the run being processed by the current thread
+   *
+   * @return the cancellation, which must be {@link #finish() finished} by the same thread
+   */
+  public static Cancellation begin() {
+    Cancellation cancellation = new Cancellation(Thread.currentThread());
+    CURRENT.set(cancellation);
+    return cancellation;
+  }
+
+  /**
+   * Register an action to take if the run being processed by the current thread is cancelled.
+   *
+   * <p>If the run has already been cancelled, the action is taken immediately. If the current
+   * thread is not processing a run for the scheduler, the action is never taken.
+   */
+  public static void onCancel(Runnable action) {
+    Cancellation cancellation = CURRENT.get();
+    if (cancellation != null) {
+      cancellation.add(action);
+    }
+  }
+
+  /**
+   * Stop counting time against the deadline of the run being processed by the current thread until
+   * the result is closed.
+   *
+   * <p>If the current thread is not processing a run for the scheduler, nothing is paused.
+   */
+  public static Pause pause() {
+    Cancellation cancellation = CURRENT.get();
+    if (cancellation == null) {
+      return () -> {};
+    }
+    cancellation.startPause();
+    return cancellation::endPause;
+  }
+
+  private final List<Runnable> actions = new ArrayList<>();
+  private boolean cancelled;
+  private boolean finished;
+  private long paused;
+  private int pauses;
+  private long pauseStarted;
+  private final long started = System.nanoTime();
+  private final Thread thread;
+
+  private Cancellation(Thread thread) {
+    this.thread = thread;
+  }
+
+  private synchronized void startPause() {
+    if (pauses++ == 0) {
+      pauseStarted = System.nanoTime();
+    }
+  }
+
+  private synchronized void endPause() {
+    if (--pauses == 0) {
+      paused += System.nanoTime() - pauseStarted;
+    }
+  }
+
+  /** The time the run has been processed for, not counting time spent paused */
+  public synchronized Duration getActiveTime() {
+    long now = System.nanoTime();
+    return Duration.ofNanos(now - started - paused - (pauses > 0 ? now - pauseStarted : 0));
+  }
+
+  /** Whether the run has finished or been cancelled */
+  public synchronized boolean isDone() {
+    return cancelled || finished;
+  }
+
+  private void add(Runnable action) {
+    synchronized (this) {
+      if (!cancelled) {
+        actions.add(action);
+        return;
+      }
+    }
+    action.run();
+  }
+
+  /**
+   * Cancel the run, if it is still being processed.
+   *
+   * @return true if the run was cancelled by this call; false if it had already finished or been
+   *     cancelled
+   */
+  public synchronized boolean cancel() {
+    if (cancelled || finished) {
+      return false;
+    }
+    cancelled = true;
+    for (Runnable action : actions) {
+      action.run();
+    }
+    thread.interrupt();
+    return true;
+  }
+
+  /**
+   * Stop tracking the run. This must be called by the thread that began the cancellation; it can be
+   * called more than once.
+   *
+   * @return true if the run completed without being cancelled and its result should be used
+   */
+  public synchronized boolean finish() {
+    if (!finished) {
+      finished = true;
+      actions.clear();
+      if (CURRENT.get() == this) {
+        CURRENT.remove();
+      }
+    }
+    return !cancelled;
+  }
+}
@@ -19,15 +19,19 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
@@ -39,11 +43,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Scanner;
+import java.util.OptionalDouble;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -80,41 +86,71 @@ public final class DefaultIllumina extends RunProcessor {
           .labelNames("method")
           .register();
 
+  private static final Counter interop_reads =
+      Counter.builder()
+          .name("miso_runscanner_illumina_interop_reads")
+          .help(
+              "The number of times a run's InterOp data was read in full by the run processor or only from newly appended records")
+          .labelNames("method")
+          .register();
+
+  private static final Histogram rta_log_scan_bytes =
+      Histogram.builder()
+          .name("miso_runscanner_illumina_rta_log_scan_bytes")
+          .help("The number of bytes of RTA logs read when checking a run for failure")
+          .classicExponentialUpperBounds(1024, 4, 12)
+          .register();
+
   private static final Pattern FAILED_MESSAGE =
       Pattern.compile(
           "(\\d{1,2}/\\d{1,2}/\\d{4},\\d{2}:\\d{2}:\\d{2}).*Application\\sexited\\sbefore\\scompletion.*");
   private static final DateTimeFormatter FAILED_MESSAGE_DATE_FORMATTER =
       DateTimeFormatter.ofPattern("M/d/yyyy,HH:mm:ss");
 
-  private static final Logger log = LoggerFactory.getLogger(DefaultIllumina.class);
+  private static final int DEFAULT_OUTPUT_CHECK_THREADS = 8;
+
+  private static final long DEFAULT_WORKER_TIMEOUT_MINUTES = 30;
 
-  private static final Predicate<String> BCL_FILENAME =
-      Pattern.compile("^(s_[0-9]*_[0-9]*\\.bcl(\\.gz)?|L\\d*_\\d*.cbcl)").asPredicate();
+  // Rough memory use of runscanner-illumina: a fixed amount, plus either a multiple of the InterOp
+  // files' size or a share for every tile in every cycle, whichever is larger
+  private static final long INTEROP_MEMORY_BASE = 128L << 20;
+  private static final long INTEROP_MEMORY_PER_FILE_BYTE = 4;
+  private static final long INTEROP_MEMORY_PER_TILE_CYCLE = 4L << 10;
 
-  private static final Predicate<String> BCL_BGZF_FILENAME =
-      Pattern.compile("^[0-9]*\\.(bcl\\.bgzf|cbcl)").asPredicate();
+  private static final Logger log = LoggerFactory.getLogger(DefaultIllumina.class);
 
-  private static final XPath xpath = XPathFactory.newInstance().newXPath();
+  // Neither XPath nor compiled expressions are thread-safe, so each thread processing runs gets its
+  // own rather than taking turns with the others
+  private static final ThreadLocal<XPath> xpath =
+      ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
 
   // RunInfo XPaths
-  private static final XPathExpression RUNINFO_START_TIME_XPATH = xpath("//Run/Date/text()");
-  private static final XPathExpression I5_REVERSE_COMPLEMENT =
+  private static final ThreadLocal<XPathExpression> RUNINFO_START_TIME_XPATH =
+      xpath("//Run/Date/text()");
+  private static final ThreadLocal<XPathExpression> I5_REVERSE_COMPLEMENT =
       xpath("//Run/Reads/Read[@IsIndexedRead='Y'][2]/@IsReverseComplement");
+  private static final ThreadLocal<XPathExpression> RUNINFO_TILE_CYCLES =
+      xpath(
+          "sum(//Run/Reads/Read/@NumCycles) * //FlowcellLayout/@LaneCount"
+              + " * //FlowcellLayout/@SurfaceCount * //FlowcellLayout/@SwathCount"
+              + " * //FlowcellLayout/@TileCount");
 
   // RunParameters XPaths
-  private static final XPathExpression miSeqPartNumber =
+  private static final ThreadLocal<XPathExpression> miSeqPartNumber =
       xpath("//FlowcellRFIDTag/PartNumber/text()");
-  private static final XPathExpression nextSeqPartNumber =
+  private static final ThreadLocal<XPathExpression> nextSeqPartNumber =
       xpath("//FlowCellRfidTag/PartNumber/text()");
-  private static final XPathExpression novaSeqPartNum = xpath("//RfidsInfo/FlowCellMode/text()");
-  private static final XPathExpression nextSeq2000PartNumber = xpath("//FlowCellPartNumber/text()");
-  private static final XPathExpression miSeqi100PartNumber =
+  private static final ThreadLocal<XPathExpression> novaSeqPartNum =
+      xpath("//RfidsInfo/FlowCellMode/text()");
+  private static final ThreadLocal<XPathExpression> nextSeq2000PartNumber =
+      xpath("//FlowCellPartNumber/text()");
+  private static final ThreadLocal<XPathExpression> miSeqi100PartNumber =
       xpath(
           "//ConsumableInfo/ConsumableInfo/Type[text() = 'DryCartridge']/parent::*/PartNumber/text()");
-  private static final XPathExpression novaSeqXPartNumber =
+  private static final ThreadLocal<XPathExpression> novaSeqXPartNumber =
       xpath(
           "//ConsumableInfo/ConsumableInfo/Type[text() = 'FlowCell']/parent::*/PartNumber/text()");
-  private static final List<XPathExpression> CONTAINER_PARTNUMBER_XPATHS =
+  private static final List<ThreadLocal<XPathExpression>> CONTAINER_PARTNUMBER_XPATHS =
       Collections.unmodifiableList(
           Lists.newArrayList(
               miSeqi100PartNumber,
@@ -123,59 +159,71 @@ public final class DefaultIllumina extends RunProcessor {
               novaSeqPartNum,
               nextSeq2000PartNumber,
               novaSeqXPartNumber));
-  private static final XPathExpression miSeqi100DryCartridgeSerialNumber =
+  private static final ThreadLocal<XPathExpression> miSeqi100DryCartridgeSerialNumber =
       xpath(
           "//ConsumableInfo/ConsumableInfo/Type[text() = 'DryCartridge']/parent::*/SerialNumber/text()");
-  private static final XPathExpression hiSeqPosition = xpath("//Setup/FCPosition/text()");
-  private static final XPathExpression novaSeqPosition = xpath("//Side/text()");
-  private static final Set<XPathExpression> POSITION_XPATHS =
+  private static final ThreadLocal<XPathExpression> hiSeqPosition =
+      xpath("//Setup/FCPosition/text()");
+  private static final ThreadLocal<XPathExpression> novaSeqPosition = xpath("//Side/text()");
+  private static final Set<ThreadLocal<XPathExpression>> POSITION_XPATHS =
       Collections.unmodifiableSet(Sets.newHashSet(hiSeqPosition, novaSeqPosition));
   ;
-  private static final XPathExpression FLOWCELL = xpath("//Setup/Flowcell/text()");
+  private static final ThreadLocal<XPathExpression> FLOWCELL = xpath("//Setup/Flowcell/text()");
   private static final Pattern FLOWCELL_PATTERN =
       Pattern.compile("^([a-zA-Z]+(?: Rapid)?) (Flow Cell v\\d)$");
-  private static final XPathExpression FLOWCELL_PAIRED = xpath("//Setup/PairEndFC/text()");
-  private static final XPathExpression WORKFLOW_TYPE =
+  private static final ThreadLocal<XPathExpression> FLOWCELL_PAIRED =
+      xpath("//Setup/PairEndFC/text()");
+  private static final ThreadLocal<XPathExpression> WORKFLOW_TYPE =
       xpath("//WorkflowType/text()|//ClusteringChoice/text()");
-  private static final XPathExpression SBS_CONSUMABLE_VERSION =
+  private static final ThreadLocal<XPathExpression> SBS_CONSUMABLE_VERSION =
       xpath("//RfidsInfo/SbsConsumableVersion/text()");
-  private static final XPathExpression RUNPARAM_START_TIME_XPATH = xpath("//RunStartTime/text()");
+  private static final ThreadLocal<XPathExpression> RUNPARAM_START_TIME_XPATH =
+      xpath("//RunStartTime/text()");
 
   // XPath for NovaSeq X Plus
-  private static final XPathExpression NOVASEQ_CONSUMABLE_INFO =
+  private static final ThreadLocal<XPathExpression> NOVASEQ_CONSUMABLE_INFO =
       xpath("//ConsumableInfo/ConsumableInfo");
-  private static final XPathExpression NOVASEQ_CONSUMABLE_TYPE = xpath(".//Type/text()");
-  private static final XPathExpression NOVASEQ_CONSUMABLE_LOT = xpath(".//LotNumber/text()");
+  private static final ThreadLocal<XPathExpression> NOVASEQ_CONSUMABLE_TYPE =
+      xpath(".//Type/text()");
+  private static final ThreadLocal<XPathExpression> NOVASEQ_CONSUMABLE_LOT =
+      xpath(".//LotNumber/text()");
 
   // XPath for MiSeq
-  private static final XPathExpression MISEQ_REAGENT_KIT_LOT =
+  private static final ThreadLocal<XPathExpression> MISEQ_REAGENT_KIT_LOT =
       xpath(
           "//*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='reagentkitrfidtag']/*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='lotnumber']/text()");
-  private static final XPathExpression MISEQ_FLOWCELL_RFID_LOT =
+  private static final ThreadLocal<XPathExpression> MISEQ_FLOWCELL_RFID_LOT =
       xpath(
           "//*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='flowcellrfidtag']/*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='lotnumber']/text()");
-  private static final XPathExpression MISEQ_PR2_BOTTLE_LOT =
+  private static final ThreadLocal<XPathExpression> MISEQ_PR2_BOTTLE_LOT =
       xpath(
           "//*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='pr2bottlerfidtag']/*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='lotnumber']/text()");
 
   // XPath for NextSeq 2000
-  private static final XPathExpression NEXTSEQ_FLOWCELL_LOT =
+  private static final ThreadLocal<XPathExpression> NEXTSEQ_FLOWCELL_LOT =
       xpath(
           "//*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='flowcelllotnumber']/text()");
-  private static final XPathExpression NEXTSEQ_CARTRIDGE_LOT =
+  private static final ThreadLocal<XPathExpression> NEXTSEQ_CARTRIDGE_LOT =
       xpath(
           "//*[translate(local-name(), 'ABCDEFGHIJKLMNOPQRSTUVWXYZ', 'abcdefghijklmnopqrstuvwxyz')='cartridgelotnumber']/text()");
 
   // RunCompletionInfo XPaths
-  private static final XPathExpression COMPLETION_STATUS_NEXTSEQ =
+  private static final ThreadLocal<XPathExpression> COMPLETION_STATUS_NEXTSEQ =
       xpath("//CompletionStatus/text()");
-  private static final XPathExpression COMPLETION_STATUS_NOVASEQ = xpath("//RunStatus/text()");
-  private static final XPathExpression START_TIME = xpath("//RunStartTime/text()");
-  private static final XPathExpression END_TIME = xpath("//RunEndTime/text()");
+  private static final ThreadLocal<XPathExpression> COMPLETION_STATUS_NOVASEQ =
+      xpath("//RunStatus/text()");
+  private static final ThreadLocal<XPathExpression> START_TIME = xpath("//RunStartTime/text()");
+  private static final ThreadLocal<XPathExpression> END_TIME = xpath("//RunEndTime/text()");
+
+  private static ThreadLocal<XPathExpression> xpath(String expression) {
+    // Compile it once now so a bad expression is found when the class is loaded
+    compile(expression);
+    return ThreadLocal.withInitial(() -> compile(expression));
+  }
 
-  private static XPathExpression xpath(String expression) {
+  private static XPathExpression compile(String expression) {
     try {
-      return xpath.compile(expression);
+      return xpath.get().compile(expression);
     } catch (XPathExpressionException e) {
       throw new IllegalStateException("Failed to compile xpaths", e);
     }
@@ -183,7 +231,99 @@ public final class DefaultIllumina extends RunProcessor {
 
   public static DefaultIllumina create(Builder builder, ObjectNode parameters) {
     return new DefaultIllumina(
-        builder, calculateCheckOutput(parameters), calculateScanDragen(parameters));
+        builder,
+        calculateCheckOutput(parameters),
+        calculateOutputCheckThreads(parameters),
+        calculateScanDragen(parameters),
+        calculateWorkers(parameters),
+        calculateIncrementalInterOp(parameters),
+        calculateProgressWhileRunning(parameters),
+        calculateMemoryBudget(parameters));
+  }
+
+  /**
+   * Creates the memory budget shared by runscanner-illumina processes, if requested.
+   *
+   * <p>If memoryBudget is specified and positive, it is the number of megabytes that runs being
+   * read at the same time may use, by estimate, across all the sequencers configured with the same
+   * budget. Otherwise, runs are read as soon as they are processed.
+   *
+   * @param parameters ObjectNode possibly containing memoryBudget parameter
+   * @return the budget, or null if runs should not wait for memory
+   */
+  private static MemoryBudget calculateMemoryBudget(ObjectNode parameters) {
+    if (!parameters.hasNonNull("memoryBudget") || parameters.get("memoryBudget").asLong() < 1) {
+      return null;
+    }
+    return MemoryBudget.shared(parameters.get("memoryBudget").asLong() << 20);
+  }
+
+  /**
+   * Calculates whether to read only the InterOp data needed for cycle counts while runs are still
+   * sequencing.
+   *
+   * <p>If progressWhileRunning is specified and set to true, only a summary of the metrics is
+   * collected until the run finishes. If it is false or unspecified, all metrics are collected
+   * every time.
+   *
+   * @param parameters ObjectNode possibly containing progressWhileRunning parameter
+   * @return true if progressWhileRunning is true, false if progressWhileRunning is null or false
+   */
+  private static boolean calculateProgressWhileRunning(ObjectNode parameters) {
+    return parameters.hasNonNull("progressWhileRunning")
+        && parameters.get("progressWhileRunning").asBoolean();
+  }
+
+  /**
+   * Calculates whether to read only new InterOp records for runs that are still sequencing.
+   *
+   * <p>If incrementalInterOp is specified and set to true, read incrementally. If it is false or
+   * unspecified, read the full InterOp data every time.
+   *
+   * @param parameters ObjectNode possibly containing incrementalInterOp parameter
+   * @return true if incrementalInterOp is true, false if incrementalInterOp is null or false
+   */
+  private static boolean calculateIncrementalInterOp(ObjectNode parameters) {
+    return parameters.hasNonNull("incrementalInterOp")
+        && parameters.get("incrementalInterOp").asBoolean();
+  }
+
+  /**
+   * Creates the pool of long-lived runscanner-illumina processes, if requested.
+   *
+   * <p>If workers is specified and positive, that many processes are kept running, each taking at
+   * most workerTimeout minutes (default 30) per run. Otherwise, a new process is started for each
+   * run.
+   *
+   * @param parameters ObjectNode possibly containing workers and workerTimeout parameters
+   * @return the pool, or null if a process should be started for each run
+   */
+  private static IlluminaWorkerPool calculateWorkers(ObjectNode parameters) {
+    if (!parameters.hasNonNull("workers") || parameters.get("workers").asInt() < 1) {
+      return null;
+    }
+    return new IlluminaWorkerPool(
+        parameters.get("workers").asInt(),
+        Duration.ofMinutes(
+            parameters.hasNonNull("workerTimeout")
+                ? parameters.get("workerTimeout").asLong()
+                : DEFAULT_WORKER_TIMEOUT_MINUTES));
+  }
+
+  /**
+   * Calculates how many base call directories to list at once when checking output.
+   *
+   * <p>If outputCheckThreads is specified and positive, use that many threads, shared by all runs.
+   * Otherwise, use 8.
+   *
+   * @param parameters ObjectNode possibly containing outputCheckThreads parameter
+   * @return the number of threads
+   */
+  private static int calculateOutputCheckThreads(ObjectNode parameters) {
+    return parameters.hasNonNull("outputCheckThreads")
+            && parameters.get("outputCheckThreads").asInt() > 0
+        ? parameters.get("outputCheckThreads").asInt()
+        : DEFAULT_OUTPUT_CHECK_THREADS;
   }
 
   /**
@@ -238,66 +378,101 @@ public final class DefaultIllumina extends RunProcessor {
     return Optional.empty();
   }
 
+  // Files at the top of the run directory that are read while processing
+  private static final List<String> FINGERPRINT_FILES =
+      List.of(
+          "RunInfo.xml",
+          "runParameters.xml",
+          "RunParameters.xml",
+          "RunCompletionStatus.xml",
+          "CopyComplete.txt",
+          "RTAComplete.txt");
+
+  // Files that mean the sequencer has stopped writing InterOp data
+  private static final List<String> COMPLETION_MARKERS =
+      List.of("RTAComplete.txt", "CopyComplete.txt", "RunCompletionStatus.xml");
+
+  /** The last full read of a run that is still sequencing and how far it has got since */
+  private static final class RunningInterOp {
+    private final String json;
+    private final InterOpProgress progress;
+
+    private RunningInterOp(String json, InterOpProgress progress) {
+      this.json = json;
+      this.progress = progress;
+    }
+  }
+
+  private static boolean hasCompletionMarker(File runDirectory) {
+    return COMPLETION_MARKERS.stream().anyMatch(marker -> new File(runDirectory, marker).exists());
+  }
+
+  // Base call completeness checks; null if output is not checked
+  private final BaseCallsCheck baseCalls;
   private final boolean checkOutput;
-  private final boolean scanDragen;
+  // Memory shared by runscanner-illumina processes; null if runs don't wait for memory
+  private final MemoryBudget memory;
+  private final boolean progressWhileRunning;
+  // RTA logs already searched for failure messages, by run directory
+  private final Map<File, LogTail> rtaLogs = new ConcurrentHashMap<>();
+  // Runs still sequencing, by run directory; null if InterOp data is always read in full
+  private final Map<File, RunningInterOp> runningInterOp;
+  // Finished DRAGEN analysis attempts; null if DRAGEN analysis is not scanned
+  private final ProcessDragen dragen;
+  // Long-lived runscanner-illumina processes; null to start a new process for each run
+  private final IlluminaWorkerPool workers;
 
   public DefaultIllumina(Builder builder, boolean checkOutput, boolean scanDragen) {
+    this(builder, checkOutput, DEFAULT_OUTPUT_CHECK_THREADS, scanDragen, null, false, false, null);
+  }
+
+  DefaultIllumina(
+      Builder builder,
+      boolean checkOutput,
+      int outputCheckThreads,
+      boolean scanDragen,
+      IlluminaWorkerPool workers,
+      boolean incrementalInterOp,
+      boolean progressWhileRunning,
+      MemoryBudget memory) {
     super(builder);
     this.checkOutput = checkOutput;
-    this.scanDragen = scanDragen;
+    baseCalls = checkOutput ? new BaseCallsCheck(outputCheckThreads) : null;
+    dragen = scanDragen ? new ProcessDragen() : null;
+    this.workers = workers;
+    this.progressWhileRunning = progressWhileRunning;
+    this.memory = memory;
+    runningInterOp = incrementalInterOp ? new ConcurrentHashMap<>() : null;
+  }
+
+  @Override
+  public void close() {
+    if (workers != null) {
+      workers.close();
+    }
+    if (runningInterOp != null) {
+      runningInterOp.clear();
+    }
+    rtaLogs.clear();
+    if (baseCalls != null) {
+      baseCalls.close();
+    }
+    if (dragen != null) {
+      dragen.clear();
+    }
   }
 
   @Override
   public Stream<File> getRunsFromRoot(File root) {
-    return Arrays.stream(
-            root.listFiles(f -> f.isDirectory() && !f.getName().equals("Instrument"))) //
+    return Arrays.stream(root.listFiles(this::isRunDirectory)) //
         // illumina runs start with yymmdd or yyyymmdd for newer instruments,
         // we want runscanner to scan newer runs first
         .sorted(Comparator.comparing(File::getName).reversed());
   }
 
-  private boolean isLaneComplete(Path laneDir, IlluminaNotificationDto dto) {
-    // For MiSeq and HiSeq, check for a complete set of BCL files per each cycle
-    boolean completeCycleData =
-        IntStream.rangeClosed(1, dto.getNumCycles()) //
-            .mapToObj(cycle -> String.format("C%d.1", cycle)) //
-            .map(laneDir::resolve) //
-            .filter(p -> p.toFile().exists()) //
-            .allMatch(
-                cycleDir -> {
-                  try (Stream<Path> cycleWalk = Files.walk(cycleDir, 1)) {
-
-                    long bclCount =
-                        cycleWalk //
-                            .map(file -> file.getFileName().toString()) //
-                            .filter(BCL_FILENAME) //
-                            .count();
-                    return bclCount == dto.getBclCount();
-                  } catch (IOException e) {
-                    log.error("Failed to walk lane directory: " + laneDir.toString(), e);
-                    return false;
-                  }
-                });
-    if (completeCycleData) {
-      return true;
-    }
-    // For NextSeq, check for a file per cycle
-    try (Stream<Path> laneWalk = Files.walk(laneDir, 1)) {
-      // First, examine the control files to determine all the BCL files we intend to
-      // find for each
-      // cycle.
-      long bgzfCount =
-          laneWalk //
-              .map(file -> file.getFileName().toString()) //
-              .filter(BCL_BGZF_FILENAME) //
-              .count();
-      if (bgzfCount == dto.getNumCycles()) {
-        return true;
-      }
-    } catch (IOException e) {
-      log.error("Failed to walk lane directory: " + laneDir.toString(), e);
-    }
-    return false;
+  @Override
+  protected boolean isRunDirectory(File directory) {
+    return directory.isDirectory() && !directory.getName().equals("Instrument");
   }
 
   /**
@@ -340,28 +515,160 @@ public final class DefaultIllumina extends RunProcessor {
     return module;
   }
 
-  @Override
-  public NotificationDto process(File runDirectory, TimeZone tz) throws IOException {
+  /**
+   * Read the InterOp data for a run.
+   *
+   * <p>If reading incrementally, a run that is still sequencing is read in full once and then only
+   * its cycle counts, and the cycles shown in its metrics, are updated from records appended to the
+   * InterOp files, until it finishes or the new records can't be understood.
+   */
+  private IlluminaNotificationDto readInterOp(File runDirectory, TimeZone tz, boolean progressOnly)
+      throws IOException {
+    if (runningInterOp == null) {
+      return parseInterOp(runInterOp(runDirectory, tz, progressOnly), runDirectory, tz);
+    }
+    File interOp = new File(runDirectory, "InterOp");
+    RunningInterOp running = runningInterOp.get(runDirectory);
+    if (running != null && !hasCompletionMarker(runDirectory)) {
+      Optional<InterOpProgress.Cycles> cycles = running.progress.update(interOp);
+      if (cycles.isPresent()) {
+        IlluminaNotificationDto dto = parseInterOp(running.json, runDirectory, tz);
+        // Once every cycle has been called, get the full metrics and let the run finish normally
+        if (cycles.get().getCalled() < dto.getNumCycles()) {
+          dto.setImgCycle(Math.max(dto.getImgCycle(), cycles.get().getExtracted()));
+          dto.setCallCycle(Math.max(dto.getCallCycle(), cycles.get().getCalled()));
+          dto.setScoreCycle(Math.max(dto.getScoreCycle(), cycles.get().getScored()));
+          dto.setMetrics(updateCycles(dto.getMetrics(), dto.getImgCycle(), dto.getNumCycles()));
+          interop_reads.labelValues("incremental").inc();
+          return dto;
+        }
+      }
+    }
+    String json = runInterOp(runDirectory, tz, progressOnly);
+    IlluminaNotificationDto dto = parseInterOp(json, runDirectory, tz);
+    interop_reads.labelValues("full").inc();
+    if (dto.getHealthType() == HealthType.RUNNING) {
+      InterOpProgress progress = new InterOpProgress();
+      progress.update(interOp);
+      runningInterOp.put(runDirectory, new RunningInterOp(json, progress));
+    } else {
+      runningInterOp.remove(runDirectory);
+    }
+    return dto;
+  }
+
+  /**
+   * Update the cycles in the summary chart of the metrics written by runscanner-illumina.
+   *
+   * <p>The other summary values need the InterOp library's calculations, so they are left as they
+   * were at the last full read.
+   */
+  static String updateCycles(String metrics, int extracted, int total) throws IOException {
+    if (metrics == null) {
+      return null;
+    }
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode tree = mapper.readTree(metrics);
+    for (JsonNode metric : tree) {
+      if (metric.path("type").asText().equals("chart")) {
+        for (JsonNode value : metric.path("values")) {
+          if (value.path("name").asText().equals("Cycles") && value.isObject()) {
+            ((ObjectNode) value).put("value", extracted + " / " + total);
+          }
+        }
+      }
+    }
+    return mapper.writeValueAsString(tree);
+  }
+
+  private IlluminaNotificationDto parseInterOp(String json, File runDirectory, TimeZone tz)
+      throws IOException {
+    IlluminaNotificationDto dto =
+        new ObjectMapper()
+            .registerModule(setUpCustomModule(tz))
+            .readValue(json, IlluminaNotificationDto.class);
+    dto.setSequencerFolderPath(runDirectory.getAbsolutePath());
+    return dto;
+  }
+
+  /**
+   * Get the JSON output of runscanner-illumina for a run.
+   *
+   * @param progressOnly if true, only read the data needed for cycle counts and only include a
+   *     summary in the metrics
+   */
+  private String runInterOp(File runDirectory, TimeZone tz, boolean progressOnly)
+      throws IOException {
+    try (MemoryBudget.Reservation reservation =
+        memory == null ? null : memory.reserve(estimateInterOpMemory(runDirectory))) {
+      return workers == null
+          ? startInterOp(runDirectory, tz, progressOnly)
+          : workers.process(runDirectory, tz, progressOnly);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for memory to read run", e);
+    }
+  }
+
+  /**
+   * Estimate how much memory runscanner-illumina will use to read a run.
+   *
+   * <p>The InterOp library loads every record, so this grows with the InterOp files. Since those
+   * are still growing while the run is sequencing, the run's size from RunInfo.xml (lanes × tiles ×
+   * cycles) is also considered.
+   */
+  static long estimateInterOpMemory(File runDirectory) {
+    long interOpBytes = 0;
+    // Some instruments write a directory of InterOp files per cycle
+    try (Stream<Path> files = Files.walk(new File(runDirectory, "InterOp").toPath(), 2)) {
+      interOpBytes =
+          files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+    } catch (IOException | UncheckedIOException e) {
+      log.debug("Cannot measure InterOp files for run: {}", runDirectory, e);
+    }
+    double tileCycles = Double.NaN;
+    File runInfoFile = new File(runDirectory, "RunInfo.xml");
+    if (runInfoFile.canRead()) {
+      Optional<Document> runInfo = RunProcessor.parseXml(runInfoFile);
+      if (runInfo.isPresent()) {
+        try {
+          tileCycles =
+              (Double) RUNINFO_TILE_CYCLES.get().evaluate(runInfo.get(), XPathConstants.NUMBER);
+        } catch (XPathExpressionException e) {
+          log.debug("Cannot count tiles and cycles for run: {}", runDirectory, e);
+        }
+      }
+    }
+    return INTEROP_MEMORY_BASE
+        + Math.max(
+            interOpBytes * INTEROP_MEMORY_PER_FILE_BYTE,
+            Double.isNaN(tileCycles) ? 0 : (long) tileCycles * INTEROP_MEMORY_PER_TILE_CYCLE);
+  }
+
+  /** Run a new runscanner-illumina process to read the InterOp data for a run. */
+  private String startInterOp(File runDirectory, TimeZone tz, boolean progressOnly)
+      throws IOException {
     // Call the C++ program to do the real work and write a notification DTO to
     // standard output. The
     // C++ object has no direct binding to the
     // DTO, so any changes to the DTO must be manually changed in the C++ code.
+    List<String> command = new ArrayList<>(List.of("nice", "runscanner-illumina"));
+    if (progressOnly) {
+      command.add("--progress");
+    }
+    command.add(runDirectory.getAbsolutePath());
     ProcessBuilder builder =
-        new ProcessBuilder("nice", "runscanner-illumina", runDirectory.getAbsolutePath())
-            .directory(runDirectory)
-            .redirectError(Redirect.INHERIT);
+        new ProcessBuilder(command).directory(runDirectory).redirectError(Redirect.INHERIT);
     builder.environment().put("TZ", tz.getID());
     Process process = builder.start();
+    // Reading the output will not notice an interrupt, so kill the child if the run is abandoned
+    Cancellation.onCancel(process::destroyForcibly);
 
-    IlluminaNotificationDto dto;
+    String json;
     int exitcode;
     try (InputStream output = process.getInputStream();
         OutputStream input = process.getOutputStream()) {
-      dto =
-          new ObjectMapper()
-              .registerModule(setUpCustomModule(tz))
-              .readValue(output, IlluminaNotificationDto.class);
-      dto.setSequencerFolderPath(runDirectory.getAbsolutePath());
+      json = new String(output.readAllBytes(), StandardCharsets.UTF_8);
     } finally {
       try {
         exitcode = process.waitFor();
@@ -380,6 +687,15 @@ public final class DefaultIllumina extends RunProcessor {
               .append(runDirectory.getAbsolutePath())
               .toString());
     }
+    return json;
+  }
+
+  @Override
+  public NotificationDto process(File runDirectory, TimeZone tz) throws IOException {
+    // While a run is sequencing, its metrics will be replaced by the next scan, so collect only
+    // what is needed to follow its progress
+    boolean progressOnly = progressWhileRunning && !hasCompletionMarker(runDirectory);
+    IlluminaNotificationDto dto = readInterOp(runDirectory, tz, progressOnly);
 
     // Grab .xml files with information about the run
     final Document runInfo = getXmlDocument(runDirectory, "RunInfo.xml");
@@ -419,8 +735,10 @@ public final class DefaultIllumina extends RunProcessor {
     // The Illumina library can't distinguish between a failed run and one that
     // either finished or
     // is still going. Scan the logs, if
-    // available to determine if the run failed.
+    // available to determine if the run failed. Only lines written since the last scan are read.
     File rtaLogDir = new File(runDirectory, "/Data/RTALogs");
+    LogTail rtaLog = rtaLogs.computeIfAbsent(runDirectory, k -> new LogTail(FAILED_MESSAGE));
+    long rtaLogBytes = rtaLog.getBytesRead();
     Instant failedDate =
         Optional.ofNullable(
                 rtaLogDir.listFiles(
@@ -431,27 +749,28 @@ public final class DefaultIllumina extends RunProcessor {
             .orElseGet(Stream::empty)
             .map(
                 file -> {
-                  try (Scanner scanner = new Scanner(file)) {
-                    String failMessage = scanner.findWithinHorizon(FAILED_MESSAGE, 0);
-                    if (failMessage == null) {
-                      return null;
-                    }
-                    Matcher m = FAILED_MESSAGE.matcher(failMessage);
-                    // Somehow, scanner will return things that don't match, so, we check again
-                    return m.matches()
-                        ? LocalDateTime.parse(m.group(1), FAILED_MESSAGE_DATE_FORMATTER)
-                            .atZone(tz.toZoneId())
-                            .toInstant()
-                        : null;
-                  } catch (FileNotFoundException e) {
+                  try {
+                    return rtaLog
+                        .find(file)
+                        .map(
+                            m ->
+                                LocalDateTime.parse(m.group(1), FAILED_MESSAGE_DATE_FORMATTER)
+                                    .atZone(tz.toZoneId())
+                                    .toInstant())
+                        .orElse(null);
+                  } catch (NoSuchFileException e) {
                     log.error("RTA file vanished before reading", e);
                     return null;
+                  } catch (IOException e) {
+                    log.error("Failed to read RTA file " + file, e);
+                    return null;
                   }
                 })
             .filter(Objects::nonNull)
             .sorted(Instant::compareTo)
             .findFirst()
             .orElse(null);
+    rta_log_scan_bytes.observe(rtaLog.getBytesRead() - rtaLogBytes);
 
     // If we have a date failed, use that as completion date
     if (failedDate != null) {
@@ -518,12 +837,13 @@ public final class DefaultIllumina extends RunProcessor {
           Path baseCallDirectory =
               Paths.get(dto.getSequencerFolderPath(), "Data", "Intensities", "BaseCalls");
           // Check that each lane directory is complete
-          IlluminaNotificationDto finalDto = dto;
           boolean dataCopied =
-              IntStream.rangeClosed(1, dto.getLaneCount()) //
-                  .mapToObj(lane -> String.format("L%03d", lane)) //
-                  .map(baseCallDirectory::resolve) //
-                  .allMatch(laneDir -> isLaneComplete(laneDir, finalDto));
+              baseCalls.isComplete(
+                  runDirectory,
+                  baseCallDirectory,
+                  dto.getLaneCount(),
+                  dto.getNumCycles(),
+                  dto.getBclCount());
           if (!dataCopied) {
             updatedHealth = Optional.of(HealthType.RUNNING);
             completness_method_success.labelValues("dirscan").inc();
@@ -534,8 +854,23 @@ public final class DefaultIllumina extends RunProcessor {
       }
       updatedHealth.ifPresent(dto::setHealthType);
     }
-    if (scanDragen) {
-      dto = ProcessDragen.analyse(runDirectory, dto);
+    // The run has stopped, so this is the last scan and the full metrics are needed
+    if (progressOnly && dto.getHealthType() != HealthType.RUNNING) {
+      dto.setMetrics(
+          parseInterOp(runInterOp(runDirectory, tz, false), runDirectory, tz).getMetrics());
+    }
+    if (dto.getHealthType() != HealthType.RUNNING) {
+      rtaLogs.remove(runDirectory);
+      if (baseCalls != null) {
+        baseCalls.forget(runDirectory);
+      }
+    }
+    if (dragen != null) {
+      dto = dragen.analyse(runDirectory, dto);
+      // A run that is done, including its analysis, is not processed again
+      if (dto.isDone()) {
+        dragen.forget(runDirectory);
+      }
     } else {
       dto.setAnalysisExpected(false);
     }
@@ -651,7 +986,7 @@ public final class DefaultIllumina extends RunProcessor {
     return startDate;
   }
 
-  private static Instant getInstant(Document document, XPathExpression xpath) {
+  private static Instant getInstant(Document document, ThreadLocal<XPathExpression> xpath) {
     try {
       String timestamp = getValueFromXml(document, xpath);
       if (timestamp == null) {
@@ -678,13 +1013,13 @@ public final class DefaultIllumina extends RunProcessor {
     return position;
   }
 
-  private static String getValueFromXml(Node xml, XPathExpression xpath) {
+  private static String getValueFromXml(Node xml, ThreadLocal<XPathExpression> xpath) {
     if (xml == null) {
       return null;
     }
     String value;
     try {
-      value = xpath.evaluate(xml);
+      value = xpath.get().evaluate(xml);
       if (isStringEmptyOrNull(value)) {
         return null;
       } else {
@@ -695,7 +1030,7 @@ public final class DefaultIllumina extends RunProcessor {
     }
   }
 
-  private static String getValueFromXml(Node xml, Collection<XPathExpression> xpaths) {
+  private static String getValueFromXml(Node xml, Collection<ThreadLocal<XPathExpression>> xpaths) {
     return xpaths.stream()
         .map(xpath -> getValueFromXml(xml, xpath))
         .filter(Objects::nonNull)
@@ -703,9 +1038,9 @@ public final class DefaultIllumina extends RunProcessor {
         .orElse(null);
   }
 
-  private static NodeList getNodeListFromXml(Node xml, XPathExpression xpath) {
+  private static NodeList getNodeListFromXml(Node xml, ThreadLocal<XPathExpression> xpath) {
     try {
-      return (NodeList) xpath.evaluate(xml, XPathConstants.NODESET);
+      return (NodeList) xpath.get().evaluate(xml, XPathConstants.NODESET);
     } catch (XPathExpressionException e) {
       throw new IllegalArgumentException("XPath evaluation failed", e);
     }
@@ -741,6 +1076,67 @@ public final class DefaultIllumina extends RunProcessor {
     return PathType.DIRECTORY;
   }
 
+  @Override
+  public OptionalDouble getProgress(NotificationDto dto) {
+    if (dto instanceof IlluminaNotificationDto) {
+      IlluminaNotificationDto illuminaDto = (IlluminaNotificationDto) dto;
+      if (illuminaDto.getNumCycles() > 0) {
+        return OptionalDouble.of(
+            Math.min(1.0, (double) illuminaDto.getCallCycle() / illuminaDto.getNumCycles()));
+      }
+    }
+    return OptionalDouble.empty();
+  }
+
+  @Override
+  public Optional<String> getFingerprint(File runDirectory) throws IOException {
+    // The run directory itself changes when marker files such as CopyComplete.txt appear
+    Fingerprint fingerprint = new Fingerprint().add(runDirectory);
+    for (String fileName : FINGERPRINT_FILES) {
+      fingerprint.add(new File(runDirectory, fileName));
+    }
+    fingerprint
+        .addChildren(new File(runDirectory, "InterOp"))
+        .addChildren(new File(runDirectory, "Data/RTALogs"));
+    if (checkOutput) {
+      File baseCalls = new File(runDirectory, "Data/Intensities/BaseCalls");
+      fingerprint.addChildren(baseCalls);
+      File[] lanes = baseCalls.listFiles(f -> f.isDirectory() && f.getName().startsWith("L"));
+      if (lanes != null) {
+        Arrays.sort(lanes);
+        for (File lane : lanes) {
+          // New BCL files change the cycle directories' modification times
+          fingerprint.addChildren(lane);
+        }
+      }
+    }
+    if (dragen != null) {
+      File analysis = new File(runDirectory, "Analysis");
+      fingerprint.addChildren(analysis);
+      File[] attempts = analysis.listFiles(File::isDirectory);
+      if (attempts != null) {
+        Arrays.sort(attempts);
+        for (File attempt : attempts) {
+          fingerprint
+              .addChildren(attempt)
+              .addChildren(new File(attempt, "Data"))
+              .addChildren(new File(attempt, "Data/BCLConvert/fastq/Reports"))
+              .addChildren(new File(attempt, "Data/BCLConvert/ora_fastq/Reports"))
+              .addChildren(new File(attempt, "Data/Demux"));
+        }
+      }
+    }
+    return Optional.of(fingerprint.build());
+  }
+
+  @Override
+  public boolean isRunMarker(String fileName) {
+    return fileName.equals("CopyComplete.txt")
+        || fileName.equals("RTAComplete.txt")
+        || fileName.equals("RunCompletionStatus.xml")
+        || fileName.startsWith("Basecalling_Netcopy_complete");
+  }
+
   // Extracts all consumables from RunParameters XML.
   private static List<Consumable> extractConsumables(Document runParameters) {
     List<Consumable> consumables = extractNovaSeqConsumables(runParameters);
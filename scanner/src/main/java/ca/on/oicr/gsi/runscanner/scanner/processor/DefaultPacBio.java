@@ -27,9 +27,6 @@ import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpression;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.config.ConnectionConfig;
 import org.apache.hc.client5.http.config.RequestConfig;
@@ -41,15 +38,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
-import org.w3c.dom.Document;
 
 /** Scan PacBio runs from a directory. The address */
 public class DefaultPacBio extends RunProcessor {
 
   /** Extract data from an XML metadata file and put it in the DTO. */
   interface ProcessMetadata {
-    public void accept(Document document, PacBioNotificationDto dto, TimeZone timeZone)
-        throws XPathException;
+    public void accept(XmlExtractor.Values values, PacBioNotificationDto dto, TimeZone timeZone);
   }
 
   /**
@@ -108,6 +103,9 @@ public class DefaultPacBio extends RunProcessor {
 
   private static final Logger log = LoggerFactory.getLogger(DefaultPacBio.class);
 
+  // All the values read from a metadata XML file, which are found in a single pass
+  private static final XmlExtractor METADATA = new XmlExtractor();
+
   /** These are all the things that can be extracted from the PacBio metadata XML file. */
   private static final ProcessMetadata[] METADATA_PROCESSORS =
       new ProcessMetadata[] {
@@ -161,14 +159,14 @@ public class DefaultPacBio extends RunProcessor {
    * Extract a PacBio-formatted string from the metadata file and put the parsed result into the
    * DTO.
    *
-   * @param expression the XPath expression yielding the date
+   * @param expression the path yielding the date
    * @param setter the writer for the date
    */
   private static ProcessMetadata processDate(
       String expression, BiConsumer<PacBioNotificationDto, Instant> setter) {
-    XPathExpression expr = RunProcessor.compileXPath(expression)[0];
-    return (document, dto, timeZone) -> {
-      String result = (String) expr.evaluate(document, XPathConstants.STRING);
+    XmlExtractor.Path path = METADATA.compile(expression);
+    return (values, dto, timeZone) -> {
+      String result = values.get(path);
       if (result != null) {
         setter.accept(
             dto,
@@ -181,19 +179,14 @@ public class DefaultPacBio extends RunProcessor {
   /**
    * Extract a number from the metadata file and put the result into the DTO.
    *
-   * @param expression the XPath expression yielding the number
+   * @param expression the path yielding the number
    * @param setter the writer for the number
    * @return
    */
   private static ProcessMetadata processNumber(
       String expression, BiConsumer<PacBioNotificationDto, Double> setter) {
-    XPathExpression expr = RunProcessor.compileXPath(expression)[0];
-    return (document, dto, timeZone) -> {
-      Double result = (Double) expr.evaluate(document, XPathConstants.NUMBER);
-      if (result != null) {
-        setter.accept(dto, result);
-      }
-    };
+    XmlExtractor.Path path = METADATA.compile(expression);
+    return (values, dto, timeZone) -> setter.accept(dto, values.getNumber(path));
   }
 
   /**
@@ -202,10 +195,11 @@ public class DefaultPacBio extends RunProcessor {
    * @return
    */
   private static ProcessMetadata processSampleInformation() {
-    XPathExpression[] expr = RunProcessor.compileXPath("//Sample/WellName", "//Sample/Name");
-    return (document, dto, timeZone) -> {
-      String well = (String) expr[0].evaluate(document, XPathConstants.STRING);
-      String name = (String) expr[1].evaluate(document, XPathConstants.STRING);
+    XmlExtractor.Path wellName = METADATA.compile("//Sample/WellName");
+    XmlExtractor.Path sampleName = METADATA.compile("//Sample/Name");
+    return (values, dto, timeZone) -> {
+      String well = values.get(wellName);
+      String name = values.get(sampleName);
       if (isStringBlankOrNull(name) || isStringBlankOrNull(well)) {
         return;
       }
@@ -233,15 +227,15 @@ public class DefaultPacBio extends RunProcessor {
   /**
    * Extract a string expression from the metadata file and write it into the DTO.
    *
-   * @param expression the XPath expression yielding the string
+   * @param expression the path yielding the string
    * @param setter writer for the string
    * @return
    */
   private static ProcessMetadata processString(
       String expression, BiConsumer<PacBioNotificationDto, String> setter) {
-    XPathExpression expr = RunProcessor.compileXPath(expression)[0];
-    return (document, dto, timeZone) -> {
-      String result = (String) expr.evaluate(document, XPathConstants.STRING);
+    XmlExtractor.Path path = METADATA.compile(expression);
+    return (values, dto, timeZone) -> {
+      String result = values.get(path);
       if (result != null) {
         setter.accept(dto, result);
       }
@@ -257,8 +251,12 @@ public class DefaultPacBio extends RunProcessor {
 
   @Override
   public Stream<File> getRunsFromRoot(File root) {
-    return Arrays.stream(
-        root.listFiles(f -> f.isDirectory() && RUN_DIRECTORY.matcher(f.getName()).matches()));
+    return Arrays.stream(root.listFiles(this::isRunDirectory));
+  }
+
+  @Override
+  protected boolean isRunDirectory(File directory) {
+    return directory.isDirectory() && RUN_DIRECTORY.matcher(directory.getName()).matches();
   }
 
   protected String getSampleSheet(String url) {
@@ -289,7 +287,7 @@ public class DefaultPacBio extends RunProcessor {
             cellDirectory ->
                 Arrays.stream(
                     cellDirectory.listFiles(file -> file.getName().endsWith(".metadata.xml"))))
-        .map(RunProcessor::parseXml)
+        .map(METADATA::extract)
         .filter(Optional::isPresent)
         .forEach(metadata -> processMetadata(metadata.get(), dto, tz));
 
@@ -362,16 +360,13 @@ public class DefaultPacBio extends RunProcessor {
   /**
    * Parse a metadata XML file and put all the relevant data into the DTO.
    *
-   * @param metadata the path to the XML file
+   * @param metadata the values read from the XML file
    * @param dto the DTO to update
    */
-  private void processMetadata(Document metadata, PacBioNotificationDto dto, TimeZone timeZone) {
+  private void processMetadata(
+      XmlExtractor.Values metadata, PacBioNotificationDto dto, TimeZone timeZone) {
     for (ProcessMetadata processor : METADATA_PROCESSORS) {
-      try {
-        processor.accept(metadata, dto, timeZone);
-      } catch (XPathException e) {
-        log.error("Failed to extract metadata", e);
-      }
+      processor.accept(metadata, dto, timeZone);
     }
   }
 
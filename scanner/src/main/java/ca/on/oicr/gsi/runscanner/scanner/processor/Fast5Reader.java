@@ -0,0 +1,145 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import ch.systemsx.cisd.hdf5.HDF5FactoryProvider;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads FAST5 files one at a time on a single thread.
+ *
+ * <p>JHDF5 is <b>not thread-safe</b> and will start using read names from other files if two files
+ * are open at once, even from different processors. Every HDF5 read in the JVM is queued here, so
+ * the rest of the work on Oxford Nanopore runs can be done concurrently.
+ *
+ * <p>Time spent waiting for a turn does not count against a run's deadline. If a run is cancelled
+ * while its read is in progress, the reader's thread is interrupted and, since a read stuck in
+ * JHDF5 may not notice, abandoned: a new thread takes over the reads still waiting, so one hung
+ * file cannot hold up every other run.
+ */
+final class Fast5Reader {
+  /** Something to read from an open FAST5 file */
+  public interface Action<T> {
+    T apply(IHDF5Reader reader) throws IOException;
+  }
+
+  private static final Counter abandoned =
+      Counter.builder()
+          .name("miso_runscanner_oxfordnanopore_hdf5_abandoned")
+          .help(
+              "The number of HDF5 reads that were still in progress when their run was cancelled, whose thread was replaced.")
+          .register();
+
+  // Replaced when a read in progress is abandoned; only changed while synchronized on the class
+  private static ThreadPoolExecutor executor = createExecutor();
+
+  private static final Histogram wait_time =
+      Histogram.builder()
+          .classicUpperBounds(0.01, 0.1, 1, 5, 10, 30, 60, 300)
+          .name("miso_runscanner_oxfordnanopore_hdf5_wait_time")
+          .help("The time in seconds an Oxford Nanopore run waited for its turn to read HDF5.")
+          .register();
+
+  private static ThreadPoolExecutor createExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "fast5-reader");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Open a FAST5 file and act on it, once no other FAST5 file is being read.
+   *
+   * @param file the FAST5 file to open
+   * @param action what to read from the file; it is run on the reader's thread
+   * @return the result of the action
+   */
+  public static <T> T read(File file, Action<T> action) throws IOException {
+    return run(
+        file,
+        () -> {
+          try (IHDF5Reader reader = HDF5FactoryProvider.get().openForReading(file)) {
+            return action.apply(reader);
+          }
+        });
+  }
+
+  /**
+   * Run a task on the reader's thread once every task before it is done.
+   *
+   * @param file the file the task reads, for error messages
+   * @param task the task to run
+   * @return the result of the task
+   */
+  static <T> T run(File file, Callable<T> task) throws IOException {
+    long submitted = System.nanoTime();
+    CountDownLatch started = new CountDownLatch(1);
+    FutureTask<T> result =
+        new FutureTask<>(
+            () -> {
+              started.countDown();
+              wait_time.observe((System.nanoTime() - submitted) / 1e9);
+              return task.call();
+            });
+    ThreadPoolExecutor owner;
+    synchronized (Fast5Reader.class) {
+      owner = executor;
+      owner.execute(result);
+    }
+    try {
+      try (Cancellation.Pause pause = Cancellation.pause()) {
+        started.await();
+      }
+      return result.get();
+    } catch (InterruptedException e) {
+      // Don't start the read if it hasn't, and give up on it if it has
+      if (result.cancel(true) && started.getCount() == 0) {
+        abandon(owner);
+      }
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to read " + file, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioe) {
+        throw ioe;
+      }
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Replace the reader's thread, moving the reads still waiting for it to the new one */
+  private static synchronized void abandon(ThreadPoolExecutor owner) {
+    if (executor != owner) {
+      return;
+    }
+    abandoned.inc();
+    executor = createExecutor();
+    for (Runnable waiting : owner.shutdownNow()) {
+      executor.execute(waiting);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * A digest of the names, sizes, and modification times of the files a processor reads for a run.
+ *
+ * <p>This is built from file metadata alone, so it is much cheaper than processing the run. If two
+ * fingerprints for a run are equal, the files that were included have not changed in between.
+ * Adding a directory only notices entries being added, removed, or renamed; to notice files inside
+ * it being modified, use {@link #addChildren(File)}.
+ */
+public final class Fingerprint {
+  private final MessageDigest digest;
+
+  public Fingerprint() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required by the JVM specification", e);
+    }
+  }
+
+  /**
+   * Include a file or directory. Whether it exists is included, so it may be missing.
+   *
+   * @param file the file to include
+   */
+  public Fingerprint add(File file) throws IOException {
+    digest.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+    try {
+      BasicFileAttributes attributes =
+          Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      digest.update(
+          String.format(
+                  ":%d:%d;",
+                  attributes.lastModifiedTime().toMillis(),
+                  attributes.isDirectory() ? 0 : attributes.size())
+              .getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchFileException e) {
+      digest.update(":missing;".getBytes(StandardCharsets.UTF_8));
+    }
+    return this;
+  }
+
+  /**
+   * Include a directory and every entry directly inside it, but not the contents of any
+   * subdirectories.
+   *
+   * @param directory the directory to include; it may be missing
+   */
+  public Fingerprint addChildren(File directory) throws IOException {
+    add(directory);
+    File[] children = directory.listFiles();
+    if (children != null) {
+      Arrays.sort(children);
+      for (File child : children) {
+        add(child);
+      }
+    }
+    return this;
+  }
+
+  /** Get the fingerprint of everything included so far */
+  public String build() {
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
@@ -0,0 +1,215 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import io.prometheus.metrics.core.metrics.Counter;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A fixed number of long-lived <code>runscanner-illumina --daemon</code> processes that read
+ * InterOp data for runs on request.
+ *
+ * <p>This avoids starting a process and initialising the InterOp library for every run. A worker
+ * that crashes, times out, or gets out of step with its requests is killed and replaced on the next
+ * request.
+ */
+final class IlluminaWorkerPool {
+  private final class Worker {
+    private InputStream output;
+    private Process process;
+    private OutputStream input;
+    private boolean started;
+
+    private synchronized void kill() {
+      if (process != null) {
+        destroy(process);
+        process = null;
+      }
+    }
+
+    private String request(File runDirectory, TimeZone tz, boolean progressOnly)
+        throws IOException {
+      Process current;
+      synchronized (this) {
+        if (process == null || !process.isAlive()) {
+          if (started) {
+            restarts.inc();
+          }
+          started = true;
+          process = new ProcessBuilder(command).redirectError(Redirect.INHERIT).start();
+          input = process.getOutputStream();
+          output = new BufferedInputStream(process.getInputStream());
+        }
+        current = process;
+      }
+      // Killing the worker unblocks the read below
+      AtomicBoolean timedOut = new AtomicBoolean();
+      ScheduledFuture<?> deadline =
+          timer.schedule(
+              () -> {
+                timedOut.set(true);
+                destroy(current);
+              },
+              timeout.toMillis(),
+              TimeUnit.MILLISECONDS);
+      Cancellation.onCancel(() -> destroy(current));
+      int exitcode;
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      try {
+        input.write(
+            (tz.getID()
+                    + (progressOnly ? "\tprogress\t" : "\t")
+                    + runDirectory.getAbsolutePath()
+                    + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        input.flush();
+        // The response is a series of chunks, each preceded by its length, and then the exit code
+        while (true) {
+          String[] header = readLine().split(" ");
+          int length = Integer.parseInt(header[0]);
+          if (length == 0 && header.length == 2) {
+            exitcode = Integer.parseInt(header[1]);
+            break;
+          }
+          if (length <= 0 || header.length != 1) {
+            throw new IOException("Malformed response from Illumina run processor");
+          }
+          byte[] chunk = output.readNBytes(length);
+          if (chunk.length != length) {
+            throw new IOException("Illumina run processor stopped while writing a response");
+          }
+          body.write(chunk);
+        }
+      } catch (IOException | NumberFormatException e) {
+        // The worker may be partway through a response, so it can't be used again
+        kill();
+        if (timedOut.get()) {
+          throw new IOException(
+              String.format(
+                  "Illumina run processor took longer than %d seconds for run: %s",
+                  timeout.toSeconds(), runDirectory.getAbsolutePath()),
+              e);
+        }
+        throw e instanceof IOException ? (IOException) e : new IOException(e);
+      } finally {
+        deadline.cancel(false);
+      }
+      // The worker completed the response, so it can be used again even if the run failed, though
+      // whatever it wrote before failing is incomplete
+      if (exitcode != 0) {
+        throw new IOException(
+            String.format(
+                "Illumina run processor failed with code %d for run: %s",
+                exitcode, runDirectory.getAbsolutePath()));
+      }
+      return body.toString(StandardCharsets.UTF_8);
+    }
+
+    private String readLine() throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = output.read()) != '\n') {
+        if (b == -1) {
+          throw new IOException("Illumina run processor exited unexpectedly");
+        }
+        line.write(b);
+      }
+      return line.toString(StandardCharsets.UTF_8);
+    }
+  }
+
+  private static final Counter restarts =
+      Counter.builder()
+          .name("miso_runscanner_illumina_worker_restarts")
+          .help("The number of Illumina run processor workers restarted after stopping.")
+          .register();
+
+  private static final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "illumina-worker-timeout");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** Kill a worker and anything it started, which may be holding its output open */
+  private static void destroy(Process process) {
+    process.descendants().forEach(ProcessHandle::destroyForcibly);
+    process.destroyForcibly();
+  }
+
+  private volatile boolean closed;
+  private final List<String> command;
+  private final Duration timeout;
+  private final BlockingQueue<Worker> workers;
+
+  /**
+   * Create a new pool. Processes are started when they are first needed.
+   *
+   * @param size the number of processes
+   * @param timeout the longest a process may take for one run before it is killed
+   */
+  public IlluminaWorkerPool(int size, Duration timeout) {
+    this(List.of("nice", "runscanner-illumina", "--daemon"), size, timeout);
+  }
+
+  IlluminaWorkerPool(List<String> command, int size, Duration timeout) {
+    this.command = command;
+    this.timeout = timeout;
+    workers = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      workers.add(new Worker());
+    }
+  }
+
+  /**
+   * Stop all idle processes. Runs still using the pool will have their processes stopped once they
+   * finish.
+   */
+  public void close() {
+    closed = true;
+    for (Worker worker : workers) {
+      worker.kill();
+    }
+  }
+
+  /**
+   * Read the InterOp data for a run, waiting for a free process if necessary.
+   *
+   * @param progressOnly if true, read the run as with <code>runscanner-illumina --progress</code>
+   * @return the JSON output of <code>runscanner-illumina</code>
+   */
+  public String process(File runDirectory, TimeZone tz, boolean progressOnly) throws IOException {
+    Worker worker;
+    // Waiting for a free process doesn't count against the run's processing deadline
+    try (Cancellation.Pause pause = Cancellation.pause()) {
+      worker = workers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for an Illumina run processor", e);
+    }
+    try {
+      return worker.request(runDirectory, tz, progressOnly);
+    } finally {
+      if (closed) {
+        worker.kill();
+      }
+      workers.add(worker);
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks how many cycles of an Illumina run have been extracted, called, and scored by reading only
+ * the records appended to its InterOp files since the last check.
+ *
+ * <p>InterOp metric files are a short header followed by fixed-size records, each beginning with
+ * the lane, tile, and cycle it describes. A cycle is counted once every tile seen so far has
+ * reached it, as the InterOp library does. Only the formats written by current sequencers are
+ * understood; if a file is in any other format or a record does not look sensible, no progress is
+ * reported and the run should be read in full by <code>runscanner-illumina</code>.
+ *
+ * <p>Older sequencers append to one file per metric in the InterOp directory. Newer sequencers
+ * (e.g., NovaSeq X) write a directory per cycle (<code>C1.1</code>, <code>C2.1</code>, ...) with a
+ * file per metric in each. A cycle directory's file for a metric is read until the same metric
+ * appears in a later cycle's directory; after that, it is never opened again.
+ */
+final class InterOpProgress {
+  /** The number of cycles each stage of processing has completed on every tile */
+  public static final class Cycles {
+    private final int called;
+    private final int extracted;
+    private final int scored;
+
+    private Cycles(int extracted, int called, int scored) {
+      this.extracted = extracted;
+      this.called = called;
+      this.scored = scored;
+    }
+
+    public int getCalled() {
+      return called;
+    }
+
+    public int getExtracted() {
+      return extracted;
+    }
+
+    public int getScored() {
+      return scored;
+    }
+  }
+
+  /** Where records start and how wide the tile number is, as determined from the file header */
+  private static final class Layout {
+    private final int headerLength;
+    private final int recordSize;
+    private final int tileWidth;
+
+    private Layout(int headerLength, int recordSize, int tileWidth) {
+      this.headerLength = headerLength;
+      this.recordSize = recordSize;
+      this.tileWidth = tileWidth;
+    }
+  }
+
+  private interface LayoutReader {
+    /**
+     * Determine the layout from the start of the file.
+     *
+     * @return the layout, or null if the version is not supported or the header is incomplete
+     */
+    Layout read(ByteBuffer header);
+  }
+
+  /** One metric, which may be spread over a file per cycle */
+  private static final class Metric {
+    // The cycle directories that will not be written to again for this metric
+    private final Set<File> consumed = new HashSet<>();
+    private final Map<File, MetricFile> files = new HashMap<>();
+    private final LayoutReader layoutReader;
+    private final String name;
+    private final Map<Long, Integer> tileCycles = new HashMap<>();
+    // Set if a file is in a format that is not understood, so nothing is read again
+    private boolean unsupported;
+
+    private Metric(String name, LayoutReader layoutReader) {
+      this.name = name;
+      this.layoutReader = layoutReader;
+    }
+
+    /**
+     * Read any new records from the top-level file and the cycle directories not yet consumed.
+     *
+     * @param cycleDirectories the run's cycle directories, in cycle order
+     * @return the number of cycles completed on every tile, or -1 if the metric cannot be read
+     */
+    private int update(File interOp, List<File> cycleDirectories) throws IOException {
+      if (!unsupported) {
+        read(new File(interOp, name));
+      }
+      List<File> unconsumed = new ArrayList<>();
+      for (File cycleDirectory : cycleDirectories) {
+        if (unsupported) {
+          return -1;
+        }
+        if (consumed.contains(cycleDirectory)) {
+          continue;
+        }
+        if (read(new File(cycleDirectory, name))) {
+          // The sequencer has moved on to a later cycle, so the earlier ones are finished
+          for (File earlier : unconsumed) {
+            consumed.add(earlier);
+            files.remove(new File(earlier, name));
+          }
+          unconsumed.clear();
+        }
+        unconsumed.add(cycleDirectory);
+      }
+      if (unsupported || (files.isEmpty() && consumed.isEmpty() && cycleDirectories.isEmpty())) {
+        return -1;
+      }
+      // A metric that has not been written for any cycle yet has no cycles completed
+      return tileCycles.values().stream().mapToInt(Integer::intValue).min().orElse(0);
+    }
+
+    /**
+     * Read any new records from one file.
+     *
+     * @return false if the file does not exist
+     */
+    private boolean read(File file) throws IOException {
+      MetricFile metricFile = files.get(file);
+      if (metricFile == null) {
+        if (!file.exists()) {
+          return false;
+        }
+        metricFile = new MetricFile();
+        files.put(file, metricFile);
+      }
+      if (!metricFile.update(file, this)) {
+        unsupported = true;
+      }
+      return true;
+    }
+  }
+
+  /** How far a single metric file has been read */
+  private static final class MetricFile {
+    private Layout layout;
+    private long offset;
+
+    /**
+     * Read any new records.
+     *
+     * @return false if the file is in a format that is not understood
+     */
+    private boolean update(File file, Metric metric) throws IOException {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (layout == null || size < offset) {
+          // New, or rewritten from the start
+          ByteBuffer header = ByteBuffer.allocate(MAX_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+          channel.read(header, 0);
+          header.flip();
+          layout = metric.layoutReader.read(header);
+          if (layout == null) {
+            return false;
+          }
+          offset = layout.headerLength;
+        }
+        long records = (size - offset) / layout.recordSize;
+        ByteBuffer buffer =
+            ByteBuffer.allocate(layout.recordSize * RECORDS_PER_READ)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        while (records > 0) {
+          int count = (int) Math.min(records, RECORDS_PER_READ);
+          buffer.clear().limit(count * layout.recordSize);
+          while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+              // Truncated while being read; try again next time
+              return true;
+            }
+          }
+          for (int i = 0; i < count; i++) {
+            int base = i * layout.recordSize;
+            int lane = Short.toUnsignedInt(buffer.getShort(base));
+            long tile =
+                layout.tileWidth == 4
+                    ? Integer.toUnsignedLong(buffer.getInt(base + 2))
+                    : Short.toUnsignedInt(buffer.getShort(base + 2));
+            int cycle = Short.toUnsignedInt(buffer.getShort(base + 2 + layout.tileWidth));
+            if (lane < 1 || lane > MAX_LANE || cycle < 1 || cycle > MAX_CYCLE) {
+              return false;
+            }
+            metric.tileCycles.merge((((long) lane) << 32) | tile, cycle, Math::max);
+          }
+          offset += (long) count * layout.recordSize;
+          records -= count;
+        }
+      } catch (NoSuchFileException e) {
+        // Removed since it was found; the records already read still count
+      }
+      return true;
+    }
+  }
+
+  private static final Pattern CYCLE_DIRECTORY = Pattern.compile("C(\\d+)\\.1");
+
+  private static final int MAX_CYCLE = 2000;
+  private static final int MAX_HEADER = 256;
+  private static final int MAX_LANE = 8;
+  private static final int RECORDS_PER_READ = 4096;
+
+  private static int cycleOf(File cycleDirectory) {
+    Matcher matcher = CYCLE_DIRECTORY.matcher(cycleDirectory.getName());
+    return matcher.matches() ? Integer.parseInt(matcher.group(1)) : 0;
+  }
+
+  private static Layout qualityLayout(ByteBuffer header) {
+    if (header.remaining() < 2) {
+      return null;
+    }
+    int version = Byte.toUnsignedInt(header.get(0));
+    int recordSize = Byte.toUnsignedInt(header.get(1));
+    switch (version) {
+      case 4:
+        return new Layout(2, recordSize, 2);
+      case 5:
+      case 6:
+      case 7:
+        if (header.remaining() < 3) {
+          return null;
+        }
+        int headerLength = 3;
+        if (header.get(2) != 0) {
+          if (header.remaining() < 4) {
+            return null;
+          }
+          // Bin count, then the lower bound, upper bound, and value of each bin
+          headerLength += 1 + 3 * Byte.toUnsignedInt(header.get(3));
+        }
+        return new Layout(headerLength, recordSize, version == 7 ? 4 : 2);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * The layout of files that have a two-byte header (version and record size) and 16-bit tile
+   * numbers until a version that adds the channel count to the header and widens tile numbers to 32
+   * bits
+   */
+  private static LayoutReader simpleLayout(int firstVersion, int wideVersion) {
+    return header -> {
+      if (header.remaining() < 3) {
+        return null;
+      }
+      int version = Byte.toUnsignedInt(header.get(0));
+      int recordSize = Byte.toUnsignedInt(header.get(1));
+      if (version < firstVersion || version > wideVersion || recordSize == 0) {
+        return null;
+      }
+      return version == wideVersion ? new Layout(3, recordSize, 4) : new Layout(2, recordSize, 2);
+    };
+  }
+
+  private final Metric called = new Metric("CorrectedIntMetricsOut.bin", simpleLayout(2, 4));
+  private final Metric extracted = new Metric("ExtractionMetricsOut.bin", simpleLayout(2, 3));
+  private final Metric scored = new Metric("QMetricsOut.bin", InterOpProgress::qualityLayout);
+
+  /**
+   * Read any records appended since the last update.
+   *
+   * @param interOp the run's InterOp directory
+   * @return the cycles completed, if all the files could be read
+   */
+  public synchronized Optional<Cycles> update(File interOp) throws IOException {
+    File[] children = interOp.listFiles(File::isDirectory);
+    List<File> cycleDirectories =
+        children == null
+            ? List.of()
+            : Arrays.stream(children)
+                .filter(child -> CYCLE_DIRECTORY.matcher(child.getName()).matches())
+                .sorted(Comparator.comparingInt(InterOpProgress::cycleOf))
+                .collect(Collectors.toList());
+    int extractedCycles = extracted.update(interOp, cycleDirectories);
+    int calledCycles = called.update(interOp, cycleDirectories);
+    int scoredCycles = scored.update(interOp, cycleDirectories);
+    if (extractedCycles < 0 || calledCycles < 0 || scoredCycles < 0) {
+      return Optional.empty();
+    }
+    return Optional.of(new Cycles(extractedCycles, calledCycles, scoredCycles));
+  }
+}
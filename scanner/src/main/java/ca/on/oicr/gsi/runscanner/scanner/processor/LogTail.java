@@ -0,0 +1,110 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches log files that are still being written for the first line matching a pattern, reading
+ * only what has been appended since the last search.
+ *
+ * <p>The position reached in each file is remembered, so checking a growing log repeatedly reads it
+ * only once in total. If a file shrinks or is replaced, it is read again from the start. Once a
+ * file has a match, it is not read again. Logs are assumed to be ASCII.
+ */
+final class LogTail {
+  private static final class Position {
+    private Object fileKey;
+    private MatchResult match;
+    private long offset;
+  }
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private long bytesRead;
+  private final Pattern pattern;
+  private final Map<File, Position> positions = new HashMap<>();
+
+  public LogTail(Pattern pattern) {
+    this.pattern = pattern;
+  }
+
+  /**
+   * Find the first line in a file that matches the pattern.
+   *
+   * @param file the log file to search
+   * @return the match in the first matching line, if any
+   * @throws NoSuchFileException if the file has been deleted
+   */
+  public synchronized Optional<MatchResult> find(File file) throws IOException {
+    Position position = positions.computeIfAbsent(file, f -> new Position());
+    if (position.match != null) {
+      return Optional.of(position.match);
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      Object fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+      long size = channel.size();
+      if (size < position.offset || !Objects.equals(fileKey, position.fileKey)) {
+        // Truncated or replaced, so start over
+        position.fileKey = fileKey;
+        position.offset = 0;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      StringBuilder line = new StringBuilder();
+      long read = position.offset;
+      while (read < size) {
+        buffer.clear();
+        int count = channel.read(buffer, read);
+        if (count < 0) {
+          break;
+        }
+        bytesRead += count;
+        for (int i = 0; i < count; i++) {
+          byte b = buffer.get(i);
+          if (b == '\n') {
+            if (match(position, line)) {
+              return Optional.of(position.match);
+            }
+            line.setLength(0);
+            position.offset = read + i + 1;
+          } else {
+            line.append((char) (b & 0xFF));
+          }
+        }
+        read += count;
+      }
+      // The last line may not be finished, so it is checked now but read again next time
+      match(position, line);
+      return Optional.ofNullable(position.match);
+    } catch (NoSuchFileException e) {
+      positions.remove(file);
+      throw e;
+    }
+  }
+
+  /** The total number of bytes read from all files */
+  public synchronized long getBytesRead() {
+    return bytesRead;
+  }
+
+  private boolean match(Position position, CharSequence line) {
+    Matcher matcher = pattern.matcher(line);
+    if (matcher.find()) {
+      position.match = matcher.toMatchResult();
+      return true;
+    }
+    return false;
+  }
+}
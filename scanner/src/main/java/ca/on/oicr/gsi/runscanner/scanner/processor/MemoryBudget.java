@@ -0,0 +1,118 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import io.prometheus.metrics.core.metrics.Gauge;
+import io.prometheus.metrics.core.metrics.Histogram;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An amount of memory shared by the processes reading runs at the same time.
+ *
+ * <p>A run is only read once its estimated memory fits in what is left of the budget. A run that
+ * needs more than the whole budget is read when nothing else is. Runs waiting for memory don't hold
+ * back smaller runs that still fit, so a large run waits until enough of the budget is free at
+ * once.
+ */
+final class MemoryBudget {
+  /** Memory set aside for one run, which is given back when closed */
+  public final class Reservation implements AutoCloseable {
+    private final long bytes;
+    private boolean released;
+
+    private Reservation(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void close() {
+      lock.lock();
+      try {
+        if (!released) {
+          released = true;
+          reserved -= bytes;
+          reserved_bytes.dec(bytes);
+          freed.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private static final Gauge reserved_bytes =
+      Gauge.builder()
+          .name("miso_runscanner_illumina_memory_reserved_bytes")
+          .help("The estimated memory of the Illumina runs being read.")
+          .register();
+
+  private static final Gauge waiting =
+      Gauge.builder()
+          .name("miso_runscanner_illumina_memory_waiting")
+          .help("The number of Illumina runs waiting for memory before they can be read.")
+          .register();
+
+  private static final Histogram wait_time =
+      Histogram.builder()
+          .classicUpperBounds(1, 5, 10, 30, 60, 300, 600, 3600)
+          .name("miso_runscanner_illumina_memory_wait_time")
+          .help("The time in seconds an Illumina run waited for memory before it could be read.")
+          .register();
+
+  // The budgets in use, by size, so that processors configured with the same budget share it
+  private static final Map<Long, MemoryBudget> shared = new ConcurrentHashMap<>();
+
+  /**
+   * Get the budget shared by every processor configured with this size.
+   *
+   * <p>The same budget is returned when a processor is recreated after the configuration is
+   * reloaded, so runs still being read by the old processor count against it.
+   *
+   * @param budget the number of bytes
+   */
+  public static MemoryBudget shared(long budget) {
+    return shared.computeIfAbsent(budget, MemoryBudget::new);
+  }
+
+  private final long budget;
+  private final Condition freed;
+  private final ReentrantLock lock = new ReentrantLock();
+  private long reserved;
+
+  public MemoryBudget(long budget) {
+    this.budget = budget;
+    freed = lock.newCondition();
+  }
+
+  /**
+   * Wait until there is enough memory for a run and set it aside.
+   *
+   * @param bytes the estimated memory needed
+   * @return the reservation, which must be closed once the run has been read
+   */
+  public Reservation reserve(long bytes) throws InterruptedException {
+    long amount = Math.max(0, Math.min(bytes, budget));
+    long start = System.nanoTime();
+    lock.lockInterruptibly();
+    try {
+      if (reserved + amount > budget) {
+        waiting.inc();
+        // Waiting for memory doesn't count against the run's processing deadline
+        try (Cancellation.Pause pause = Cancellation.pause()) {
+          while (reserved + amount > budget) {
+            freed.await();
+          }
+        } finally {
+          waiting.dec();
+        }
+      }
+      reserved += amount;
+      reserved_bytes.inc(amount);
+      wait_time.observe((System.nanoTime() - start) / 1e9);
+      return new Reservation(amount);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package ca.on.oicr.gsi.runscanner.scanner.processor;
 
 import ca.on.oicr.gsi.runscanner.dto.OxfordNanoporeNotificationDto;
-import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.nio.file.Path;
 import java.util.regex.Pattern;
@@ -33,6 +32,8 @@ public class MinionProcessor extends BaseOxfordNanoporeProcessor {
   @Override
   protected Stream<Path> readsDirectoryForRun(Path path) {
     return Stream.of(
+        path.resolve("pod5_pass"),
+        path.resolve("pod5_fail"),
         path.resolve("fast5_pass"),
         path.resolve("fastq_pass"),
         path.resolve("fast5_fail"),
@@ -44,11 +45,8 @@ public class MinionProcessor extends BaseOxfordNanoporeProcessor {
   }
 
   @Override
-  protected void additionalProcess(OxfordNanoporeNotificationDto onnd, IHDF5Reader reader) {
-    if (reader.hasAttribute(trackingId, "device_id")) {
-      String deviceId = reader.string().getAttr(trackingId, "device_id");
-      if (!(deviceId.equals(""))) onnd.setSequencerName(deviceId);
-    }
+  protected void additionalProcess(OxfordNanoporeNotificationDto onnd, RunAttributes attributes) {
+    attributes.trackingId("device_id").ifPresent(onnd::setSequencerName);
   }
 
   public static RunProcessor create(Builder builder, ObjectNode jsonNodes) {
@@ -0,0 +1,119 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import ca.on.oicr.gsi.runscanner.scanner.processor.BaseOxfordNanoporeProcessor.RunAttributes;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Reads run metadata from the report_*.json file MinKNOW writes in a run directory.
+ *
+ * <p>The report is read as a stream and only the few fields needed are kept, skipping the read
+ * length histograms and other graphs that make up most of the file. The fields are given the names
+ * of the FAST5 tracking_id and context_tags attributes they replace.
+ */
+final class MinknowReport {
+  private static final JsonFactory JSON = new JsonFactory();
+
+  // FAST5 tracking_id attribute, by report field
+  private static final Map<String, String> TRACKING_ID =
+      Map.of(
+          "protocol_run_info.flow_cell.flow_cell_id", "flow_cell_id",
+          "protocol_run_info.flow_cell.user_specified_flow_cell_id", "flow_cell_id",
+          "protocol_run_info.flow_cell.product_code", "flow_cell_product_code",
+          "protocol_run_info.flow_cell.user_specified_product_code", "flow_cell_product_code",
+          "protocol_run_info.start_time", "exp_start_time",
+          "protocol_run_info.software_versions.minknow.full", "version",
+          "protocol_run_info.software_versions.protocol_configuration", "protocols_version",
+          "protocol_run_info.device.device_id", "device_id",
+          "host.serial", "hostname");
+  // FAST5 context_tags attribute, by report field
+  private static final Map<String, String> CONTEXT_TAGS =
+      Map.of("protocol_run_info.meta_info.tags.kit.string_value", "sequencing_kit");
+  // FAST5 stores these in lower case, so the report's values are converted to match
+  private static final Set<String> LOWER_CASE = Set.of("flow_cell_product_code", "sequencing_kit");
+  // Every object that contains a wanted field; everything else is skipped
+  private static final Set<String> OBJECTS = new HashSet<>();
+
+  static {
+    for (String field : TRACKING_ID.keySet()) {
+      addObjects(field);
+    }
+    for (String field : CONTEXT_TAGS.keySet()) {
+      addObjects(field);
+    }
+  }
+
+  private static void addObjects(String field) {
+    for (int i = field.indexOf('.'); i != -1; i = field.indexOf('.', i + 1)) {
+      OBJECTS.add(field.substring(0, i));
+    }
+  }
+
+  /**
+   * Read the metadata from a report.
+   *
+   * @param file the report_*.json file
+   * @return the metadata, or empty if the report does not identify the flow cell
+   */
+  public static Optional<RunAttributes> read(File file) throws IOException {
+    Map<String, String> fields = new HashMap<>();
+    try (JsonParser parser = JSON.createParser(file)) {
+      if (parser.nextToken() == JsonToken.START_OBJECT) {
+        readObject(parser, "", fields);
+      }
+    }
+    Map<String, String> trackingId = attributes(TRACKING_ID, fields);
+    if (!trackingId.containsKey("flow_cell_id")) {
+      return Optional.empty();
+    }
+    return Optional.of(new RunAttributes(trackingId, attributes(CONTEXT_TAGS, fields)));
+  }
+
+  private static Map<String, String> attributes(
+      Map<String, String> attributeForField, Map<String, String> fields) {
+    Map<String, String> attributes = new HashMap<>();
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      String attribute = attributeForField.get(field.getKey());
+      if (attribute == null) {
+        continue;
+      }
+      String value =
+          LOWER_CASE.contains(attribute)
+              ? field.getValue().toLowerCase(Locale.ROOT)
+              : field.getValue();
+      // The MinKNOW value is preferred to one the user entered
+      if (!field.getKey().contains(".user_specified_")) {
+        attributes.put(attribute, value);
+      } else {
+        attributes.putIfAbsent(attribute, value);
+      }
+    }
+    return attributes;
+  }
+
+  private static void readObject(JsonParser parser, String object, Map<String, String> fields)
+      throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = object.isEmpty() ? parser.currentName() : object + "." + parser.currentName();
+      JsonToken value = parser.nextToken();
+      if (value == JsonToken.START_OBJECT && OBJECTS.contains(field)) {
+        readObject(parser, field, fields);
+      } else if (value == JsonToken.VALUE_STRING
+          && (TRACKING_ID.containsKey(field) || CONTEXT_TAGS.containsKey(field))
+          && !parser.getText().isEmpty()) {
+        fields.put(field, parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+}
@@ -0,0 +1,403 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import ca.on.oicr.gsi.runscanner.scanner.processor.BaseOxfordNanoporeProcessor.RunAttributes;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the run information from a POD5 file.
+ *
+ * <p>A POD5 file is a set of Apache Arrow IPC files with a footer listing where each one is. Only
+ * the footers and the run information table are mapped into memory, so the signal and read tables
+ * are never read. The run information table has tracking_id and context_tags columns holding the
+ * same attributes as a FAST5 file, and those are read from its first row.
+ *
+ * <p>Nothing is shared between calls, so any number of files can be read at once.
+ */
+final class Pod5Reader {
+  /** A table in a FlatBuffers buffer, which is how POD5 and Arrow store their metadata */
+  private record Table(ByteBuffer buffer, int position) {
+    static Table root(ByteBuffer buffer) {
+      return new Table(buffer, buffer.getInt(0));
+    }
+
+    // The position of a field relative to the table, or 0 if it has the default value
+    private int field(int id) {
+      int vtable = position - buffer.getInt(position);
+      int entry = 4 + 2 * id;
+      return entry < Short.toUnsignedInt(buffer.getShort(vtable))
+          ? Short.toUnsignedInt(buffer.getShort(vtable + entry))
+          : 0;
+    }
+
+    // The position of the object a field refers to, or -1 if it is absent
+    private int reference(int id) {
+      int field = field(id);
+      if (field == 0) {
+        return -1;
+      }
+      int position = this.position + field;
+      return position + buffer.getInt(position);
+    }
+
+    public int getByte(int id) {
+      int field = field(id);
+      return field == 0 ? 0 : Byte.toUnsignedInt(buffer.get(position + field));
+    }
+
+    public short getShort(int id) {
+      int field = field(id);
+      return field == 0 ? 0 : buffer.getShort(position + field);
+    }
+
+    public long getLong(int id) {
+      int field = field(id);
+      return field == 0 ? 0 : buffer.getLong(position + field);
+    }
+
+    public String getString(int id) {
+      int string = reference(id);
+      if (string == -1) {
+        return null;
+      }
+      byte[] bytes = new byte[buffer.getInt(string)];
+      buffer.get(string + 4, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public Table getTable(int id) {
+      int table = reference(id);
+      return table == -1 ? null : new Table(buffer, table);
+    }
+
+    public Table getTable(int id, int index) {
+      int element = vectorStart(id) + 4 * index;
+      return new Table(buffer, element + buffer.getInt(element));
+    }
+
+    public int vectorLength(int id) {
+      int vector = reference(id);
+      return vector == -1 ? 0 : buffer.getInt(vector);
+    }
+
+    // The position of the first element of a vector; structs are stored in place
+    public int vectorStart(int id) {
+      return reference(id) + 4;
+    }
+  }
+
+  /** Walks through the field nodes and buffers of a record batch in schema order */
+  private static final class Columns {
+    private final ByteBuffer body;
+    private final int buffers;
+    private int buffer;
+    private final File file;
+    private final int nodes;
+    private int node;
+    private final Table recordBatch;
+
+    private Columns(File file, Table recordBatch, ByteBuffer body) {
+      this.file = file;
+      this.recordBatch = recordBatch;
+      this.body = body;
+      nodes = recordBatch.vectorLength(RECORD_BATCH_NODES);
+      buffers = recordBatch.vectorLength(RECORD_BATCH_BUFFERS);
+    }
+
+    private int nextBuffer() throws IOException {
+      if (buffer >= buffers) {
+        throw new IOException("Run information has too few buffers in POD5 file: " + file);
+      }
+      return buffer++;
+    }
+
+    private void nextNode() throws IOException {
+      if (node++ >= nodes) {
+        throw new IOException("Run information has too few columns in POD5 file: " + file);
+      }
+    }
+
+    private int bufferOffset(int buffer) throws IOException {
+      long offset =
+          recordBatch.buffer().getLong(recordBatch.vectorStart(RECORD_BATCH_BUFFERS) + 16 * buffer);
+      if (offset < 0 || offset + bufferLength(buffer) > body.limit()) {
+        throw new IOException("Run information buffer is out of bounds in POD5 file: " + file);
+      }
+      return (int) offset;
+    }
+
+    private long bufferLength(int buffer) {
+      return recordBatch
+          .buffer()
+          .getLong(recordBatch.vectorStart(RECORD_BATCH_BUFFERS) + 16 * buffer + 8);
+    }
+
+    private boolean isValid(int validity, int row) throws IOException {
+      // An empty validity buffer means there are no nulls
+      return bufferLength(validity) == 0
+          || (body.get(bufferOffset(validity) + row / 8) & (1 << (row % 8))) != 0;
+    }
+
+    private int getOffset(int offsets, int row) throws IOException {
+      return body.getInt(bufferOffset(offsets) + 4 * row);
+    }
+
+    private String getString(int offsets, int data, int row) throws IOException {
+      int start = getOffset(offsets, row);
+      byte[] bytes = new byte[getOffset(offsets, row + 1) - start];
+      body.get(bufferOffset(data) + start, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Read the first row of a map from strings to strings, leaving out empty values */
+    public Map<String, String> readStringMap() throws IOException {
+      nextNode();
+      int validity = nextBuffer();
+      int offsets = nextBuffer();
+      nextNode(); // Entries
+      nextBuffer();
+      nextNode(); // Keys
+      nextBuffer();
+      int keyOffsets = nextBuffer();
+      int keyData = nextBuffer();
+      nextNode(); // Values
+      int valueValidity = nextBuffer();
+      int valueOffsets = nextBuffer();
+      int valueData = nextBuffer();
+
+      Map<String, String> values = new HashMap<>();
+      if (isValid(validity, 0)) {
+        for (int entry = getOffset(offsets, 0); entry < getOffset(offsets, 1); entry++) {
+          if (isValid(valueValidity, entry)) {
+            String value = getString(valueOffsets, valueData, entry);
+            if (!value.isEmpty()) {
+              values.put(getString(keyOffsets, keyData, entry), value);
+            }
+          }
+        }
+      }
+      return values;
+    }
+
+    /** Move past a column, and any columns nested in it */
+    public void skip(Table field) throws IOException {
+      nextNode();
+      if (field.getTable(FIELD_DICTIONARY) != null) {
+        // Only the indices are in the record batch
+        buffer += 2;
+        return;
+      }
+      int type = field.getByte(FIELD_TYPE_TYPE);
+      buffer +=
+          switch (type) {
+            case TYPE_NULL -> 0;
+            case TYPE_STRUCT, TYPE_FIXED_SIZE_LIST -> 1;
+            case TYPE_BINARY, TYPE_UTF8, TYPE_LARGE_BINARY, TYPE_LARGE_UTF8 -> 3;
+            case TYPE_UNION -> field.getTable(FIELD_TYPE).getShort(0) == UNION_DENSE ? 2 : 1;
+            default -> {
+              if (type > TYPE_LARGE_LIST) {
+                throw new IOException(
+                    "Run information has an unsupported column type in POD5 file: " + file);
+              }
+              yield 2;
+            }
+          };
+      for (int i = 0; i < field.vectorLength(FIELD_CHILDREN); i++) {
+        skip(field.getTable(FIELD_CHILDREN, i));
+      }
+    }
+  }
+
+  private static final byte[] ARROW_MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+  private static final short CONTENT_RUN_INFO_TABLE = 4;
+  // Field IDs in the POD5 and Arrow FlatBuffers schemas
+  private static final int EMBEDDED_FILE_CONTENT_TYPE = 3;
+  private static final int EMBEDDED_FILE_LENGTH = 1;
+  private static final int EMBEDDED_FILE_OFFSET = 0;
+  private static final int FIELD_CHILDREN = 5;
+  private static final int FIELD_DICTIONARY = 4;
+  private static final int FIELD_NAME = 0;
+  private static final int FIELD_TYPE = 3;
+  private static final int FIELD_TYPE_TYPE = 2;
+  private static final int FOOTER_CONTENTS = 3;
+  private static final int FOOTER_RECORD_BATCHES = 3;
+  private static final int FOOTER_SCHEMA = 1;
+  private static final int MESSAGE_HEADER = 2;
+  private static final int MESSAGE_HEADER_TYPE = 1;
+  private static final int MESSAGE_RECORD_BATCH = 3;
+  private static final int RECORD_BATCH_BUFFERS = 2;
+  private static final int RECORD_BATCH_COMPRESSION = 3;
+  private static final int RECORD_BATCH_LENGTH = 0;
+  private static final int RECORD_BATCH_NODES = 1;
+  private static final int SCHEMA_FIELDS = 1;
+  // Arrow type IDs
+  private static final int TYPE_BINARY = 4;
+  private static final int TYPE_FIXED_SIZE_LIST = 16;
+  private static final int TYPE_LARGE_BINARY = 19;
+  private static final int TYPE_LARGE_LIST = 21;
+  private static final int TYPE_LARGE_UTF8 = 20;
+  private static final int TYPE_MAP = 17;
+  private static final int TYPE_NULL = 1;
+  private static final int TYPE_STRUCT = 13;
+  private static final int TYPE_UNION = 14;
+  private static final int TYPE_UTF8 = 5;
+  private static final short UNION_DENSE = 1;
+  private static final byte[] SIGNATURE = {(byte) 0x8B, 'P', 'O', 'D', '\r', '\n', 0x1A, '\n'};
+  // The footer length, section marker and signature at the end of the file
+  private static final int TAIL_LENGTH = 8 + 16 + SIGNATURE.length;
+
+  private static boolean hasBytes(ByteBuffer buffer, int position, byte[] expected) {
+    byte[] actual = new byte[expected.length];
+    buffer.get(position, actual);
+    return Arrays.equals(actual, expected);
+  }
+
+  private static ByteBuffer map(FileChannel channel, long position, long length, File file)
+      throws IOException {
+    if (position < 0
+        || length < 0
+        || length > Integer.MAX_VALUE
+        || position + length > channel.size()) {
+      throw new IOException("Section is out of bounds in POD5 file: " + file);
+    }
+    return channel
+        .map(FileChannel.MapMode.READ_ONLY, position, length)
+        .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Read the run information from a POD5 file
+   *
+   * @param file the POD5 file
+   * @return the tracking_id and context_tags attributes of the first run in the file
+   */
+  public static RunAttributes read(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < SIGNATURE.length + TAIL_LENGTH
+          || !hasBytes(map(channel, 0, SIGNATURE.length, file), 0, SIGNATURE)) {
+        throw new IOException("Not a POD5 file: " + file);
+      }
+      ByteBuffer tail = map(channel, size - TAIL_LENGTH, TAIL_LENGTH, file);
+      if (!hasBytes(tail, TAIL_LENGTH - SIGNATURE.length, SIGNATURE)) {
+        throw new IOException("POD5 file is incomplete: " + file);
+      }
+      long footerLength = tail.getLong(0);
+      Table footer =
+          Table.root(map(channel, size - TAIL_LENGTH - footerLength, footerLength, file));
+      for (int i = 0; i < footer.vectorLength(FOOTER_CONTENTS); i++) {
+        Table embeddedFile = footer.getTable(FOOTER_CONTENTS, i);
+        if (embeddedFile.getShort(EMBEDDED_FILE_CONTENT_TYPE) == CONTENT_RUN_INFO_TABLE) {
+          return readRunInfo(
+              file,
+              map(
+                  channel,
+                  embeddedFile.getLong(EMBEDDED_FILE_OFFSET),
+                  embeddedFile.getLong(EMBEDDED_FILE_LENGTH),
+                  file));
+        }
+      }
+      throw new IOException("No run information in POD5 file: " + file);
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Corrupt POD5 file: " + file, e);
+    }
+  }
+
+  private static RunAttributes readRunInfo(File file, ByteBuffer arrow) throws IOException {
+    int length = arrow.limit();
+    int footerLengthPosition = length - ARROW_MAGIC.length - 4;
+    if (length < 2 * ARROW_MAGIC.length + 4
+        || !hasBytes(arrow, 0, ARROW_MAGIC)
+        || !hasBytes(arrow, length - ARROW_MAGIC.length, ARROW_MAGIC)) {
+      throw new IOException("Run information is not an Arrow file in POD5 file: " + file);
+    }
+    int footerLength = arrow.getInt(footerLengthPosition);
+    Table footer =
+        Table.root(
+            arrow
+                .slice(footerLengthPosition - footerLength, footerLength)
+                .order(ByteOrder.LITTLE_ENDIAN));
+    if (footer.vectorLength(FOOTER_RECORD_BATCHES) == 0) {
+      throw new IOException("No run information in POD5 file: " + file);
+    }
+
+    // Blocks are structs of the message's offset, metadata length, and body length
+    int block = footer.vectorStart(FOOTER_RECORD_BATCHES);
+    int messageStart = (int) footer.buffer().getLong(block);
+    int metadataLength = footer.buffer().getInt(block + 8);
+    long bodyLength = footer.buffer().getLong(block + 16);
+    // Messages start with a continuation marker, except in files from before Arrow 0.15
+    int messageLength = arrow.getInt(messageStart);
+    int messagePosition = messageStart + 4;
+    if (messageLength == -1) {
+      messageLength = arrow.getInt(messagePosition);
+      messagePosition += 4;
+    }
+    Table message =
+        Table.root(arrow.slice(messagePosition, messageLength).order(ByteOrder.LITTLE_ENDIAN));
+    if (message.getByte(MESSAGE_HEADER_TYPE) != MESSAGE_RECORD_BATCH) {
+      throw new IOException("Run information has no record batch in POD5 file: " + file);
+    }
+    Table recordBatch = message.getTable(MESSAGE_HEADER);
+    if (recordBatch.getTable(RECORD_BATCH_COMPRESSION) != null) {
+      throw new IOException("Run information is compressed in POD5 file: " + file);
+    }
+    if (recordBatch.getLong(RECORD_BATCH_LENGTH) == 0) {
+      throw new IOException("No run information in POD5 file: " + file);
+    }
+    Columns columns =
+        new Columns(
+            file,
+            recordBatch,
+            arrow
+                .slice(messageStart + metadataLength, (int) bodyLength)
+                .order(ByteOrder.LITTLE_ENDIAN));
+
+    Map<String, String> trackingId = Map.of();
+    Map<String, String> contextTags = Map.of();
+    Table schema = footer.getTable(FOOTER_SCHEMA);
+    for (int i = 0; i < schema.vectorLength(SCHEMA_FIELDS); i++) {
+      Table field = schema.getTable(SCHEMA_FIELDS, i);
+      String name = field.getString(FIELD_NAME);
+      if (("tracking_id".equals(name) || "context_tags".equals(name)) && isStringMap(field)) {
+        Map<String, String> values = columns.readStringMap();
+        if (name.equals("tracking_id")) {
+          trackingId = values;
+        } else {
+          contextTags = values;
+        }
+      } else {
+        columns.skip(field);
+      }
+    }
+    return new RunAttributes(trackingId, contextTags);
+  }
+
+  private static boolean isStringMap(Table field) {
+    if (field.getByte(FIELD_TYPE_TYPE) != TYPE_MAP
+        || field.getTable(FIELD_DICTIONARY) != null
+        || field.vectorLength(FIELD_CHILDREN) != 1) {
+      return false;
+    }
+    Table entries = field.getTable(FIELD_CHILDREN, 0);
+    if (entries.getByte(FIELD_TYPE_TYPE) != TYPE_STRUCT
+        || entries.vectorLength(FIELD_CHILDREN) != 2) {
+      return false;
+    }
+    for (int i = 0; i < 2; i++) {
+      Table child = entries.getTable(FIELD_CHILDREN, i);
+      if (child.getByte(FIELD_TYPE_TYPE) != TYPE_UTF8 || child.getTable(FIELD_DICTIONARY) != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -14,6 +14,7 @@ import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.TimeZone;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -75,6 +76,10 @@ public abstract class RunProcessor {
 
   private static final Logger log = LoggerFactory.getLogger(RunProcessor.class);
 
+  // Finding the factory implementation is expensive and factories are not thread-safe
+  private static final ThreadLocal<DocumentBuilderFactory> DOCUMENT_BUILDER_FACTORY =
+      ThreadLocal.withInitial(DocumentBuilderFactory::newInstance);
+
   /**
    * Find the builder that matches the requested parameters.
    *
@@ -130,7 +135,7 @@ public abstract class RunProcessor {
   /** Attempt to parse naively, and force parsing using UTF-8 if that doesn't work */
   public static Optional<Document> parseXml(File file) {
     try {
-      return Optional.of(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file));
+      return Optional.of(DOCUMENT_BUILDER_FACTORY.get().newDocumentBuilder().parse(file));
     } catch (SAXException e) {
       log.warn(
           "Not really a UTF-16 parsing exception, forcing UTF-8 parsing for {}", file.getPath());
@@ -140,9 +145,7 @@ public abstract class RunProcessor {
       try (BOMInputStream bomInputStream = new BOMInputStream(new FileInputStream(file));
           Reader reader = new InputStreamReader(bomInputStream, StandardCharsets.UTF_8)) {
         return Optional.of(
-            DocumentBuilderFactory.newInstance()
-                .newDocumentBuilder()
-                .parse(new InputSource(reader)));
+            DOCUMENT_BUILDER_FACTORY.get().newDocumentBuilder().parse(new InputSource(reader)));
       } catch (SAXException | ParserConfigurationException | IOException e2) {
         log.error(
             "Failed to parse XML after forcing UTF-8 encoding for file: {}", file.getPath(), e);
@@ -211,6 +214,41 @@ public abstract class RunProcessor {
    */
   public abstract Stream<File> getRunsFromRoot(File root);
 
+  /**
+   * Provide the runs at or around a path that the directory watcher has reported as new or changed,
+   * without searching the rest of the root.
+   *
+   * <p>By default, runs are the directories immediately under the root accepted by {@link
+   * #isRunDirectory(File)}, so the path is either one of those or nothing. Processors that find
+   * runs nested further down must override this along with {@link #getWatchDepth()}.
+   *
+   * @param root The directory as specified by the user.
+   * @param path the file or directory under the root that changed
+   * @return a stream of directories to process
+   */
+  public Stream<File> getRunsFromDirectory(File root, File path) {
+    return root.equals(path.getParentFile()) && isRunDirectory(path)
+        ? Stream.of(path)
+        : Stream.empty();
+  }
+
+  /**
+   * Get how many levels of directories, starting with the root, must be watched for new entries to
+   * notice new runs. By default, runs are created immediately under the root, so only the root is
+   * watched.
+   */
+  public int getWatchDepth() {
+    return 1;
+  }
+
+  /**
+   * Determine whether an entry immediately under the root is a run directory. This is only used by
+   * processors whose runs are the root's immediate children.
+   */
+  protected boolean isRunDirectory(File directory) {
+    return directory.isDirectory();
+  }
+
   /**
    * Read a run directory and compute a result that can be sent to MISO.
    *
@@ -229,6 +267,60 @@ public abstract class RunProcessor {
    */
   public abstract PathType getPathType();
 
+  /**
+   * Determine how far along a run is, so that a run close to finishing can be scanned again sooner.
+   * No progress is reported by default.
+   *
+   * @param dto a result previously produced by {@link #process(File, TimeZone)}
+   * @return the fraction of the run that is complete, between 0 and 1, if it can be determined
+   */
+  public OptionalDouble getProgress(NotificationDto dto) {
+    return OptionalDouble.empty();
+  }
+
+  /**
+   * Release any resources held by the processor, such as helper processes, once it is no longer
+   * going to be given new runs (e.g., after the configuration is reloaded) and the runs already
+   * queued for it have been processed. Nothing is held by default.
+   */
+  public void close() {}
+
+  /**
+   * Compute a cheap summary of the files {@link #process(File, TimeZone)} reads for a run, so that
+   * a run that has not changed on disk since it was last processed can be skipped. If the
+   * fingerprint is the same as last time, the previous result is reused. No fingerprint is provided
+   * by default, so runs are always processed.
+   *
+   * @param runDirectory the directory to scan (which will be output from {@link
+   *     #getRunsFromRoot(File)}
+   * @return the fingerprint, if the processor's results depend only on files it can fingerprint
+   */
+  public Optional<String> getFingerprint(File runDirectory) throws IOException {
+    return Optional.empty();
+  }
+
+  /**
+   * Get the number of runs this processor can usefully process at once. This is unlimited by
+   * default; processors that serialise access to a shared resource should report how many runs can
+   * proceed so that others are not left waiting on them.
+   */
+  public int getMaximumConcurrency() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Determine whether a file written to the top level of a run directory signals a change in the
+   * run's state (e.g., the sequencer finishing) that makes the run worth processing again
+   * immediately. This is only used when watching directories for changes; no markers are recognised
+   * by default.
+   *
+   * @param fileName the name of the file, without any directory
+   * @return true if the file is a marker
+   */
+  public boolean isRunMarker(String fileName) {
+    return false;
+  }
+
   /**
    * Determine whether a File is readable by the processor.
    *
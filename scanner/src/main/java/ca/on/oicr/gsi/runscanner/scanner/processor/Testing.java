@@ -42,7 +42,7 @@ public class Testing extends RunProcessor {
 
   @Override
   public Stream<File> getRunsFromRoot(File root) {
-    return Arrays.stream(root.listFiles(File::isDirectory));
+    return Arrays.stream(root.listFiles(this::isRunDirectory));
   }
 
   @Override
@@ -5,12 +5,16 @@ import ca.on.oicr.gsi.runscanner.dto.PacBioNotificationDto;
 import ca.on.oicr.gsi.runscanner.dto.PacBioNotificationDto.SMRTCellPosition;
 import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.prometheus.metrics.core.metrics.Histogram;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -19,7 +23,10 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
 import java.util.TimeZone;
@@ -28,13 +35,7 @@ import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathException;
-import javax.xml.xpath.XPathExpression;
 import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 
 /** Scan PacBio Revio and Vega runs from a directory. */
 public class V2PacBioProcessor extends RunProcessor {
@@ -42,10 +43,92 @@ public class V2PacBioProcessor extends RunProcessor {
   /** Extract data from an XML metadata file and put it in the DTO. */
   interface ProcessMetadata {
 
-    void accept(Document document, PacBioNotificationDto dto, TimeZone timeZone)
-        throws XPathException;
+    void accept(XmlExtractor.Values values, PacBioNotificationDto dto, TimeZone timeZone);
   }
 
+  /**
+   * The files in a run directory that show what state the run is in, collected in a single walk
+   * that goes no deeper than the files in each SMRT Cell's subdirectories
+   *
+   * <p>Markers that are symbolic links count as the files they point to, as they did when the run
+   * was checked with {@link Files#isRegularFile(Path, java.nio.file.LinkOption...)}. Markers more
+   * than three levels below the run directory are not found; Revio and Vega only write them in the
+   * SMRT Cell directories and their metadata subdirectories.
+   */
+  private static final class RunFiles extends SimpleFileVisitor<Path> {
+    private int cellCount;
+    // The first metadata XML file in each SMRT Cell, by SMRT Cell directory
+    private final Map<Path, Path> metadataFiles = new LinkedHashMap<>();
+    private final List<Path> reportLogs = new ArrayList<>();
+    private final Path runDirectory;
+    private final List<Instant> transferDoneTimes = new ArrayList<>();
+    private final List<Instant> transferTestTimes = new ArrayList<>();
+    private int visited;
+
+    private RunFiles(Path runDirectory) {
+      this.runDirectory = runDirectory;
+    }
+
+    private boolean isCellSubdirectory(Path directory, String name) {
+      return directory.getFileName().toString().equals(name)
+          && directory.getParent().getParent().equals(runDirectory)
+          && REVIO_CELL_DIRECTORY.test(directory.getParent().getFileName().toString());
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+      visited++;
+      if (runDirectory.equals(directory.getParent())
+          && REVIO_CELL_DIRECTORY.test(directory.getFileName().toString())) {
+        cellCount++;
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+      visited++;
+      if (attributes.isSymbolicLink()) {
+        try {
+          attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+          // A broken link is not a marker
+          return FileVisitResult.CONTINUE;
+        }
+      }
+      if (!attributes.isRegularFile()) {
+        return FileVisitResult.CONTINUE;
+      }
+      String name = file.getFileName().toString();
+      if (name.endsWith(TRANSFER_DONE_SUFFIX)) {
+        transferDoneTimes.add(attributes.creationTime().toInstant());
+      }
+      if (TRANSFER_TEST.test(name)) {
+        transferTestTimes.add(attributes.creationTime().toInstant());
+      }
+      if (runDirectory.getNameCount() + RUN_WALK_DEPTH == file.getNameCount()) {
+        Path directory = file.getParent();
+        if (name.endsWith(".metadata.xml")
+            && !name.contains("preview")
+            && isCellSubdirectory(directory, "metadata")) {
+          metadataFiles.putIfAbsent(directory.getParent(), file);
+        }
+        if (name.endsWith(PB_REPORT_FILE_SUFFIX) && isCellSubdirectory(directory, "statistics")) {
+          reportLogs.add(file);
+        }
+      }
+      return FileVisitResult.CONTINUE;
+    }
+  }
+
+  private static final Histogram files_visited =
+      Histogram.builder()
+          .classicExponentialUpperBounds(10, 4, 8)
+          .name("miso_runscanner_pacbio_revio_files_visited")
+          .help(
+              "The number of files and directories visited to process a PacBio Revio or Vega run.")
+          .register();
+
   private static final Predicate<String> REVIO_CELL_DIRECTORY =
       Pattern.compile("[0-9]_[A-Z][0-9]{2}").asPredicate();
 
@@ -56,10 +139,14 @@ public class V2PacBioProcessor extends RunProcessor {
 
   private static final String PB_REPORT_FILE_SUFFIX = ".pbreports.log";
 
-  private static final Logger log = LoggerFactory.getLogger(V2PacBioProcessor.class);
-
   private static final Pattern RUN_DIRECTORY = Pattern.compile("^.+_\\d+$");
 
+  // The depth of the files in SMRT Cell subdirectories, such as metadata/*.transferdone
+  private static final int RUN_WALK_DEPTH = 3;
+
+  // All the values read from a metadata XML file, which are found in a single pass
+  private static final XmlExtractor METADATA = new XmlExtractor();
+
   // Run information extracted from metadata XML file
   private static final V2PacBioProcessor.ProcessMetadata[] REVIO_METADATA_PROCESSORS =
       new V2PacBioProcessor.ProcessMetadata[] {
@@ -77,14 +164,14 @@ public class V2PacBioProcessor extends RunProcessor {
    * Extract a PacBio-formatted string from the metadata file and put the parsed result into the
    * DTO.
    *
-   * @param expression the XPath expression yielding the date
+   * @param expression the path yielding the date
    * @param setter the writer for the date
    */
   private static V2PacBioProcessor.ProcessMetadata processDate(
       String expression, BiConsumer<PacBioNotificationDto, Instant> setter) {
-    XPathExpression expr = RunProcessor.compileXPath(expression)[0];
-    return (document, dto, timeZone) -> {
-      String date = (String) expr.evaluate(document, XPathConstants.STRING);
+    XmlExtractor.Path path = METADATA.compile(expression);
+    return (values, dto, timeZone) -> {
+      String date = values.get(path);
       if (date != null) {
         DateTimeFormatter formatter = DateTimeFormatter.ISO_DATE_TIME;
         ZonedDateTime parsedDateTime = ZonedDateTime.parse(date, formatter);
@@ -95,21 +182,19 @@ public class V2PacBioProcessor extends RunProcessor {
 
   // Revio Samples
   private static V2PacBioProcessor.ProcessMetadata processSampleInformation() {
-    XPathExpression[] expr =
-        RunProcessor.compileXPath(
-            "//ResultsFolder",
-            "//SubreadSet/@UniqueId",
-            "//CellPac/@PartNumber",
-            "//WellSample/@Name",
+    XmlExtractor.Path resultsFolder = METADATA.compile("//ResultsFolder");
+    XmlExtractor.Path subreadSetId = METADATA.compile("//SubreadSet/@UniqueId");
+    XmlExtractor.Path cellPacPartNumber = METADATA.compile("//CellPac/@PartNumber");
+    XmlExtractor.Path wellSampleName = METADATA.compile("//WellSample/@Name");
+    XmlExtractor.Path movieLengthParameter =
+        METADATA.compile(
             "//AutomationParameters/AutomationParameter[@Name='MovieLength']/@SimpleValue");
-    return (document, dto, timeZone) -> {
-      String position =
-          StringUtils.substringBetween(
-              (String) expr[0].evaluate(document, XPathConstants.STRING), "/", "/");
-      String containerSerialNumber = (String) expr[1].evaluate(document, XPathConstants.STRING);
-      String smrtCellContainerModel = (String) expr[2].evaluate(document, XPathConstants.STRING);
-      String poolName = (String) expr[3].evaluate(document, XPathConstants.STRING);
-      String movieLength = (String) expr[4].evaluate(document, XPathConstants.STRING);
+    return (values, dto, timeZone) -> {
+      String position = StringUtils.substringBetween(values.get(resultsFolder), "/", "/");
+      String containerSerialNumber = values.get(subreadSetId);
+      String smrtCellContainerModel = values.get(cellPacPartNumber);
+      String poolName = values.get(wellSampleName);
+      String movieLength = values.get(movieLengthParameter);
 
       // SMRTCellPosition is a Java Record and represents one SMRT Cell
       SMRTCellPosition containerInfo =
@@ -129,15 +214,15 @@ public class V2PacBioProcessor extends RunProcessor {
   /**
    * Extract a string expression from the metadata file and write it into the DTO.
    *
-   * @param expression the XPath expression yielding the string
+   * @param expression the path yielding the string
    * @param setter writer for the string
    * @return
    */
   private static V2PacBioProcessor.ProcessMetadata processString(
       String expression, BiConsumer<PacBioNotificationDto, String> setter) {
-    XPathExpression expr = RunProcessor.compileXPath(expression)[0];
-    return (document, dto, timeZone) -> {
-      String result = (String) expr.evaluate(document, XPathConstants.STRING);
+    XmlExtractor.Path path = METADATA.compile(expression);
+    return (values, dto, timeZone) -> {
+      String result = values.get(path);
       if (result != null) {
         setter.accept(dto, result);
       }
@@ -154,8 +239,12 @@ public class V2PacBioProcessor extends RunProcessor {
 
   @Override
   public Stream<File> getRunsFromRoot(File root) {
-    return Arrays.stream(
-        root.listFiles(f -> f.isDirectory() && RUN_DIRECTORY.matcher(f.getName()).matches()));
+    return Arrays.stream(root.listFiles(this::isRunDirectory));
+  }
+
+  @Override
+  protected boolean isRunDirectory(File directory) {
+    return directory.isDirectory() && RUN_DIRECTORY.matcher(directory.getName()).matches();
   }
 
   @Override
@@ -168,30 +257,20 @@ public class V2PacBioProcessor extends RunProcessor {
     dto.setPairedEndRun(false);
     dto.setSequencerFolderPath(runDirectory.getAbsolutePath());
 
+    // Find everything needed from the run directory in one walk
+    RunFiles files = new RunFiles(runDirectory.toPath());
+    Files.walkFileTree(
+        runDirectory.toPath(), EnumSet.noneOf(FileVisitOption.class), RUN_WALK_DEPTH, files);
+    files_visited.observe(files.visited);
+
     // Get the number of SMRT Cells in the run directory
-    int smrtCellCount =
-        (int)
-            Arrays.stream(runDirectory.listFiles())
-                .filter(
-                    cellDirectory ->
-                        cellDirectory.isDirectory()
-                            && REVIO_CELL_DIRECTORY.test(cellDirectory.getName()))
-                .count();
+    int smrtCellCount = files.cellCount;
     dto.setLaneCount(smrtCellCount);
 
     // Grab the .metadata.xml and begin processing
-    streamSmrtCellSubdirectories(runDirectory, "metadata")
-        .map(
-            metadataDirectory ->
-                Stream.of(
-                        metadataDirectory.listFiles(
-                            (dir, name) -> {
-                              return name.endsWith(".metadata.xml") && !name.contains("preview");
-                            }))
-                    .findAny())
-        .filter(Optional::isPresent)
-        .map(Optional::get)
-        .map(RunProcessor::parseXml)
+    files.metadataFiles.values().stream()
+        .map(Path::toFile)
+        .map(METADATA::extract)
         .forEach(metadata -> processMetadata(metadata.get(), dto, tz));
 
     // When a run first starts, we can only get the run alias from the directory.
@@ -212,22 +291,19 @@ public class V2PacBioProcessor extends RunProcessor {
     // We don't have a start date from metadata, fallback to Transfer_Test file
     // creation time
     if (dto.getStartDate() == null) {
-      dto.setStartDate(startTimeFromTransferTest(runDirectory));
+      dto.setStartDate(
+          files.transferTestTimes.stream().min(Comparator.naturalOrder()).orElse(null));
     }
 
     // Check for .transferdone and Transfer_Test in all SMRT Cells
     // to consider the run complete
-    if (isRunComplete(runDirectory, smrtCellCount)) {
+    if (files.transferDoneTimes.size() == smrtCellCount) {
       dto.setHealthType(HealthType.COMPLETED);
 
       // Check if pbreport.log present and use that for completion time
       Optional<Instant> latestCompletionTime =
-          streamSmrtCellSubdirectories(runDirectory, "statistics")
-              .flatMap(
-                  statisticsDirectory ->
-                      Stream.of(
-                          statisticsDirectory.listFiles(
-                              (dir, file) -> file.endsWith(PB_REPORT_FILE_SUFFIX))))
+          files.reportLogs.stream()
+              .map(Path::toFile)
               .map(V2PacBioProcessor::getLogCompletionTime)
               .max(Comparator.naturalOrder());
       // Set completion time based on pbreports.log file
@@ -236,7 +312,8 @@ public class V2PacBioProcessor extends RunProcessor {
       // Don't have pbreport.log, fallback to using .transferdone file
       // creation time instead
       if (dto.getCompletionDate() == null) {
-        dto.setCompletionDate(completionTimeFromTransferDone(runDirectory));
+        dto.setCompletionDate(
+            files.transferDoneTimes.stream().max(Comparator.naturalOrder()).orElse(null));
       }
     } else {
       // There are some missing files, the run may not be complete
@@ -249,55 +326,38 @@ public class V2PacBioProcessor extends RunProcessor {
   /**
    * Parse a metadata XML file and put all the relevant data into the DTO.
    *
-   * @param metadata the path to the XML file
+   * @param metadata the values read from the XML file
    * @param dto the DTO to update
    */
-  private void processMetadata(Document metadata, PacBioNotificationDto dto, TimeZone timeZone) {
+  private void processMetadata(
+      XmlExtractor.Values metadata, PacBioNotificationDto dto, TimeZone timeZone) {
     for (V2PacBioProcessor.ProcessMetadata processor : REVIO_METADATA_PROCESSORS) {
-      try {
-        processor.accept(metadata, dto, timeZone);
-      } catch (XPathException e) {
-        log.error("Failed to extract metadata", e);
-      }
+      processor.accept(metadata, dto, timeZone);
     }
   }
 
   @Override
-  public PathType getPathType() {
-    return PathType.DIRECTORY;
-  }
-
-  /**
-   * Returns a stream that includes Metadata directory level to be used for further processing
-   *
-   * @param runDirectory which we are currently processing
-   * @param directoryName specific sub-directory we want
-   * @return Stream from Metadata directory level
-   */
-  private Stream<File> streamSmrtCellSubdirectories(File runDirectory, String directoryName) {
-    return Stream.of(runDirectory.listFiles())
-        .filter(
+  public Optional<String> getFingerprint(File runDirectory) throws IOException {
+    Fingerprint fingerprint = new Fingerprint().addChildren(runDirectory);
+    File[] cellDirectories =
+        runDirectory.listFiles(
             cellDirectory ->
-                cellDirectory.isDirectory() && REVIO_CELL_DIRECTORY.test(cellDirectory.getName()))
-        .flatMap(
-            cellDirectory ->
-                Stream.of(cellDirectory.listFiles())
-                    .filter(
-                        subDirectory ->
-                            subDirectory.isDirectory()
-                                && subDirectory.getName().equals(directoryName)));
+                cellDirectory.isDirectory() && REVIO_CELL_DIRECTORY.test(cellDirectory.getName()));
+    if (cellDirectories != null) {
+      Arrays.sort(cellDirectories);
+      for (File cellDirectory : cellDirectories) {
+        // This includes the .transferdone files and the metadata and statistics directories
+        fingerprint.addChildren(cellDirectory);
+        fingerprint.addChildren(new File(cellDirectory, "metadata"));
+        fingerprint.addChildren(new File(cellDirectory, "statistics"));
+      }
+    }
+    return Optional.of(fingerprint.build());
   }
 
-  /**
-   * Returns the time a file was created
-   *
-   * @param file which we are currently processing
-   * @return Instant point in time
-   */
-  private static Instant getFileCreationTime(File file) throws IOException {
-    FileTime fileTime =
-        (FileTime) Files.getAttribute(Path.of(file.getAbsolutePath()), "creationTime");
-    return fileTime.toInstant();
+  @Override
+  public PathType getPathType() {
+    return PathType.DIRECTORY;
   }
 
   /**
@@ -326,72 +386,4 @@ public class V2PacBioProcessor extends RunProcessor {
     }
     return null;
   }
-
-  /**
-   * @param runDirectory which we are currently processing
-   * @param smrtCellCount total number of SMRT cells in runDirectory
-   * @return true or false
-   */
-  private boolean isRunComplete(File runDirectory, int smrtCellCount) throws IOException {
-    try (Stream<Path> testDoneStream = Files.walk(runDirectory.toPath())) {
-      int transferDoneFiles =
-          (int)
-              testDoneStream
-                  .filter(Files::isRegularFile)
-                  .filter(file -> file.getFileName().toString().endsWith(TRANSFER_DONE_SUFFIX))
-                  .count();
-
-      return transferDoneFiles == smrtCellCount;
-    }
-  }
-
-  /**
-   * Filter runDirectory for Transfer_Test files and grab earliest creation time
-   *
-   * @param runDirectory which we are currently processing
-   * @return earliest file creation time or null if no Transfer_Test files are found
-   */
-  private Instant startTimeFromTransferTest(File runDirectory) throws IOException {
-    try (Stream<Path> testFileStream = Files.walk(runDirectory.toPath())) {
-      List<Path> transferTestFiles =
-          testFileStream
-              .filter(Files::isRegularFile)
-              .filter(file -> TRANSFER_TEST.test(String.valueOf(file.getFileName())))
-              .toList();
-
-      Instant minInstant = null;
-      for (Path filepath : transferTestFiles) {
-        Instant creationTime = getFileCreationTime(filepath.toFile());
-        if (minInstant == null || creationTime.isBefore(minInstant)) {
-          minInstant = creationTime;
-        }
-      }
-      return minInstant;
-    }
-  }
-
-  /**
-   * Filter runDirectory for .Transferdone file and grab latest creation time
-   *
-   * @param runDirectory which we are currently processing
-   * @return latest file creation time or null if no Transferdone files are found
-   */
-  private Instant completionTimeFromTransferDone(File runDirectory) throws IOException {
-    try (Stream<Path> testFileStream = Files.walk(runDirectory.toPath())) {
-      List<Path> transferDoneFiles =
-          testFileStream
-              .filter(Files::isRegularFile)
-              .filter(file -> file.getFileName().toString().endsWith(TRANSFER_DONE_SUFFIX))
-              .toList();
-
-      Instant maxInstant = null;
-      for (Path filepath : transferDoneFiles) {
-        Instant creationTime = getFileCreationTime(filepath.toFile());
-        if (maxInstant == null || creationTime.isAfter(maxInstant)) {
-          maxInstant = creationTime;
-        }
-      }
-      return maxInstant;
-    }
-  }
 }
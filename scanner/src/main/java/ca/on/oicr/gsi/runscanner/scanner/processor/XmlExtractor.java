@@ -0,0 +1,319 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.io.input.BOMInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extracts values from XML files in a single streaming pass, rather than building a DOM and
+ * evaluating XPath expressions against it.
+ *
+ * <p>Paths are compiled once, like XPath expressions, and all the paths compiled by an extractor
+ * are found together each time a file is read. Reading stops as soon as every path has been found.
+ * Only a small subset of XPath is supported: a path must start with <code>//</code>, followed by
+ * element names (or <code>*</code>) separated by <code>/</code>, and may end with an attribute such
+ * as <code>@Name</code>. Any element may have one attribute predicate such as <code>
+ * [@Name='value']</code>. Names are matched without regard to namespaces.
+ *
+ * <p>As with XPath's <code>string()</code>, the value of a path is that of the first match in the
+ * document: either the attribute's value or all the text inside the element. If there is no match,
+ * the value is the empty string.
+ */
+public final class XmlExtractor {
+  /** The values of all the paths for one file */
+  public final class Values {
+    private final String[] values;
+
+    private Values(String[] values) {
+      this.values = values;
+    }
+
+    /** Get the value of a path, or the empty string if it was not found */
+    public String get(Path path) {
+      if (path.owner() != XmlExtractor.this) {
+        throw new IllegalArgumentException("Path was compiled by a different extractor");
+      }
+      String value = path.index < values.length ? values[path.index] : null;
+      return value == null ? "" : value;
+    }
+
+    /** Get the value of a path as a number, or NaN if it is missing or not a number */
+    public double getNumber(Path path) {
+      try {
+        return Double.parseDouble(get(path).trim());
+      } catch (NumberFormatException e) {
+        return Double.NaN;
+      }
+    }
+  }
+
+  /** A compiled path */
+  public final class Path {
+    private final String attribute;
+    private final String expression;
+    private final int index;
+    private final List<Step> steps;
+
+    private Path(String expression, int index, List<Step> steps, String attribute) {
+      this.expression = expression;
+      this.index = index;
+      this.steps = steps;
+      this.attribute = attribute;
+    }
+
+    private boolean matches(List<Element> stack) {
+      int offset = stack.size() - steps.size();
+      if (offset < 0) {
+        return false;
+      }
+      for (int i = 0; i < steps.size(); i++) {
+        if (!steps.get(i).matches(stack.get(offset + i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private XmlExtractor owner() {
+      return XmlExtractor.this;
+    }
+
+    @Override
+    public String toString() {
+      return expression;
+    }
+  }
+
+  /** An element being read, with its attributes */
+  private static final class Element {
+    private final Map<String, String> attributes;
+    private final String name;
+
+    private Element(String name, Map<String, String> attributes) {
+      this.name = name;
+      this.attributes = attributes;
+    }
+  }
+
+  /** An element in a path, with its optional predicate */
+  private static final class Step {
+    private final String name;
+    private final String predicateAttribute;
+    private final String predicateValue;
+
+    private Step(String name, String predicateAttribute, String predicateValue) {
+      this.name = name;
+      this.predicateAttribute = predicateAttribute;
+      this.predicateValue = predicateValue;
+    }
+
+    private boolean matches(Element element) {
+      return (name == null || name.equals(element.name))
+          && (predicateAttribute == null
+              || predicateValue.equals(element.attributes.get(predicateAttribute)));
+    }
+  }
+
+  /** The text of an element being collected for a path */
+  private static final class Text {
+    private final int depth;
+    private final Path path;
+    private final StringBuilder value = new StringBuilder();
+
+    private Text(Path path, int depth) {
+      this.path = path;
+      this.depth = depth;
+    }
+  }
+
+  private static final ThreadLocal<XMLInputFactory> FACTORY =
+      ThreadLocal.withInitial(
+          () -> {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+          });
+
+  private static final Pattern STEP =
+      Pattern.compile(
+          "^([A-Za-z_][\\w.:-]*|\\*)(?:\\[@([A-Za-z_][\\w.:-]*)=(?:'([^']*)'|\"([^\"]*)\")\\])?$");
+
+  private static final Pattern ATTRIBUTE = Pattern.compile("^@([A-Za-z_][\\w.:-]*)$");
+
+  private static final Logger log = LoggerFactory.getLogger(XmlExtractor.class);
+
+  private static String localName(String name) {
+    return name.substring(name.indexOf(':') + 1);
+  }
+
+  private final List<Path> paths = new CopyOnWriteArrayList<>();
+
+  /**
+   * Compile a path, which will be found every time this extractor reads a file.
+   *
+   * @param expression the path to compile
+   * @throws IllegalArgumentException if the path is not in the supported subset of XPath
+   */
+  public Path compile(String expression) {
+    if (!expression.startsWith("//")) {
+      throw new IllegalArgumentException("Path must start with //: " + expression);
+    }
+    List<Step> steps = new ArrayList<>();
+    String attribute = null;
+    String[] parts = splitSteps(expression.substring(2));
+    for (int i = 0; i < parts.length; i++) {
+      Matcher attributeMatcher = ATTRIBUTE.matcher(parts[i]);
+      if (i == parts.length - 1 && i > 0 && attributeMatcher.matches()) {
+        attribute = localName(attributeMatcher.group(1));
+        continue;
+      }
+      Matcher stepMatcher = STEP.matcher(parts[i]);
+      if (!stepMatcher.matches()) {
+        throw new IllegalArgumentException("Unsupported path: " + expression);
+      }
+      steps.add(
+          new Step(
+              stepMatcher.group(1).equals("*") ? null : localName(stepMatcher.group(1)),
+              stepMatcher.group(2) == null ? null : localName(stepMatcher.group(2)),
+              stepMatcher.group(3) == null ? stepMatcher.group(4) : stepMatcher.group(3)));
+    }
+    synchronized (paths) {
+      Path path = new Path(expression, paths.size(), List.copyOf(steps), attribute);
+      paths.add(path);
+      return path;
+    }
+  }
+
+  /** Split a path on slashes that are not inside a quoted predicate value */
+  private static String[] splitSteps(String expression) {
+    List<String> parts = new ArrayList<>();
+    int start = 0;
+    char quote = 0;
+    for (int i = 0; i < expression.length(); i++) {
+      char c = expression.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '\'' || c == '"') {
+        quote = c;
+      } else if (c == '/') {
+        parts.add(expression.substring(start, i));
+        start = i + 1;
+      }
+    }
+    parts.add(expression.substring(start));
+    return parts.toArray(String[]::new);
+  }
+
+  /**
+   * Find all the compiled paths in a file.
+   *
+   * <p>If the file cannot be parsed as declared, it is read again as UTF-8, ignoring any byte order
+   * mark, since some instruments write UTF-8 files that claim to be UTF-16.
+   *
+   * @return the values found, or empty if the file cannot be read
+   */
+  public Optional<Values> extract(File file) {
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+      return Optional.of(read(FACTORY.get().createXMLStreamReader(input)));
+    } catch (XMLStreamException e) {
+      log.warn(
+          "Not really a UTF-16 parsing exception, forcing UTF-8 parsing for {}", file.getPath());
+
+      // Automatically detect BOMs and remove them from input stream
+      // BOM characters can interfere with text processing if not properly removed
+      try (BOMInputStream bomInputStream = new BOMInputStream(new FileInputStream(file));
+          Reader reader = new InputStreamReader(bomInputStream, StandardCharsets.UTF_8)) {
+        return Optional.of(read(FACTORY.get().createXMLStreamReader(reader)));
+      } catch (XMLStreamException | IOException e2) {
+        log.error(
+            "Failed to parse XML after forcing UTF-8 encoding for file: {}", file.getPath(), e);
+        return Optional.empty();
+      }
+    } catch (IOException e) {
+      log.error("IO error when parsing XML content for file: {}", file.getPath(), e);
+      return Optional.empty();
+    }
+  }
+
+  private Values read(XMLStreamReader reader) throws XMLStreamException {
+    List<Path> paths = List.copyOf(this.paths);
+    String[] values = new String[paths.size()];
+    boolean[] started = new boolean[paths.size()];
+    int remaining = paths.size();
+    List<Element> stack = new ArrayList<>();
+    List<Text> texts = new ArrayList<>();
+    try {
+      while (remaining > 0 && reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            Map<String, String> attributes = new HashMap<>();
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+              attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+            stack.add(new Element(reader.getLocalName(), attributes));
+            for (Path path : paths) {
+              if (started[path.index] || !path.matches(stack)) {
+                continue;
+              }
+              if (path.attribute == null) {
+                started[path.index] = true;
+                texts.add(new Text(path, stack.size()));
+              } else if (attributes.containsKey(path.attribute)) {
+                started[path.index] = true;
+                values[path.index] = attributes.get(path.attribute);
+                remaining--;
+              }
+            }
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            for (Text text : texts) {
+              text.value.append(
+                  reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            for (Iterator<Text> iterator = texts.iterator(); iterator.hasNext(); ) {
+              Text text = iterator.next();
+              if (text.depth == stack.size()) {
+                values[text.path.index] = text.value.toString();
+                remaining--;
+                iterator.remove();
+              }
+            }
+            stack.remove(stack.size() - 1);
+            break;
+          default:
+            break;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return new Values(values);
+  }
+}
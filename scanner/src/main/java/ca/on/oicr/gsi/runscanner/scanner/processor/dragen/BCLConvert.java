@@ -7,23 +7,219 @@ import ca.on.oicr.gsi.runscanner.dto.dragen.FastqAnalysisFile;
 import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Samplesheet;
 import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.SamplesheetBCLConvertSection;
 import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.SamplesheetBCLConvertSection.SamplesheetBCLConvertDataEntry;
+import io.prometheus.metrics.core.metrics.Histogram;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class BCLConvert {
+  /**
+   * The analysis units found so far, indexed by the fields that identify them and by their files'
+   * paths, so each line of the reports can be matched to its unit without searching.
+   *
+   * <p>Units are kept in the order they were last put, as {@link DragenWorkflowRun#put} does.
+   */
+  private static final class AnalysisUnits {
+    private final Map<URI, DragenAnalysisUnit> byPath = new HashMap<>();
+    private final Map<DragenAnalysisUnit, UnitKey> keys = new IdentityHashMap<>();
+    private final Map<UnitKey, DragenAnalysisUnit> units = new LinkedHashMap<>();
+
+    private DragenAnalysisUnit get(String sample, int lane, String index1, String index2) {
+      return units.get(new UnitKey(sample, lane, index1, index2));
+    }
+
+    private DragenAnalysisUnit get(URI filePath) {
+      return byPath.get(filePath);
+    }
+
+    private void put(DragenAnalysisUnit unit) {
+      for (AnalysisFile file : unit.getFiles()) {
+        DragenAnalysisUnit owner = byPath.get(file.getPath());
+        if (owner != null && owner != unit) {
+          throw new IllegalStateException(
+              "Can't have more than one Analysis unit with same file " + file.getPath());
+        }
+      }
+      // The unit's fields may have changed since it was last put
+      UnitKey oldKey = keys.remove(unit);
+      if (oldKey != null) {
+        units.remove(oldKey);
+      }
+      UnitKey key = UnitKey.of(unit);
+      DragenAnalysisUnit replaced = units.remove(key);
+      if (replaced != null) {
+        keys.remove(replaced);
+        replaced.getFiles().forEach(file -> byPath.remove(file.getPath()));
+      }
+      units.put(key, unit);
+      keys.put(unit, key);
+      unit.getFiles().forEach(file -> byPath.put(file.getPath(), unit));
+    }
+  }
+
+  /**
+   * Finds the FASTQ files named in fastq_list.csv and reads their attributes on a shared pool of
+   * threads.
+   *
+   * <p>The gzip output directory is listed once to tell which directory each file is in, and then
+   * each file's size and modification time are read together, so every file takes one stat rather
+   * than as many as four.
+   */
+  private static final class FastqFiles {
+    private final Set<String> fastqNames = new HashSet<>();
+    private final File rootDir;
+    private final AtomicLong statCallsSaved = new AtomicLong();
+
+    private FastqFiles(File rootDir) throws IOException {
+      this.rootDir = rootDir;
+      try (DirectoryStream<Path> files =
+          Files.newDirectoryStream(rootDir.toPath().resolve("Data/BCLConvert/fastq"))) {
+        for (Path file : files) {
+          fastqNames.add(file.getFileName().toString());
+        }
+      } catch (NoSuchFileException | NotDirectoryException e) {
+        // Only ORA output
+      }
+      statCallsSaved.addAndGet(-1);
+    }
+
+    private Future<AnalysisFile> find(String fileName, int readNumber) {
+      return FILE_ATTRIBUTES.submit(() -> fastqFromFilename(fileName, readNumber));
+    }
+
+    private AnalysisFile fastqFromFilename(String fileName, int readNumber) throws IOException {
+      if (fileName == null || fileName.isBlank()) {
+        return null;
+      }
+      // 4.1.7 fileName from fastq report looks like 'MY_FILE.fastq.gz'
+      // 4.3 fileName looks like '../MY_FILE.fastq.gz'
+      // So we have to interpret the string as a path and get the last element
+      String name = Path.of(fileName).getFileName().toString();
+      Path fullPath;
+      // Checking that the file exists, then getting its size and time, took a stat each, plus
+      // another to check the gzip directory first for ORA files
+      int separateStatCalls;
+      if (fastqNames.contains(name)) {
+        fullPath = Paths.get(rootDir.getPath(), "/Data/BCLConvert/fastq/", name);
+        separateStatCalls = 3;
+      } else {
+        fullPath = Paths.get(rootDir.getPath(), "/Data/BCLConvert/ora_fastq/", fileName);
+        separateStatCalls = 4;
+      }
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(fullPath, BasicFileAttributes.class);
+      } catch (NoSuchFileException e) {
+        statCallsSaved.addAndGet(1);
+        return null;
+      }
+      statCallsSaved.addAndGet(separateStatCalls - 1);
+      FastqAnalysisFile newFile = new FastqAnalysisFile();
+      newFile.setPath(fullPath.toUri());
+      newFile.setSize(attributes.size());
+      newFile.setCreatedTime(attributes.lastModifiedTime().toInstant());
+      newFile.setModifiedTime(
+          newFile.getCreatedTime()); // Not perfect but f/s won't give us a created time
+      newFile.setReadNumber(readNumber);
+      return newFile;
+    }
+  }
+
+  /** A line of fastq_list.csv, with its files being found */
+  private record FastqRow(String[] fastq, Future<AnalysisFile> read1, Future<AnalysisFile> read2) {}
+
+  /** Handles one line of a delimited report */
+  private interface RowHandler {
+    void accept(String[] row) throws IOException;
+  }
+
+  /** The fields that identify an analysis unit */
+  private record UnitKey(String sample, int lane, String index1, String index2) {
+    private static UnitKey of(DragenAnalysisUnit unit) {
+      return new UnitKey(unit.getSample(), unit.getLane(), unit.getIndex1(), unit.getIndex2());
+    }
+  }
+
+  private static final ThreadPoolExecutor FILE_ATTRIBUTES =
+      new ThreadPoolExecutor(
+          8,
+          8,
+          1,
+          TimeUnit.MINUTES,
+          new LinkedBlockingQueue<>(),
+          runnable -> {
+            Thread thread = new Thread(runnable, "dragen-file-attributes");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private static final Histogram stat_calls_saved =
+      Histogram.builder()
+          .classicExponentialUpperBounds(10, 10, 6)
+          .name("miso_runscanner_dragen_fastq_stat_calls_saved")
+          .help(
+              "The number of file system calls per BCLConvert analysis avoided by reading FASTQ files' attributes together")
+          .register();
+
   private static final Logger log = LoggerFactory.getLogger(BCLConvert.class);
 
+  static {
+    FILE_ATTRIBUTES.allowCoreThreadTimeOut(true);
+  }
+
+  /** Get a FASTQ file that has been found, or null if it does not exist */
+  private static AnalysisFile get(Future<AnalysisFile> file) throws IOException {
+    try {
+      return file.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading FASTQ attributes", e);
+    }
+  }
+
+  /** Read a delimited report a line at a time, rather than holding all of it in memory */
+  private static void readRows(File file, String separator, RowHandler handler) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath())) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        handler.accept(line.split(separator));
+      }
+    }
+  }
+
   public static DragenWorkflowRun process(Samplesheet samplesheet, File rootDir)
       throws IOException {
     DragenWorkflowRun bclConvertWorkflowRun = new DragenWorkflowRun("BCLConvert");
@@ -35,24 +231,24 @@ public class BCLConvert {
     // Get start and end time from root/Analysis/#/Data/b2c_dragen_events.csv
     File b2cEvents = new File(rootDir, "Data/b2c_dragen_events.csv");
     if (b2cEvents.exists() && b2cEvents.isFile()) {
-      List<String[]> b2cLines =
-          Files.readAllLines(b2cEvents.toPath()).stream().map(line -> line.split(",")).toList();
-      boolean start = true;
-
       // Line format: 0 = time, 1 = label (we don't need the label for anything)
       DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-      for (String[] event : b2cLines) {
-        if (event[0].startsWith("time")) continue; // skip the column label line
-        // Assuming the file uses timestamps in the timezone of the machine already,
-        // no offset actually needed
-        Instant instantDateTime =
-            LocalDateTime.parse(event[0], dateTimeFormatter).atOffset(ZoneOffset.UTC).toInstant();
-        if (start) {
-          bclConvertWorkflowRun.setStartTime(instantDateTime);
-          start = false;
-        }
-        bclConvertWorkflowRun.setCompletionTime(instantDateTime);
-      }
+      readRows(
+          b2cEvents,
+          ",",
+          event -> {
+            if (event[0].startsWith("time")) return; // skip the column label line
+            // Assuming the file uses timestamps in the timezone of the machine already,
+            // no offset actually needed
+            Instant instantDateTime =
+                LocalDateTime.parse(event[0], dateTimeFormatter)
+                    .atOffset(ZoneOffset.UTC)
+                    .toInstant();
+            if (bclConvertWorkflowRun.getStartTime() == null) {
+              bclConvertWorkflowRun.setStartTime(instantDateTime);
+            }
+            bclConvertWorkflowRun.setCompletionTime(instantDateTime);
+          });
     } else {
       log.info("No b2c_dragen_events.csv for {}", rootDir);
     }
@@ -64,64 +260,82 @@ public class BCLConvert {
     if (!(fastqList.exists() && fastqList.isFile())) {
       fastqList = new File(rootDir, "Data/BCLConvert/ora_fastq/Reports/fastq_list.csv");
     }
+    AnalysisUnits analysisUnits = new AnalysisUnits();
     if (fastqList.exists() && fastqList.isFile()) {
-      List<String[]> fastqLines =
-          Files.readAllLines(fastqList.toPath()).stream().map(line -> line.split(",")).toList();
-      for (String[] fastq : fastqLines) {
-        if (fastq[0].startsWith("RGID")) continue; // Skip the column label line
-        // 0 = RGID, 1 = RGSM, 2 = RGLB, 3 = Lane, 4 = Read1File, 5 = Read2File
-        // get index by teasing apart RGID, it looks to be index1.index2.lane
-        String[] splitRgid = fastq[0].split("\\.");
-        String index1 = splitRgid[0], index2 = splitRgid[1];
-        int lane = Integer.parseInt(splitRgid[2]);
-
-        DragenAnalysisUnit dragenAnalysisUnit =
-            bclConvertWorkflowRun.get(fastq[1], lane, index1, index2);
-        if (dragenAnalysisUnit == null) {
-          dragenAnalysisUnit = new DragenAnalysisUnit();
-        }
-        dragenAnalysisUnit.setSample(fastq[1]);
-        dragenAnalysisUnit.setLane(Integer.parseInt(fastq[3]));
-        dragenAnalysisUnit.setIndex1(index1);
-        dragenAnalysisUnit.setIndex2(index2);
+      // Start finding every file, then match them to samples in order as they are found
+      FastqFiles fastqFiles = new FastqFiles(rootDir);
+      List<FastqRow> fastqRows = new ArrayList<>();
+      try {
+        readRows(
+            fastqList,
+            ",",
+            fastq -> {
+              if (fastq[0].startsWith("RGID")) return; // Skip the column label line
+              // 0 = RGID, 1 = RGSM, 2 = RGLB, 3 = Lane, 4 = Read1File, 5 = Read2File
+              // TODO: what's it look like when there's only 1 read?
+              fastqRows.add(
+                  new FastqRow(fastq, fastqFiles.find(fastq[4], 1), fastqFiles.find(fastq[5], 2)));
+            });
+        for (FastqRow row : fastqRows) {
+          String[] fastq = row.fastq();
+          // get index by teasing apart RGID, it looks to be index1.index2.lane
+          String[] splitRgid = fastq[0].split("\\.");
+          String index1 = splitRgid[0], index2 = splitRgid[1];
+          int lane = Integer.parseInt(splitRgid[2]);
 
-        // TODO: what's it look like when there's only 1 read?
-        AnalysisFile file1 = fastqFromFilename(rootDir, fastq[4], 1),
-            file2 = fastqFromFilename(rootDir, fastq[5], 2);
+          DragenAnalysisUnit dragenAnalysisUnit = analysisUnits.get(fastq[1], lane, index1, index2);
+          if (dragenAnalysisUnit == null) {
+            dragenAnalysisUnit = new DragenAnalysisUnit();
+          }
+          dragenAnalysisUnit.setSample(fastq[1]);
+          dragenAnalysisUnit.setLane(Integer.parseInt(fastq[3]));
+          dragenAnalysisUnit.setIndex1(index1);
+          dragenAnalysisUnit.setIndex2(index2);
 
-        if (file1 != null) dragenAnalysisUnit.addFile(file1);
-        if (file2 != null) dragenAnalysisUnit.addFile(file2);
+          AnalysisFile file1 = get(row.read1()), file2 = get(row.read2());
 
-        bclConvertWorkflowRun.put(dragenAnalysisUnit);
+          if (file1 != null) dragenAnalysisUnit.addFile(file1);
+          if (file2 != null) dragenAnalysisUnit.addFile(file2);
+
+          analysisUnits.put(dragenAnalysisUnit);
+        }
+      } finally {
+        for (FastqRow row : fastqRows) {
+          row.read1().cancel(true);
+          row.read2().cancel(true);
+        }
       }
+      stat_calls_saved.observe(fastqFiles.statCallsSaved.get());
 
       // Get file checksums from Analysis/#/Manifest.tsv
       File manifest = new File(rootDir, "Manifest.tsv");
       if (manifest.exists() && manifest.isFile()) {
-        List<String[]> manifestLines =
-            Files.readAllLines(manifest.toPath()).stream()
-                .map(line -> line.split("\t"))
-                .filter(line -> line[0].startsWith("Data/BCLConvert"))
-                .filter(line -> (line[0].endsWith(".fastq.gz") || line[0].endsWith(".fastq.ora")))
-                .toList();
-        for (String[] manifestLine : manifestLines) {
-          // 0 = path, 1 = crc32 checksum
-          URI filename = new File(rootDir, manifestLine[0]).toURI();
-
-          // When this is null, it's often for an Undetermined read. We do not care.
-          DragenAnalysisUnit dragenAnalysisUnit = bclConvertWorkflowRun.get(filename);
-          if (dragenAnalysisUnit == null) {
-            log.info("Unable to map {} to an Analysis object", filename);
-          } else {
-            for (AnalysisFile file : dragenAnalysisUnit.getFiles()) {
-              if (file.getPath().equals(filename)) {
-                file.setCrc32Checksum(manifestLine[1]);
-                break;
+        readRows(
+            manifest,
+            "\t",
+            manifestLine -> {
+              if (!manifestLine[0].startsWith("Data/BCLConvert")
+                  || !(manifestLine[0].endsWith(".fastq.gz")
+                      || manifestLine[0].endsWith(".fastq.ora"))) {
+                return;
               }
-            }
-            bclConvertWorkflowRun.put(dragenAnalysisUnit);
-          }
-        }
+              // 0 = path, 1 = crc32 checksum
+              URI filename = new File(rootDir, manifestLine[0]).toURI();
+
+              // When this is null, it's often for an Undetermined read. We do not care.
+              DragenAnalysisUnit dragenAnalysisUnit = analysisUnits.get(filename);
+              if (dragenAnalysisUnit == null) {
+                log.info("Unable to map {} to an Analysis object", filename);
+              } else {
+                for (AnalysisFile file : dragenAnalysisUnit.getFiles()) {
+                  if (file.getPath().equals(filename)) {
+                    file.setCrc32Checksum(manifestLine[1]);
+                    break;
+                  }
+                }
+                analysisUnits.put(dragenAnalysisUnit);
+              }
+            });
       } else {
         log.info("No Manifest.tsv for {}", rootDir);
       }
@@ -143,46 +357,47 @@ public class BCLConvert {
       }
 
       if (demulitplexStats != null && demulitplexStats.exists() && demulitplexStats.isFile()) {
-        List<String[]> demultiplexLines =
-            Files.readAllLines(demulitplexStats.toPath()).stream()
-                .map(line -> line.split(","))
-                .toList();
-
-        for (String[] demuxLine : demultiplexLines) {
-          if (demuxLine[0].startsWith("Lane")) continue; // skip the column labels
-          if (demuxLine[1].equals("Undetermined")) continue; // skip Undetermined reads
-          // 0 = Lane, 1 = SampleId, 2 = Index, 3= # Reads, 4 = # Perfect Index Reads,
-          // 5 = # One Mismatch Index Reads, 6 = # Two Mismatch Index Reads, 7 = % Reads,
-          // 8 = % Perfect Index Reads, 9 = % One Mismatch Index Reads,
-          // 10 = % Two Mismatch Index Reads
-          // TODO: given the wwwwwwww-wwwwwwww format of this file, what does only having index2
-          // look like?
-          String[] indices = demuxLine[2].split("-");
-          DragenAnalysisUnit dragenAnalysisUnit;
-          if (indices.length == 2) {
-            dragenAnalysisUnit =
-                bclConvertWorkflowRun.get(demuxLine[1], demuxLine[0], indices[0], indices[1]);
-          } else if (indices.length == 1) {
-            dragenAnalysisUnit =
-                bclConvertWorkflowRun.get(demuxLine[1], demuxLine[0], indices[0], null);
-          } else {
-            throw new IllegalStateException(
-                "Demux indices length for " + demuxLine[1] + " is " + indices.length);
-          }
-          if (dragenAnalysisUnit == null) dragenAnalysisUnit = new DragenAnalysisUnit();
-          int readCount = Integer.parseInt(demuxLine[3]);
-          // Set the same read count for all files in analysis
-          dragenAnalysisUnit
-              .getFiles()
-              .forEach(file -> ((FastqAnalysisFile) file).setReadCount(readCount));
-          bclConvertWorkflowRun.put(dragenAnalysisUnit);
-        }
+        readRows(
+            demulitplexStats,
+            ",",
+            demuxLine -> {
+              if (demuxLine[0].startsWith("Lane")) return; // skip the column labels
+              if (demuxLine[1].equals("Undetermined")) return; // skip Undetermined reads
+              // 0 = Lane, 1 = SampleId, 2 = Index, 3= # Reads, 4 = # Perfect Index Reads,
+              // 5 = # One Mismatch Index Reads, 6 = # Two Mismatch Index Reads, 7 = % Reads,
+              // 8 = % Perfect Index Reads, 9 = % One Mismatch Index Reads,
+              // 10 = % Two Mismatch Index Reads
+              // TODO: given the wwwwwwww-wwwwwwww format of this file, what does only having
+              // index2 look like?
+              String[] indices = demuxLine[2].split("-");
+              int lane = Integer.parseInt(demuxLine[0]);
+              DragenAnalysisUnit dragenAnalysisUnit;
+              if (indices.length == 2) {
+                dragenAnalysisUnit = analysisUnits.get(demuxLine[1], lane, indices[0], indices[1]);
+              } else if (indices.length == 1) {
+                dragenAnalysisUnit = analysisUnits.get(demuxLine[1], lane, indices[0], null);
+              } else {
+                throw new IllegalStateException(
+                    "Demux indices length for " + demuxLine[1] + " is " + indices.length);
+              }
+              if (dragenAnalysisUnit == null) {
+                log.info("Unable to map {} in lane {} to an Analysis object", demuxLine[1], lane);
+                return;
+              }
+              int readCount = Integer.parseInt(demuxLine[3]);
+              // Set the same read count for all files in analysis
+              dragenAnalysisUnit
+                  .getFiles()
+                  .forEach(file -> ((FastqAnalysisFile) file).setReadCount(readCount));
+              analysisUnits.put(dragenAnalysisUnit);
+            });
       } else {
         log.info("No Demultiplex_Stats.csv for {}", rootDir);
       }
     } else {
       log.info("No fastq_list.csv for {}", rootDir);
     }
+    bclConvertWorkflowRun.getAnalysisOutputs().addAll(analysisUnits.units.values());
 
     // Sanity check against samplesheet and that no dummy values are still present
     boolean isOk = true;
@@ -198,9 +413,9 @@ public class BCLConvert {
     for (SamplesheetBCLConvertDataEntry item :
         ((SamplesheetBCLConvertSection) samplesheet.getByName("BCLConvert")).getData()) {
       DragenAnalysisUnit dragenAnalysisUnitItem =
-          bclConvertWorkflowRun.get(
+          analysisUnits.get(
               item.getSampleId(),
-              item.getLane(),
+              Integer.parseInt(item.getLane()),
               item.getIndex(),
               reverseComplement(item.getIndex2()));
       if (dragenAnalysisUnitItem == null
@@ -228,33 +443,6 @@ public class BCLConvert {
     return bclConvertWorkflowRun;
   }
 
-  private static AnalysisFile fastqFromFilename(File rootDir, String fileName, int readNumber)
-      throws IOException {
-    if (fileName == null || fileName.isBlank()) {
-      return null;
-    }
-    // 4.1.7 fileName from fastq report looks like 'MY_FILE.fastq.gz'
-    // 4.3 fileName looks like '../MY_FILE.fastq.gz'
-    // So we have to interpret the string as a path and get the last element
-    Path fullPath =
-        Paths.get(
-            rootDir.getPath(),
-            "/Data/BCLConvert/fastq/",
-            Path.of(fileName).getFileName().toString());
-    if (!Files.exists(fullPath)) {
-      fullPath = Paths.get(rootDir.getPath(), "/Data/BCLConvert/ora_fastq/", fileName);
-    }
-    if (!Files.exists(fullPath)) return null;
-    FastqAnalysisFile newFile = new FastqAnalysisFile();
-    newFile.setPath(fullPath.toUri());
-    newFile.setSize(Files.size(fullPath));
-    newFile.setCreatedTime(Files.getLastModifiedTime(fullPath).toInstant());
-    newFile.setModifiedTime(
-        newFile.getCreatedTime()); // Not perfect but f/s won't give us a created time
-    newFile.setReadNumber(readNumber);
-    return newFile;
-  }
-
   private static char complement(char nt) {
     switch (nt) {
       case 'A':
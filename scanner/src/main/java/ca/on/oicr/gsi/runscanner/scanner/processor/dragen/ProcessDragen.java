@@ -10,22 +10,77 @@ import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Sampleshee
 import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Samplesheet.SamplesheetException;
 import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.SamplesheetBCLConvertSection;
 import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Semver;
+import io.prometheus.metrics.core.metrics.Counter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ProcessDragen {
+  /**
+   * An analysis attempt that has finished, with the modification times of the files that would
+   * change if it were redone
+   */
+  private record FinishedAttempt(
+      Optional<FileTime> samplesheetTime,
+      Optional<FileTime> completeTime,
+      DragenPipelineRun pipelineRun) {}
+
+  private static final Counter attempts =
+      Counter.builder()
+          .name("miso_runscanner_dragen_attempts")
+          .help(
+              "The number of DRAGEN analysis attempts scanned, or taken from earlier scans because they had finished")
+          .labelNames("result")
+          .register();
 
   private static final String NUMERAL = "\\d+";
   private static final Logger log = LoggerFactory.getLogger(ProcessDragen.class);
 
-  public static IlluminaNotificationDto analyse(File runDirectory, IlluminaNotificationDto dto)
+  private static Optional<FileTime> modifiedTime(File file) throws IOException {
+    try {
+      return Optional.of(Files.getLastModifiedTime(file.toPath()));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  // Finished attempts, by run directory and attempt number
+  private final Map<File, Map<Integer, FinishedAttempt>> finished = new ConcurrentHashMap<>();
+
+  /** Forget all finished attempts */
+  public void clear() {
+    finished.clear();
+  }
+
+  /** Forget the finished attempts of a run, once it will not be analysed again. */
+  public void forget(File runDirectory) {
+    finished.remove(runDirectory);
+  }
+
+  /**
+   * Add the DRAGEN analysis of a run to its notification.
+   *
+   * <p>Attempts that are complete or unsupported are remembered and not scanned again, unless their
+   * samplesheet or Secondary_Analysis_Complete.txt changes.
+   */
+  public IlluminaNotificationDto analyse(File runDirectory, IlluminaNotificationDto dto)
       throws IOException {
     DragenPipelineRun dragenPipelineRun = null;
 
     File analysisDir = new File(runDirectory, "Analysis");
+    Map<Integer, FinishedAttempt> finishedAttempts =
+        finished.computeIfAbsent(runDirectory, k -> new ConcurrentHashMap<>());
+    Set<Integer> attemptNums = new HashSet<>();
 
     // For n in Analysis/n/Data (accommodate reruns, ish. if more reruns appear, they won't be
     // scanned. Someone will need to invalidate the run with the API.)
@@ -35,6 +90,20 @@ public class ProcessDragen {
       for (File analysisAttempt : Objects.requireNonNull(analysisDir.listFiles())) {
         if (analysisAttempt.isDirectory() && analysisAttempt.getName().matches(NUMERAL)) {
           int attemptNum = Integer.parseInt(analysisAttempt.getName());
+          attemptNums.add(attemptNum);
+          Optional<FileTime> samplesheetTime =
+              modifiedTime(new File(analysisAttempt, "Data/BCLConvert/SampleSheet.csv"));
+          Optional<FileTime> completeTime =
+              modifiedTime(new File(analysisAttempt, "Data/Secondary_Analysis_Complete.txt"));
+          FinishedAttempt finishedAttempt = finishedAttempts.get(attemptNum);
+          if (finishedAttempt != null
+              && finishedAttempt.samplesheetTime().equals(samplesheetTime)
+              && finishedAttempt.completeTime().equals(completeTime)) {
+            attempts.labelValues("finished").inc();
+            dto.addPipelineRun(finishedAttempt.pipelineRun());
+            continue;
+          }
+          attempts.labelValues("scanned").inc();
           dragenPipelineRun = new DragenPipelineRun(attemptNum);
           Samplesheet samplesheet;
           try {
@@ -56,6 +125,8 @@ public class ProcessDragen {
           if (samplesheet.noneExpected()) {
             dragenPipelineRun.setPipelineStatus(PipelineStatus.UNSUPPORTED);
             dto.addPipelineRun(dragenPipelineRun);
+            finishedAttempts.put(
+                attemptNum, new FinishedAttempt(samplesheetTime, completeTime, dragenPipelineRun));
             continue;
           }
 
@@ -67,6 +138,9 @@ public class ProcessDragen {
             if (bclConvertSection.getSoftwareVersion().compareTo(new Semver(4, 1, 7)) < 0) {
               dragenPipelineRun.setPipelineStatus(PipelineStatus.UNSUPPORTED);
               dto.addPipelineRun(dragenPipelineRun);
+              finishedAttempts.put(
+                  attemptNum,
+                  new FinishedAttempt(samplesheetTime, completeTime, dragenPipelineRun));
               continue;
             }
 
@@ -99,11 +173,18 @@ public class ProcessDragen {
           if (allComplete) {
             dragenPipelineRun.setPipelineStatus(PipelineStatus.COMPLETE);
             dto.addPipelineRun(dragenPipelineRun);
+            finishedAttempts.put(
+                attemptNum, new FinishedAttempt(samplesheetTime, completeTime, dragenPipelineRun));
+          } else {
+            finishedAttempts.remove(attemptNum);
           }
         }
       }
+      // Forget attempts that have been removed
+      finishedAttempts.keySet().retainAll(attemptNums);
     } else { // Analysis dir does not exist - we are not expecting DRAGEN for this run.
       dto.setAnalysisExpected(false);
+      finished.remove(runDirectory);
     }
 
     return dto;
@@ -496,6 +496,18 @@ public class DefaultUltima extends RunProcessor {
     return PathType.VIRTUAL;
   }
 
+  @Override
+  public OptionalDouble getProgress(NotificationDto dto) {
+    if (dto instanceof UltimaNotificationDto) {
+      UltimaNotificationDto ultimaDto = (UltimaNotificationDto) dto;
+      if (ultimaDto.getExpectedFlows() > 0) {
+        return OptionalDouble.of(
+            Math.min(1.0, (double) ultimaDto.getCompletedFlows() / ultimaDto.getExpectedFlows()));
+      }
+    }
+    return OptionalDouble.empty();
+  }
+
   private List<String> getPoolsFromSampleDB(String ampSamplePlate) {
     List<JsonNode> pools = new ArrayList<>();
     List<String> poolNames = new ArrayList<>();
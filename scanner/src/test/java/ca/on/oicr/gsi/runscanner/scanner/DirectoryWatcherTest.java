@@ -0,0 +1,129 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.dto.type.Platform;
+import ca.on.oicr.gsi.runscanner.scanner.processor.PromethionProcessor;
+import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor;
+import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor.Builder;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryWatcherTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final BlockingQueue<Set<File>> changes = new LinkedBlockingQueue<>();
+  private Configuration configuration;
+  private DirectoryWatcher watcher;
+
+  @Before
+  public void setUp() throws IOException {
+    configuration = new Configuration();
+    configuration.setPath(folder.getRoot());
+    configuration.setTimeZone(TimeZone.getTimeZone("America/Toronto"));
+    configuration.setProcessor(
+        RunProcessor.processorFor(
+                Platform.ILLUMINA, "default", JsonNodeFactory.instance.objectNode())
+            .get());
+    watcher =
+        DirectoryWatcher.create(
+            (root, directories) -> changes.add(directories), Duration.ofMillis(200));
+    watcher.watchRoots(Collections.singletonList(configuration));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    watcher.close();
+  }
+
+  private Set<File> nextChange() throws InterruptedException {
+    // Some platforms poll for changes rather than being notified, so be generous
+    return changes.poll(30, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testNewRunIsReported() throws IOException, InterruptedException {
+    assertTrue(watcher.isWatching(folder.getRoot()));
+
+    File run = folder.newFolder("240601_A00001_0001_AHXXXXXXXX");
+
+    assertEquals(Collections.singleton(run), nextChange());
+  }
+
+  @Test
+  public void testOnlyMarkersInRunAreReported() throws IOException, InterruptedException {
+    File run = folder.newFolder("240601_A00001_0001_AHXXXXXXXX");
+    assertNotNull(nextChange());
+    watcher.watchRun(configuration, run);
+
+    new File(run, "RunInfo.xml").createNewFile();
+    new File(run, "CopyComplete.txt").createNewFile();
+
+    assertEquals(Collections.singleton(run), nextChange());
+    assertNull(changes.poll(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testNestedRunIsFoundWithoutListingRoot() throws IOException, InterruptedException {
+    File sample = folder.newFolder("exp1", "sample1");
+    Configuration nanopore = new Configuration();
+    nanopore.setPath(folder.getRoot());
+    nanopore.setTimeZone(TimeZone.getTimeZone("America/Toronto"));
+    nanopore.setProcessor(
+        new PromethionProcessor(new Builder(Platform.OXFORDNANOPORE, "promethion", null)) {
+          @Override
+          public Stream<File> getRunsFromRoot(File root) {
+            throw new AssertionError("Whole root listed for " + root);
+          }
+        });
+    // Start watching after the experiment and sample directories exist, so only the new run can be
+    // reported
+    watcher.close();
+    watcher =
+        DirectoryWatcher.create(
+            (root, directories) -> changes.add(directories), Duration.ofMillis(200));
+    watcher.watchRoots(Collections.singletonList(nanopore));
+
+    File run = new File(sample, "20240101_1200_1A_PAW00001_aaaa");
+    assertTrue(run.mkdir());
+    assertTrue(new File(run, "pod5_pass").mkdir());
+
+    // The run directory and its reads directory may be reported together or separately
+    Set<File> found = new HashSet<>();
+    for (Set<File> changed = nextChange(); changed != null; changed = nextChange()) {
+      for (File path : changed) {
+        nanopore.getProcessor().getRunsFromDirectory(folder.getRoot(), path).forEach(found::add);
+      }
+      if (!found.isEmpty()) {
+        break;
+      }
+    }
+    assertEquals(Collections.singleton(run), found);
+    ((PromethionProcessor) nanopore.getProcessor()).close();
+  }
+
+  @Test
+  public void testUnwatchedRootIsNotReported() throws IOException, InterruptedException {
+    watcher.unwatch(folder.getRoot());
+    watcher.watchRoots(Collections.singletonList(configuration));
+
+    assertFalse(watcher.isWatching(folder.getRoot()));
+    folder.newFolder("240601_A00001_0001_AHXXXXXXXX");
+    assertNull(changes.poll(1, TimeUnit.SECONDS));
+  }
+}
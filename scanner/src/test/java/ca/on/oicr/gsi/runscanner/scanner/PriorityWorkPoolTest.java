@@ -0,0 +1,139 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.scanner.PriorityWorkPool.Priority;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class PriorityWorkPoolTest {
+  private final CountDownLatch blocker = new CountDownLatch(1);
+  private final List<String> dropped = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+  private PriorityWorkPool pool;
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /** Occupy the only thread in the pool so that everything else submitted waits in the queue. */
+  private void block() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    pool.submit(
+        Priority.NEW,
+        () -> {
+          started.countDown();
+          try {
+            blocker.await();
+          } catch (InterruptedException e) {
+            // Finish early
+          }
+        },
+        () -> {});
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+  }
+
+  private boolean submit(Priority priority, String name) {
+    return pool.submit(priority, () -> order.add(name), () -> dropped.add(name));
+  }
+
+  private void drain() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    pool.submit(Priority.RETRY, done::countDown, () -> {});
+    blocker.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testMostUrgentRunsFirstInSubmissionOrder() throws InterruptedException {
+    pool = new PriorityWorkPool("test", 1, 100);
+    block();
+
+    submit(Priority.RETRY, "retryA");
+    submit(Priority.RECHECK, "recheckA");
+    submit(Priority.NEW, "newA");
+    submit(Priority.RECHECK, "recheckB");
+    submit(Priority.NEAR_COMPLETION, "nearA");
+    submit(Priority.NEW, "newB");
+    drain();
+
+    assertEquals(Arrays.asList("newA", "newB", "nearA", "recheckA", "recheckB", "retryA"), order);
+    assertTrue(dropped.isEmpty());
+  }
+
+  @Test
+  public void testFullQueueDisplacesLeastUrgent() throws InterruptedException {
+    pool = new PriorityWorkPool("test", 1, 3);
+    block();
+
+    assertTrue(submit(Priority.RECHECK, "recheckA"));
+    assertTrue(submit(Priority.RETRY, "retryA"));
+    assertTrue(submit(Priority.RETRY, "retryB"));
+    assertTrue(submit(Priority.NEW, "newA"));
+    assertFalse(submit(Priority.RETRY, "retryC"));
+    assertTrue(submit(Priority.NEW, "newB"));
+    assertFalse(submit(Priority.RECHECK, "recheckB"));
+
+    assertEquals(Arrays.asList("retryB", "retryA"), dropped);
+    // Leave room for the sentinel
+    pool.setCapacity(4);
+    drain();
+    assertEquals(Arrays.asList("newA", "newB", "recheckA"), order);
+  }
+
+  @Test
+  public void testRunsWithoutPermitsAreSkipped() throws InterruptedException {
+    pool = new PriorityWorkPool("test", 2, 100);
+    Semaphore permits = new Semaphore(1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch other = new CountDownLatch(1);
+    pool.submit(
+        Priority.NEW,
+        permits,
+        () -> {
+          started.countDown();
+          try {
+            blocker.await();
+          } catch (InterruptedException e) {
+            // Finish early
+          }
+        },
+        () -> {});
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    pool.submit(Priority.NEW, permits, () -> order.add("sameSequencer"), () -> {});
+    pool.submit(Priority.RETRY, () -> order.add("otherSequencer"), () -> {});
+    pool.submit(Priority.RETRY, other::countDown, () -> {});
+    assertTrue(other.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("otherSequencer"), order);
+
+    blocker.countDown();
+    CountDownLatch done = new CountDownLatch(1);
+    pool.submit(Priority.RETRY, permits, done::countDown, () -> {});
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("otherSequencer", "sameSequencer"), order);
+  }
+
+  @Test
+  public void testShutdownDropsWaitingRuns() throws InterruptedException {
+    pool = new PriorityWorkPool("test", 1, 100);
+    block();
+
+    assertTrue(submit(Priority.NEW, "newA"));
+    assertTrue(submit(Priority.RECHECK, "recheckA"));
+    pool.shutdown();
+    assertFalse(submit(Priority.NEW, "newB"));
+    blocker.countDown();
+
+    assertEquals(Arrays.asList("newA", "recheckA"), dropped);
+    assertTrue(order.isEmpty());
+  }
+}
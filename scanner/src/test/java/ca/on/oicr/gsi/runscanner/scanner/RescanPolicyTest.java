@@ -0,0 +1,103 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.Test;
+
+public class RescanPolicyTest {
+  private static RescanPolicy parse(String json) throws IOException {
+    return new ObjectMapper().readValue(json, RescanPolicy.class);
+  }
+
+  @Test
+  public void testDefaultsMatchFixedDelays() {
+    RescanPolicy policy = new RescanPolicy();
+
+    assertTrue(policy.isValid());
+    assertEquals(
+        Duration.ofMinutes(10), policy.rescanDelay(HealthType.RUNNING, 0, Optional.empty()));
+    assertEquals(
+        Duration.ofMinutes(10), policy.rescanDelay(HealthType.RUNNING, 50, Optional.empty()));
+    assertEquals(Duration.ofMinutes(20), policy.retryDelay(1));
+    assertEquals(Duration.ofMinutes(20), policy.retryDelay(10));
+  }
+
+  @Test
+  public void testUnchangedRunsBackOffToMaximum() throws IOException {
+    RescanPolicy policy = parse("{\"delay\":10,\"maximumDelay\":120,\"backoff\":2}");
+
+    assertTrue(policy.isValid());
+    assertEquals(
+        Duration.ofMinutes(10), policy.rescanDelay(HealthType.RUNNING, 0, Optional.empty()));
+    assertEquals(
+        Duration.ofMinutes(40), policy.rescanDelay(HealthType.RUNNING, 2, Optional.empty()));
+    assertEquals(
+        Duration.ofMinutes(120), policy.rescanDelay(HealthType.RUNNING, 10, Optional.empty()));
+  }
+
+  @Test
+  public void testFailuresBackOffToMaximum() throws IOException {
+    RescanPolicy policy = parse("{\"failureDelay\":20,\"maximumFailureDelay\":600,\"backoff\":3}");
+
+    assertEquals(Duration.ofMinutes(20), policy.retryDelay(1));
+    assertEquals(Duration.ofMinutes(60), policy.retryDelay(2));
+    assertEquals(Duration.ofMinutes(600), policy.retryDelay(6));
+  }
+
+  @Test
+  public void testHealthDelayOverridesBackoff() throws IOException {
+    RescanPolicy policy =
+        parse("{\"maximumDelay\":60,\"backoff\":2,\"healthDelays\":{\"UNKNOWN\":240}}");
+
+    assertEquals(
+        Duration.ofMinutes(240), policy.rescanDelay(HealthType.UNKNOWN, 0, Optional.empty()));
+    assertEquals(
+        Duration.ofMinutes(20), policy.rescanDelay(HealthType.RUNNING, 1, Optional.empty()));
+  }
+
+  @Test
+  public void testRunNearCompletionIsScannedSooner() throws IOException {
+    RescanPolicy policy =
+        parse("{\"delay\":30,\"maximumDelay\":240,\"backoff\":2,\"earliestDelay\":5}");
+
+    assertEquals(
+        Duration.ofMinutes(12),
+        policy.rescanDelay(HealthType.RUNNING, 3, Optional.of(Duration.ofMinutes(12))));
+    assertEquals(
+        Duration.ofMinutes(5),
+        policy.rescanDelay(HealthType.RUNNING, 3, Optional.of(Duration.ofMinutes(1))));
+    assertEquals(
+        Duration.ofMinutes(30),
+        policy.rescanDelay(HealthType.RUNNING, 0, Optional.of(Duration.ofHours(10))));
+  }
+
+  @Test
+  public void testEstimateRemaining() {
+    Instant start = Instant.parse("2024-06-01T00:00:00Z");
+
+    assertEquals(
+        Optional.of(Duration.ofHours(1)),
+        RescanPolicy.estimateRemaining(0.5, start, 0.75, start.plus(Duration.ofHours(1))));
+    assertEquals(
+        Optional.empty(),
+        RescanPolicy.estimateRemaining(0.5, start, 0.5, start.plus(Duration.ofHours(1))));
+    assertEquals(
+        Optional.empty(),
+        RescanPolicy.estimateRemaining(0.5, start, 1.0, start.plus(Duration.ofHours(1))));
+  }
+
+  @Test
+  public void testInvalidPolicies() throws IOException {
+    assertFalse(parse("{\"backoff\":0.5}").isValid());
+    assertFalse(parse("{\"delay\":10,\"maximumDelay\":5}").isValid());
+    assertFalse(parse("{\"delay\":10,\"earliestDelay\":20}").isValid());
+    assertFalse(parse("{\"failureDelay\":0}").isValid());
+    assertFalse(parse("{\"healthDelays\":{\"UNKNOWN\":0}}").isValid());
+  }
+}
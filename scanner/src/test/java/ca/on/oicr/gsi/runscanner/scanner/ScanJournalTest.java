@@ -0,0 +1,165 @@
+package ca.on.oicr.gsi.runscanner.scanner;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.dto.IlluminaNotificationDto;
+import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
+import ca.on.oicr.gsi.runscanner.scanner.ScanJournal.Record;
+import ca.on.oicr.gsi.runscanner.scanner.ScanJournal.RecordType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScanJournalTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static IlluminaNotificationDto makeDto(String runAlias) {
+    IlluminaNotificationDto dto = new IlluminaNotificationDto();
+    dto.setRunAlias(runAlias);
+    dto.setHealthType(HealthType.RUNNING);
+    dto.setStartDate(Instant.parse("2024-05-31T12:00:00Z"));
+    return dto;
+  }
+
+  @Test
+  public void testRecordsSurviveReopening() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    File run = new File("/data/sequencerA/run1");
+    Instant created = Instant.parse("2024-06-01T00:00:00Z");
+    try (ScanJournal journal = ScanJournal.open(file, Stream.of(Record.token(42)))) {
+      journal.append(
+          Record.finished(run, 3, created, created.plusSeconds(600), 2, makeDto("run1")));
+      journal.append(Record.invalidated(run));
+    }
+
+    List<Record> records = ScanJournal.read(file);
+
+    assertEquals(3, records.size());
+    assertEquals(RecordType.TOKEN, records.get(0).getType());
+    assertEquals(Long.valueOf(42), records.get(0).getToken());
+    assertEquals(RecordType.FINISHED, records.get(1).getType());
+    assertEquals(run.getPath(), records.get(1).getPath());
+    assertEquals(Integer.valueOf(3), records.get(1).getEpoch());
+    assertEquals(created, records.get(1).getTime());
+    assertEquals(created.plusSeconds(600), records.get(1).getNextScan());
+    assertEquals(Integer.valueOf(2), records.get(1).getRepeats());
+    assertEquals(makeDto("run1"), records.get(1).getDto());
+    assertEquals(RecordType.INVALIDATED, records.get(2).getType());
+  }
+
+  @Test
+  public void testUnchangedRecordOmitsResult() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    File run = new File("/data/sequencerA/run1");
+    Instant created = Instant.parse("2024-06-01T00:00:00Z");
+    try (ScanJournal journal = ScanJournal.open(file, Stream.of(Record.token(42)))) {
+      journal.append(Record.unchanged(run, 4, created, created.plusSeconds(1200), 3));
+    }
+
+    List<Record> records = ScanJournal.read(file);
+
+    assertEquals(2, records.size());
+    assertEquals(RecordType.UNCHANGED, records.get(1).getType());
+    assertEquals(run.getPath(), records.get(1).getPath());
+    assertEquals(Integer.valueOf(4), records.get(1).getEpoch());
+    assertEquals(created, records.get(1).getTime());
+    assertEquals(created.plusSeconds(1200), records.get(1).getNextScan());
+    assertEquals(Integer.valueOf(3), records.get(1).getRepeats());
+    assertNull(records.get(1).getDto());
+  }
+
+  @Test
+  public void testConcurrentAppendsAreAllWritten() throws Exception {
+    File file = new File(folder.getRoot(), "journal");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (ScanJournal journal = ScanJournal.open(file, Stream.empty())) {
+      List<Future<Void>> futures =
+          executor.invokeAll(
+              IntStream.range(0, 4)
+                  .<Callable<Void>>mapToObj(
+                      thread ->
+                          () -> {
+                            for (int i = 0; i < 50; i++) {
+                              journal.append(Record.token(thread * 50 + i));
+                            }
+                            return null;
+                          })
+                  .collect(Collectors.toList()));
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(
+        LongStream.range(0, 200).boxed().collect(Collectors.toSet()),
+        ScanJournal.read(file).stream().map(Record::getToken).collect(Collectors.toSet()));
+  }
+
+  @Test
+  public void testCompactionReplacesContents() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    try (ScanJournal journal = ScanJournal.open(file, Stream.of(Record.token(1)))) {
+      journal.append(
+          Record.failed(
+              new File("/data/sequencerA/run1"),
+              Instant.EPOCH,
+              1,
+              Instant.EPOCH.plusSeconds(1200),
+              "Processing took longer than 60 minutes"));
+      journal.compact(Stream.of(Record.token(2)));
+    }
+
+    List<Record> records = ScanJournal.read(file);
+
+    assertEquals(1, records.size());
+    assertEquals(Long.valueOf(2), records.get(0).getToken());
+  }
+
+  @Test
+  public void testIncompleteLastLineIsDiscarded() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    ScanJournal.open(file, Stream.of(Record.token(7))).close();
+    Files.write(
+        file.toPath(),
+        "{\"type\":\"FINISHED\",\"pa".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    List<Record> records = ScanJournal.read(file);
+
+    assertEquals(1, records.size());
+    assertEquals(Long.valueOf(7), records.get(0).getToken());
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptJournalIsRejected() throws IOException {
+    File file = new File(folder.getRoot(), "journal");
+    Files.write(
+        file.toPath(),
+        List.of("garbage", "{\"type\":\"TOKEN\",\"token\":7}"),
+        StandardCharsets.UTF_8);
+
+    ScanJournal.read(file);
+  }
+
+  @Test
+  public void testMissingJournalIsEmpty() throws IOException {
+    assertTrue(ScanJournal.read(new File(folder.getRoot(), "missing")).isEmpty());
+  }
+}
@@ -3,15 +3,31 @@ package ca.on.oicr.gsi.runscanner.scanner;
 import static org.junit.Assert.*;
 
 import ca.on.oicr.gsi.Pair;
+import ca.on.oicr.gsi.runscanner.dto.IlluminaNotificationDto;
+import ca.on.oicr.gsi.runscanner.dto.NotificationDto;
+import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
+import ca.on.oicr.gsi.runscanner.scanner.Scheduler.OutputSizeLimit;
+import ca.on.oicr.gsi.runscanner.scanner.Scheduler.SequencerPermits;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class SchedulerTest {
+  private static final int LARGE_CACHE_SIZE = 50_000;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
 
   private static Configuration makeConfiguration(String path) {
     Configuration configuration = new Configuration();
@@ -23,6 +39,38 @@ public class SchedulerTest {
     return new Pair<>(new File(configuration.getPath(), runName), configuration);
   }
 
+  private static NotificationDto makeDto(String runAlias) {
+    IlluminaNotificationDto dto = new IlluminaNotificationDto();
+    dto.setRunAlias(runAlias);
+    dto.setHealthType(HealthType.COMPLETED);
+    return dto;
+  }
+
+  /** Create a scheduler whose cache holds the requested number of runs, one per epoch. */
+  private Scheduler makeScheduler(int runCount) throws IOException {
+    return makeScheduler(
+        IntStream.rangeClosed(1, runCount)
+            .mapToObj(
+                run ->
+                    ScanJournal.Record.finished(
+                        new File("/data/sequencerA/run" + run),
+                        run,
+                        Instant.EPOCH,
+                        null,
+                        0,
+                        makeDto("run" + run))));
+  }
+
+  /** Create a scheduler whose cache is restored from the supplied journal records. */
+  private Scheduler makeScheduler(Stream<ScanJournal.Record> records) throws IOException {
+    File journal = new File(folder.getRoot(), "journal");
+    ScanJournal.open(journal, Stream.concat(Stream.of(ScanJournal.Record.token(1)), records))
+        .close();
+    Scheduler scheduler = new Scheduler();
+    scheduler.setJournalFile(journal.getPath());
+    return scheduler;
+  }
+
   private static List<Pair<File, Configuration>> runsFor(
       Configuration configuration, String... runNames) {
     return Arrays.stream(runNames)
@@ -149,4 +197,200 @@ public class SchedulerTest {
 
     assertFalse(Scheduler.skipSubDirectory(currentDirectory, ignoreDirectories, baseDirectory));
   }
+
+  @Test
+  public void testProgressiveOnlyVisitsRunsSinceEpoch() throws IOException {
+    Scheduler scheduler = makeScheduler(LARGE_CACHE_SIZE);
+    OutputSizeLimit limit = new OutputSizeLimit(100);
+    AtomicInteger visited = new AtomicInteger();
+
+    List<String> updates =
+        scheduler
+            .finished(
+                LARGE_CACHE_SIZE - 4,
+                work -> {
+                  visited.incrementAndGet();
+                  return limit.test(work);
+                })
+            .map(NotificationDto::getRunAlias)
+            .collect(Collectors.toList());
+
+    assertEquals(
+        Arrays.asList("run49996", "run49997", "run49998", "run49999", "run50000"), updates);
+    assertEquals(5, visited.get());
+    assertEquals(LARGE_CACHE_SIZE, limit.getEpoch());
+    assertTrue(limit.hasCapacity());
+  }
+
+  @Test
+  public void testProgressiveStopsAtLimit() throws IOException {
+    Scheduler scheduler = makeScheduler(LARGE_CACHE_SIZE);
+    OutputSizeLimit limit = new OutputSizeLimit(500);
+    AtomicInteger visited = new AtomicInteger();
+
+    List<NotificationDto> updates =
+        scheduler
+            .finished(
+                0,
+                work -> {
+                  visited.incrementAndGet();
+                  return limit.test(work);
+                })
+            .collect(Collectors.toList());
+
+    assertEquals(500, updates.size());
+    assertEquals("run1", updates.get(0).getRunAlias());
+    assertEquals("run500", updates.get(499).getRunAlias());
+    assertEquals(501, visited.get());
+    assertEquals(500, limit.getEpoch());
+    assertFalse(limit.hasCapacity());
+  }
+
+  @Test
+  public void testInvalidateRemovesFromProgressive() throws IOException {
+    Scheduler scheduler = makeScheduler(10);
+
+    assertTrue(scheduler.invalidate("run10"));
+    assertFalse(scheduler.invalidate("run10"));
+
+    assertEquals(
+        Arrays.asList("run8", "run9"),
+        scheduler
+            .finished(8, new OutputSizeLimit(100))
+            .map(NotificationDto::getRunAlias)
+            .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testAliasLookupPrefersMostRecentlyProcessed() throws IOException {
+    NotificationDto older = makeDto("run1");
+    older.setSequencerName("sequencerA");
+    NotificationDto newer = makeDto("run1");
+    newer.setSequencerName("sequencerB");
+    Scheduler scheduler =
+        makeScheduler(
+            Stream.of(
+                ScanJournal.Record.finished(
+                    new File("/data/sequencerB/run1"), 2, Instant.EPOCH, null, 0, newer),
+                ScanJournal.Record.finished(
+                    new File("/data/sequencerA/run1"), 1, Instant.EPOCH, null, 0, older)));
+
+    assertEquals(newer, scheduler.finishedByAlias("run1").orElse(null));
+    assertFalse(scheduler.finishedByAlias("run2").isPresent());
+  }
+
+  @Test
+  public void testAliasLookupFollowsReprocessing() throws IOException {
+    File directory = new File("/data/sequencerA/run1");
+    Scheduler scheduler =
+        makeScheduler(
+            Stream.of(
+                ScanJournal.Record.finished(
+                    directory, 1, Instant.EPOCH, null, 0, makeDto("oldAlias")),
+                ScanJournal.Record.finished(
+                    directory, 2, Instant.EPOCH, null, 0, makeDto("newAlias"))));
+
+    assertFalse(scheduler.finishedByAlias("oldAlias").isPresent());
+    assertEquals("newAlias", scheduler.finishedByAlias("newAlias").get().getRunAlias());
+  }
+
+  @Test
+  public void testUnchangedRecordKeepsPreviousResult() throws IOException {
+    File directory = new File("/data/sequencerA/run1");
+    Scheduler scheduler =
+        makeScheduler(
+            Stream.of(
+                ScanJournal.Record.finished(directory, 1, Instant.EPOCH, null, 0, makeDto("run1")),
+                ScanJournal.Record.finished(
+                    new File("/data/sequencerA/run2"), 2, Instant.EPOCH, null, 0, makeDto("run2")),
+                ScanJournal.Record.unchanged(directory, 3, Instant.EPOCH, null, 1),
+                ScanJournal.Record.unchanged(
+                    new File("/data/sequencerA/unknown"), 4, Instant.EPOCH, null, 1)));
+
+    assertEquals(3, scheduler.getEpoch());
+    assertEquals(2, scheduler.getFinishedDirectories().size());
+    assertEquals(makeDto("run1"), scheduler.finishedByAlias("run1").orElse(null));
+    assertEquals(
+        Arrays.asList("run2", "run1"),
+        scheduler.finished().map(NotificationDto::getRunAlias).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testInvalidateRemovesFromAliasLookup() throws IOException {
+    Scheduler scheduler = makeScheduler(10);
+
+    assertTrue(scheduler.finishedByAlias("run3").isPresent());
+    assertTrue(scheduler.invalidate("run3"));
+
+    assertFalse(scheduler.finishedByAlias("run3").isPresent());
+    assertTrue(scheduler.finishedByAlias("run4").isPresent());
+  }
+
+  @Test
+  public void testKnownRunsAreDueForRecheckOrRetry() throws IOException {
+    File root = folder.newFolder("sequencer");
+    File due = new File(root, "due");
+    File later = new File(root, "later");
+    File done = new File(root, "done");
+    File retry = new File(root, "retry");
+    File elsewhere = folder.newFolder("elsewhere", "run");
+    for (File run : Arrays.asList(due, later, done, retry)) {
+      assertTrue(run.mkdir());
+    }
+    NotificationDto running = makeDto("running");
+    running.setHealthType(HealthType.RUNNING);
+    Instant past = Instant.now().minusSeconds(60);
+    Instant future = Instant.now().plusSeconds(3600);
+    Scheduler scheduler =
+        makeScheduler(
+            Stream.of(
+                ScanJournal.Record.finished(due, 1, Instant.EPOCH, past, 0, running),
+                ScanJournal.Record.finished(later, 2, Instant.EPOCH, future, 0, running),
+                ScanJournal.Record.finished(done, 3, Instant.EPOCH, past, 0, makeDto("done")),
+                ScanJournal.Record.finished(elsewhere, 4, Instant.EPOCH, past, 0, running),
+                ScanJournal.Record.failed(retry, Instant.EPOCH, 1, past, "error")));
+    Configuration configuration = makeConfiguration(root.getPath());
+    configuration.setIgnoreSubdirectories(Collections.emptyList());
+
+    assertEquals(
+        Set.of(due, retry),
+        scheduler.knownRuns(configuration).stream().map(Pair::first).collect(Collectors.toSet()));
+  }
+
+  @Test
+  public void testSequencerPermitsResizeWhileHeld() {
+    SequencerPermits permits = new SequencerPermits(2);
+    assertTrue(permits.tryAcquire(2));
+
+    permits.resize(1);
+    permits.release(2);
+    assertEquals(1, permits.availablePermits());
+
+    permits.resize(3);
+    assertEquals(3, permits.availablePermits());
+  }
+
+  @Test
+  public void testReloadKeepsUnchangedProcessors() throws IOException {
+    File configurationFile = folder.newFile("config.json");
+    String sequencer =
+        "{\"path\": \"/data/%s\", \"platformType\": \"ULTIMA\", \"name\": \"testing\","
+            + " \"timeZone\": \"America/Toronto\", \"parameters\": {\"level\": %d}}";
+    Files.writeString(
+        configurationFile.toPath(),
+        "[" + String.format(sequencer, "a", 1) + "," + String.format(sequencer, "b", 1) + "]");
+    Scheduler scheduler = new Scheduler();
+    scheduler.setConfigurationFile(configurationFile.getPath());
+    List<Configuration> before = scheduler.getConfiguration().collect(Collectors.toList());
+
+    Files.writeString(
+        configurationFile.toPath(),
+        "[" + String.format(sequencer, "a", 1) + "," + String.format(sequencer, "b", 2) + "]");
+    scheduler.setConfigurationFile(configurationFile.getPath());
+    List<Configuration> after = scheduler.getConfiguration().collect(Collectors.toList());
+
+    assertSame(before.get(0).getProcessor(), after.get(0).getProcessor());
+    assertNotNull(after.get(1).getProcessor());
+    assertNotSame(before.get(1).getProcessor(), after.get(1).getProcessor());
+  }
 }
@@ -0,0 +1,98 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BaseCallsCheckTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path baseCalls;
+  private final BaseCallsCheck check = new BaseCallsCheck(4);
+  private File run;
+
+  @Before
+  public void setUp() throws IOException {
+    run = folder.newFolder("run");
+    baseCalls = Files.createDirectories(run.toPath().resolve("Data/Intensities/BaseCalls"));
+  }
+
+  @After
+  public void tearDown() {
+    check.close();
+  }
+
+  private Path writeCycle(int lane, int cycle, int tiles) throws IOException {
+    Path cycleDir =
+        Files.createDirectories(
+            baseCalls.resolve(String.format("L%03d", lane)).resolve(String.format("C%d.1", cycle)));
+    for (int tile = 1; tile <= tiles; tile++) {
+      Files.createFile(cycleDir.resolve(String.format("s_%d_%d.bcl.gz", lane, 1100 + tile)));
+    }
+    return cycleDir;
+  }
+
+  @Test
+  public void testAllCyclesComplete() throws IOException, ExecutionException, InterruptedException {
+    for (int lane = 1; lane <= 2; lane++) {
+      for (int cycle = 1; cycle <= 3; cycle++) {
+        writeCycle(lane, cycle, 2);
+      }
+    }
+
+    assertTrue(check.isComplete(run, baseCalls, 2, 3, 2));
+  }
+
+  @Test
+  public void testIncompleteCycle() throws IOException, ExecutionException, InterruptedException {
+    writeCycle(1, 1, 2);
+    writeCycle(1, 2, 1);
+
+    assertFalse(check.isComplete(run, baseCalls, 1, 2, 2));
+  }
+
+  @Test
+  public void testCompleteCyclesAreRemembered()
+      throws IOException, ExecutionException, InterruptedException {
+    Path first = writeCycle(1, 1, 2);
+    writeCycle(1, 2, 1);
+    assertFalse(check.isComplete(run, baseCalls, 1, 2, 2));
+
+    // If the first cycle were listed again, it would now be incomplete
+    Files.delete(first.resolve("s_1_1101.bcl.gz"));
+    Files.createFile(baseCalls.resolve("L001/C2.1/s_1_1102.bcl.gz"));
+
+    assertTrue(check.isComplete(run, baseCalls, 1, 2, 2));
+
+    check.forget(run);
+    assertFalse(check.isComplete(run, baseCalls, 1, 2, 2));
+  }
+
+  @Test
+  public void testNextSeqLaneFiles() throws IOException, ExecutionException, InterruptedException {
+    writeCycle(1, 1, 1);
+    Path lane = baseCalls.resolve("L001");
+    Files.createFile(lane.resolve("0001.bcl.bgzf"));
+    Files.createFile(lane.resolve("0002.bcl.bgzf"));
+
+    assertTrue(check.isComplete(run, baseCalls, 1, 2, 2));
+  }
+
+  @Test
+  public void testCheckAfterClose() throws IOException, ExecutionException, InterruptedException {
+    writeCycle(1, 1, 2);
+    writeCycle(1, 2, 2);
+    check.close();
+
+    assertTrue(check.isComplete(run, baseCalls, 1, 2, 2));
+  }
+}
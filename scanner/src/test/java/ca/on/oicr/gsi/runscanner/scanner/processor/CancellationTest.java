@@ -0,0 +1,56 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CancellationTest {
+
+  @Test
+  public void testCancelRunsActionsAndInterrupts() {
+    AtomicInteger killed = new AtomicInteger();
+    Cancellation cancellation = Cancellation.begin();
+    Cancellation.onCancel(killed::incrementAndGet);
+
+    assertTrue(cancellation.cancel());
+    assertFalse(cancellation.cancel());
+    assertEquals(1, killed.get());
+    assertTrue(Thread.interrupted());
+    assertFalse(cancellation.finish());
+
+    // Actions registered after cancelling are taken right away
+    Cancellation.onCancel(killed::incrementAndGet);
+    assertEquals(1, killed.get());
+  }
+
+  @Test
+  public void testPausedTimeIsNotActive() throws InterruptedException {
+    Cancellation cancellation = Cancellation.begin();
+    try (Cancellation.Pause pause = Cancellation.pause()) {
+      Thread.sleep(200);
+      assertTrue(cancellation.getActiveTime().toMillis() < 100);
+    }
+    Thread.sleep(200);
+    long active = cancellation.getActiveTime().toMillis();
+    assertTrue(active >= 200 && active < 300);
+    assertTrue(cancellation.finish());
+    assertTrue(cancellation.isDone());
+  }
+
+  @Test
+  public void testFinishedRunCannotBeCancelled() {
+    AtomicInteger killed = new AtomicInteger();
+    Cancellation cancellation = Cancellation.begin();
+    Cancellation.onCancel(killed::incrementAndGet);
+
+    assertTrue(cancellation.finish());
+    assertFalse(cancellation.cancel());
+    assertEquals(0, killed.get());
+    assertFalse(Thread.interrupted());
+
+    // Once finished, the thread is no longer tracked
+    Cancellation.onCancel(killed::incrementAndGet);
+    assertEquals(0, killed.get());
+  }
+}
@@ -0,0 +1,153 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class Fast5ReaderTest {
+  private static final File FILE = new File("reads.fast5");
+
+  /** A read that is stuck in native code, which no interruption will stop */
+  private static final class StuckRead {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final AtomicReference<Cancellation> cancellation = new AtomicReference<>();
+    private final CompletableFuture<Object> result =
+        CompletableFuture.supplyAsync(
+            () -> {
+              cancellation.set(Cancellation.begin());
+              try {
+                return Fast5Reader.run(
+                    FILE,
+                    () -> {
+                      started.countDown();
+                      boolean interrupted = false;
+                      while (true) {
+                        try {
+                          release.await();
+                          break;
+                        } catch (InterruptedException e) {
+                          interrupted = true;
+                        }
+                      }
+                      return interrupted;
+                    });
+              } catch (IOException e) {
+                return e;
+              } finally {
+                cancellation.get().finish();
+              }
+            });
+
+    private StuckRead() throws InterruptedException {
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private void cancel() throws InterruptedException, ExecutionException, TimeoutException {
+      assertTrue(cancellation.get().cancel());
+      assertTrue(result.get(5, TimeUnit.SECONDS) instanceof IOException);
+    }
+  }
+
+  private static CompletableFuture<String> readLater(String value) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return Fast5Reader.run(FILE, () -> value);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
+
+  @Test
+  public void testReadsAreRunInTurn() throws IOException, InterruptedException {
+    Thread caller = Thread.currentThread();
+    String thread = Fast5Reader.run(FILE, () -> Thread.currentThread().getName());
+    assertEquals("fast5-reader", thread);
+    assertNotEquals(caller.getName(), thread);
+  }
+
+  @Test
+  public void testFailuresAreRethrown() {
+    IOException e =
+        assertThrows(
+            IOException.class,
+            () ->
+                Fast5Reader.run(
+                    FILE,
+                    () -> {
+                      throw new IOException("Bad file");
+                    }));
+    assertEquals("Bad file", e.getMessage());
+  }
+
+  @Test
+  public void testCancelledReadDoesNotBlockNextRead()
+      throws InterruptedException, ExecutionException, TimeoutException {
+    StuckRead stuck = new StuckRead();
+    try {
+      stuck.cancel();
+      assertEquals("next", readLater("next").get(5, TimeUnit.SECONDS));
+    } finally {
+      stuck.release.countDown();
+    }
+  }
+
+  @Test
+  public void testWaitingReadsMoveToNewThread()
+      throws InterruptedException, ExecutionException, TimeoutException {
+    StuckRead stuck = new StuckRead();
+    try {
+      CompletableFuture<String> waiting = readLater("waiting");
+      try {
+        waiting.get(200, TimeUnit.MILLISECONDS);
+        fail("Read should be waiting for its turn");
+      } catch (TimeoutException e) {
+        // Expected
+      }
+      stuck.cancel();
+      assertEquals("waiting", waiting.get(5, TimeUnit.SECONDS));
+    } finally {
+      stuck.release.countDown();
+    }
+  }
+
+  @Test
+  public void testWaitingForTurnIsNotActive()
+      throws InterruptedException, ExecutionException, TimeoutException {
+    StuckRead stuck = new StuckRead();
+    try {
+      AtomicReference<Cancellation> waiter = new AtomicReference<>();
+      CountDownLatch begun = new CountDownLatch(1);
+      CompletableFuture<String> waiting =
+          CompletableFuture.supplyAsync(
+              () -> {
+                waiter.set(Cancellation.begin());
+                begun.countDown();
+                try {
+                  return Fast5Reader.run(FILE, () -> "waiting");
+                } catch (IOException e) {
+                  throw new RuntimeException(e);
+                } finally {
+                  waiter.get().finish();
+                }
+              });
+      assertTrue(begun.await(5, TimeUnit.SECONDS));
+      Thread.sleep(500);
+      assertTrue(waiter.get().getActiveTime().toMillis() < 250);
+      stuck.release.countDown();
+      assertEquals("waiting", waiting.get(5, TimeUnit.SECONDS));
+    } finally {
+      stuck.release.countDown();
+    }
+  }
+}
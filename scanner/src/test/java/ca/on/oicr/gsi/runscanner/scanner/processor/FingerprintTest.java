@@ -0,0 +1,64 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FingerprintTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private String fingerprint(File run) throws IOException {
+    return new Fingerprint()
+        .add(new File(run, "RunInfo.xml"))
+        .add(new File(run, "CopyComplete.txt"))
+        .addChildren(new File(run, "InterOp"))
+        .build();
+  }
+
+  @Test
+  public void testUnchangedRunHasSameFingerprint() throws IOException {
+    File run = folder.newFolder("run");
+    Files.writeString(new File(run, "RunInfo.xml").toPath(), "<RunInfo/>");
+
+    assertEquals(fingerprint(run), fingerprint(run));
+  }
+
+  @Test
+  public void testNewMarkerChangesFingerprint() throws IOException {
+    File run = folder.newFolder("run");
+    String before = fingerprint(run);
+
+    new File(run, "CopyComplete.txt").createNewFile();
+
+    assertNotEquals(before, fingerprint(run));
+  }
+
+  @Test
+  public void testGrowingChildChangesFingerprint() throws IOException {
+    File run = folder.newFolder("run");
+    File interOp = new File(run, "InterOp");
+    interOp.mkdir();
+    File metrics = new File(interOp, "ExtractionMetricsOut.bin");
+    Files.writeString(metrics.toPath(), "cycle 1");
+    FileTime time = FileTime.from(Instant.parse("2024-06-01T00:00:00Z"));
+    Files.setLastModifiedTime(metrics.toPath(), time);
+    String before = fingerprint(run);
+
+    Files.write(
+        metrics.toPath(),
+        "cycle 2".repeat(2).getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.TRUNCATE_EXISTING);
+    Files.setLastModifiedTime(metrics.toPath(), time);
+
+    assertNotEquals(before, fingerprint(run));
+  }
+}
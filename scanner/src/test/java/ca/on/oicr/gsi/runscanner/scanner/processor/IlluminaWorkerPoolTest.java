@@ -0,0 +1,108 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.TimeZone;
+import org.junit.After;
+import org.junit.Test;
+
+public class IlluminaWorkerPoolTest {
+  // Stands in for runscanner-illumina --daemon: echoes the run path and mode as JSON, split into
+  // two chunks, except for runs named to make it misbehave
+  private static final String FAKE_DAEMON =
+      "while IFS= read -r line; do\n"
+          + "  run=$(printf '%s' \"$line\" | awk -F '\\t' '{print $NF}')\n"
+          + "  mode=$(printf '%s' \"$line\" | awk -F '\\t' 'NF > 2 {print $2}')\n"
+          + "  case \"$run\" in\n"
+          + "    */crash) exit 1 ;;\n"
+          + "    */hang) sleep 60 ;;\n"
+          + "    */fail) printf '7\\npartial0 2\\n' ;;\n"
+          + "    */truncated) printf '100\\npartial'; exit 1 ;;\n"
+          + "    *) head=\"{\\\"run\\\":\\\"$run\\\",\"; tail=\"\\\"mode\\\":\\\"$mode\\\",\\\"pid\\\":$$}\";"
+          + " printf '%d\\n%s%d\\n%s0 0\\n' ${#head} \"$head\" ${#tail} \"$tail\" ;;\n"
+          + "  esac\n"
+          + "done\n";
+
+  private static final TimeZone TZ = TimeZone.getTimeZone("America/Toronto");
+
+  private final IlluminaWorkerPool pool =
+      new IlluminaWorkerPool(List.of("sh", "-c", FAKE_DAEMON), 1, Duration.ofSeconds(2));
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  private static String pid(String response) {
+    return response.replaceAll(".*\"pid\":([0-9]+).*", "$1");
+  }
+
+  @Test
+  public void testWorkerIsReused() throws IOException {
+    String first = pool.process(new File("/runs/run1"), TZ, false);
+    String second = pool.process(new File("/runs/run2"), TZ, false);
+
+    assertTrue(first.startsWith("{\"run\":\"/runs/run1\""));
+    assertTrue(second.startsWith("{\"run\":\"/runs/run2\""));
+    assertEquals(pid(first), pid(second));
+  }
+
+  @Test
+  public void testProgressOnlyIsRequested() throws IOException {
+    assertTrue(pool.process(new File("/runs/run1"), TZ, true).contains("\"mode\":\"progress\""));
+    assertTrue(pool.process(new File("/runs/run2"), TZ, false).contains("\"mode\":\"\""));
+  }
+
+  @Test
+  public void testFailedRunKeepsWorker() throws IOException {
+    String first = pool.process(new File("/runs/run1"), TZ, false);
+    assertThrows(IOException.class, () -> pool.process(new File("/runs/fail"), TZ, false));
+    String second = pool.process(new File("/runs/run2"), TZ, false);
+
+    assertEquals(pid(first), pid(second));
+  }
+
+  @Test
+  public void testChunksAreJoined() throws IOException {
+    assertEquals(
+        "{\"run\":\"/runs/run1\",\"mode\":\"\",\"pid\":",
+        pool.process(new File("/runs/run1"), TZ, false).replaceAll("[0-9]+}$", ""));
+  }
+
+  @Test
+  public void testTruncatedResponseRestartsWorker() throws IOException {
+    String first = pool.process(new File("/runs/run1"), TZ, false);
+    IOException e =
+        assertThrows(IOException.class, () -> pool.process(new File("/runs/truncated"), TZ, false));
+    assertTrue(e.getMessage().contains("stopped while writing"));
+    String second = pool.process(new File("/runs/run2"), TZ, false);
+
+    assertNotEquals(pid(first), pid(second));
+  }
+
+  @Test
+  public void testCrashedWorkerIsRestarted() throws IOException {
+    String first = pool.process(new File("/runs/run1"), TZ, false);
+    assertThrows(IOException.class, () -> pool.process(new File("/runs/crash"), TZ, false));
+    String second = pool.process(new File("/runs/run2"), TZ, false);
+
+    assertTrue(second.startsWith("{\"run\":\"/runs/run2\""));
+    assertNotEquals(pid(first), pid(second));
+  }
+
+  @Test
+  public void testHungWorkerIsKilled() throws IOException {
+    long start = System.nanoTime();
+    IOException e =
+        assertThrows(IOException.class, () -> pool.process(new File("/runs/hang"), TZ, false));
+
+    assertTrue(e.getMessage().contains("took longer than"));
+    assertTrue(System.nanoTime() - start < Duration.ofSeconds(30).toNanos());
+    assertTrue(
+        pool.process(new File("/runs/run1"), TZ, false).startsWith("{\"run\":\"/runs/run1\""));
+  }
+}
@@ -0,0 +1,147 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import ca.on.oicr.gsi.runscanner.dto.type.IlluminaChemistry;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+
+/**
+ * Measures how the XPath lookups done while processing Illumina runs scale across threads: the
+ * InterOp memory estimate from RunInfo.xml and the chemistry checks against RunParameters.xml, as
+ * {@link DefaultIllumina} does them, against the same checks on expressions shared by every thread
+ * behind a lock.
+ *
+ * <p>This is not run as part of the tests. Run it from the scanner directory with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=ca.on.oicr.gsi.runscanner.scanner.processor.IlluminaXPathBenchmark
+ * </pre>
+ */
+public final class IlluminaXPathBenchmark {
+  private static final int ITERATIONS = 100;
+  private static final int WARMUP = 20;
+
+  private interface Lookup {
+    void run(File runDirectory, Document runParameters) throws XPathExpressionException;
+  }
+
+  private static final XPathExpression[] SHARED =
+      RunProcessor.compileXPath(
+          "sum(//Run/Reads/Read/@NumCycles) * //FlowcellLayout/@LaneCount"
+              + " * //FlowcellLayout/@SurfaceCount * //FlowcellLayout/@SwathCount"
+              + " * //FlowcellLayout/@TileCount",
+          "contains(//FlowcellRFIDTag/SerialNumber, '-D')",
+          "contains(//FlowcellRFIDTag/SerialNumber, '-G')",
+          "//ReagentKitVersion=\"Version3\" or //Flowcell=\"HiSeq Flow Cell v3\"",
+          "//Flowcell=\"HiSeq Flow Cell v4\"",
+          "starts-with(//Flowcell, \"HiSeq Rapid Flow Cell\")",
+          "//Chemistry=\"NextSeq Mid\"",
+          "//Chemistry=\"NextSeq High\"",
+          "//Flowcell=\"HiSeq X\"",
+          "contains(//Application, 'NovaSeq')");
+
+  private static double measure(
+      int threads, List<File> runs, List<Document> runParameters, Lookup lookup)
+      throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      long start = 0;
+      for (int round = 0; round < 2; round++) {
+        if (round == 1) {
+          start = System.nanoTime();
+        }
+        int iterations = round == 0 ? WARMUP : ITERATIONS;
+        futures.clear();
+        for (int thread = 0; thread < threads; thread++) {
+          futures.add(
+              executor.submit(
+                  () -> {
+                    for (int i = 0; i < iterations; i++) {
+                      for (int run = 0; run < runs.size(); run++) {
+                        lookup.run(runs.get(run), runParameters.get(run));
+                      }
+                    }
+                    return null;
+                  }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      }
+      return (double) threads * ITERATIONS * runs.size() / ((System.nanoTime() - start) / 1e9);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException, ExecutionException {
+    File root = Path.of(IlluminaXPathBenchmark.class.getResource("/illumina").getPath()).toFile();
+    List<File> runs = new ArrayList<>();
+    List<Document> runParameters = new ArrayList<>();
+    for (File run : root.listFiles(File::isDirectory)) {
+      File[] parameters = run.listFiles((dir, name) -> name.equalsIgnoreCase("RunParameters.xml"));
+      if (parameters.length > 0) {
+        runs.add(run);
+        runParameters.add(RunProcessor.parseXml(parameters[0]).get());
+      }
+    }
+    for (int threads : new int[] {1, 2, 4, 8}) {
+      double perThread =
+          measure(
+              threads,
+              runs,
+              runParameters,
+              (run, parameters) -> {
+                DefaultIllumina.estimateInterOpMemory(run);
+                Arrays.stream(IlluminaChemistry.values()).anyMatch(c -> c.test(parameters));
+              });
+      double shared =
+          measure(
+              threads,
+              runs,
+              runParameters,
+              (run, parameters) -> {
+                // The same file reads as the estimate, so only the lookups differ
+                try (Stream<Path> files = Files.walk(new File(run, "InterOp").toPath(), 2)) {
+                  files
+                      .filter(Files::isRegularFile)
+                      .mapToLong(file -> file.toFile().length())
+                      .sum();
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+                Document runInfo = RunProcessor.parseXml(new File(run, "RunInfo.xml")).get();
+                synchronized (SHARED[0]) {
+                  SHARED[0].evaluate(runInfo, XPathConstants.NUMBER);
+                }
+                for (int i = 1; i < SHARED.length; i++) {
+                  synchronized (SHARED[i]) {
+                    if ((Boolean) SHARED[i].evaluate(parameters, XPathConstants.BOOLEAN)) {
+                      break;
+                    }
+                  }
+                }
+              });
+      System.out.printf(
+          "%2d threads: per-thread expressions %8.0f runs/s, shared and locked %8.0f runs/s (%.1fx)%n",
+          threads, perThread, shared, perThread / shared);
+    }
+  }
+}
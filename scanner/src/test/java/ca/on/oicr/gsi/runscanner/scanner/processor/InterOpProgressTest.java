@@ -0,0 +1,243 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InterOpProgressTest {
+  private static final int CORRECTED_SIZE = 48;
+  private static final int EXTRACTION_SIZE = 38;
+  private static final int QUALITY_SIZE = 206;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File interOp;
+
+  private static byte[] records(int recordSize, int tileWidth, int... laneTileCycles) {
+    ByteBuffer buffer =
+        ByteBuffer.allocate(recordSize * laneTileCycles.length / 3).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < laneTileCycles.length; i += 3) {
+      int base = recordSize * i / 3;
+      buffer.putShort(base, (short) laneTileCycles[i]);
+      if (tileWidth == 4) {
+        buffer.putInt(base + 2, laneTileCycles[i + 1]);
+      } else {
+        buffer.putShort(base + 2, (short) laneTileCycles[i + 1]);
+      }
+      buffer.putShort(base + 2 + tileWidth, (short) laneTileCycles[i + 2]);
+    }
+    return buffer.array();
+  }
+
+  private void append(String name, byte[] data) throws IOException {
+    Files.write(
+        new File(interOp, name).toPath(),
+        data,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+
+  /** Write the same records to all three files, in their oldest supported formats */
+  private void appendAll(int... laneTileCycles) throws IOException {
+    append("ExtractionMetricsOut.bin", records(EXTRACTION_SIZE, 2, laneTileCycles));
+    append("CorrectedIntMetricsOut.bin", records(CORRECTED_SIZE, 2, laneTileCycles));
+    append("QMetricsOut.bin", records(QUALITY_SIZE, 2, laneTileCycles));
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    interOp = folder.newFolder("InterOp");
+    append("ExtractionMetricsOut.bin", new byte[] {2, EXTRACTION_SIZE});
+    append("CorrectedIntMetricsOut.bin", new byte[] {2, CORRECTED_SIZE});
+    append("QMetricsOut.bin", new byte[] {4, (byte) QUALITY_SIZE});
+  }
+
+  @Test
+  public void testReadsAppendedRecords() throws IOException {
+    InterOpProgress progress = new InterOpProgress();
+    appendAll(1, 1101, 1, 1, 1101, 2, 1, 1101, 3, 1, 1102, 1, 1, 1102, 2);
+
+    Optional<InterOpProgress.Cycles> first = progress.update(interOp);
+    assertTrue(first.isPresent());
+    assertEquals(2, first.get().getExtracted());
+    assertEquals(2, first.get().getCalled());
+    assertEquals(2, first.get().getScored());
+
+    appendAll(1, 1102, 3);
+
+    assertEquals(3, progress.update(interOp).get().getCalled());
+  }
+
+  /** Copy a cycle directory of the NovaSeq X run to a later cycle, as the sequencer would */
+  private static void copyCycle(File from, File to, int cycle) throws IOException {
+    assertTrue(to.mkdirs());
+    ByteBuffer extraction =
+        ByteBuffer.wrap(Files.readAllBytes(new File(from, "ExtractionMetricsOut.bin").toPath()))
+            .order(ByteOrder.LITTLE_ENDIAN);
+    // Version 3: three header bytes, then lane, 32-bit tile, and cycle in each record
+    int recordSize = extraction.get(1);
+    for (int base = 3; base < extraction.limit(); base += recordSize) {
+      extraction.putShort(base + 6, (short) cycle);
+    }
+    Files.write(new File(to, "ExtractionMetricsOut.bin").toPath(), extraction.array());
+  }
+
+  @Test
+  public void testNovaSeqXCycleDirectories() throws IOException {
+    File run = folder.newFolder("20251210_LH00224_0271_B23FF7CLT4");
+    File fixture =
+        new File(
+            getClass()
+                .getResource("/illumina/20251210_LH00224_0271_B23FF7CLT4/InterOp/C1.1")
+                .getPath());
+    // The same cycle counts as runscanner-illumina reports in reference.json
+    Optional<InterOpProgress.Cycles> first = new InterOpProgress().update(fixture.getParentFile());
+    assertTrue(first.isPresent());
+    assertEquals(1, first.get().getExtracted());
+    assertEquals(0, first.get().getCalled());
+    assertEquals(0, first.get().getScored());
+
+    File cycleInterOp = new File(run, "InterOp");
+    copyCycle(fixture, new File(cycleInterOp, "C1.1"), 1);
+    InterOpProgress progress = new InterOpProgress();
+    assertEquals(1, progress.update(cycleInterOp).get().getExtracted());
+
+    copyCycle(fixture, new File(cycleInterOp, "C2.1"), 2);
+    assertEquals(2, progress.update(cycleInterOp).get().getExtracted());
+
+    // Cycle 1 is finished, so it is not read again; if it were, this record would be rejected
+    Files.write(
+        new File(cycleInterOp, "C1.1/ExtractionMetricsOut.bin").toPath(),
+        records(20, 4, 42, 1101, 1),
+        StandardOpenOption.APPEND);
+    copyCycle(fixture, new File(cycleInterOp, "C3.1"), 3);
+    assertEquals(3, progress.update(cycleInterOp).get().getExtracted());
+  }
+
+  @Test
+  public void testMetricsShowUpdatedCycles() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    String metrics =
+        mapper
+            .readTree(
+                getClass().getResource("/illumina/20251210_LH00224_0271_B23FF7CLT4/reference.json"))
+            .get("metrics")
+            .asText();
+
+    JsonNode updated = mapper.readTree(DefaultIllumina.updateCycles(metrics, 5, 318));
+
+    assertEquals("5 / 318", updated.get(0).get("values").get(1).get("value").asText());
+    assertEquals(mapper.readTree(metrics).get(1), updated.get(1));
+  }
+
+  @Test
+  public void testCycleDirectoriesForCalledAndScored() throws IOException {
+    File cycleInterOp = folder.newFolder("cycles", "InterOp");
+    for (int cycle = 1; cycle <= 3; cycle++) {
+      File directory = new File(cycleInterOp, "C" + cycle + ".1");
+      assertTrue(directory.mkdir());
+      Files.write(
+          new File(directory, "ExtractionMetricsOut.bin").toPath(),
+          concat(
+              new byte[] {2, EXTRACTION_SIZE},
+              records(EXTRACTION_SIZE, 2, 1, 1101, cycle, 1, 1102, cycle)));
+    }
+    // Calling lags extraction, so only the first cycle has been called and scored
+    File first = new File(cycleInterOp, "C1.1");
+    Files.write(
+        new File(first, "CorrectedIntMetricsOut.bin").toPath(),
+        concat(new byte[] {2, CORRECTED_SIZE}, records(CORRECTED_SIZE, 2, 1, 1101, 1, 1, 1102, 1)));
+    Files.write(
+        new File(first, "QMetricsOut.bin").toPath(),
+        concat(
+            new byte[] {4, (byte) QUALITY_SIZE}, records(QUALITY_SIZE, 2, 1, 1101, 1, 1, 1102, 1)));
+    InterOpProgress progress = new InterOpProgress();
+
+    InterOpProgress.Cycles cycles = progress.update(cycleInterOp).get();
+    assertEquals(3, cycles.getExtracted());
+    assertEquals(1, cycles.getCalled());
+    assertEquals(1, cycles.getScored());
+
+    File second = new File(cycleInterOp, "C2.1");
+    Files.write(
+        new File(second, "CorrectedIntMetricsOut.bin").toPath(),
+        concat(new byte[] {2, CORRECTED_SIZE}, records(CORRECTED_SIZE, 2, 1, 1101, 2, 1, 1102, 2)));
+
+    assertEquals(2, progress.update(cycleInterOp).get().getCalled());
+  }
+
+  private static byte[] concat(byte[] header, byte[] records) {
+    byte[] result = Arrays.copyOf(header, header.length + records.length);
+    System.arraycopy(records, 0, result, header.length, records.length);
+    return result;
+  }
+
+  @Test
+  public void testPartialRecordIsReadLater() throws IOException {
+    InterOpProgress progress = new InterOpProgress();
+    appendAll(1, 1101, 1);
+    byte[] record = records(EXTRACTION_SIZE, 2, 1, 1101, 2);
+    append("ExtractionMetricsOut.bin", Arrays.copyOf(record, 10));
+
+    assertEquals(1, progress.update(interOp).get().getExtracted());
+
+    append("ExtractionMetricsOut.bin", Arrays.copyOfRange(record, 10, record.length));
+
+    assertEquals(2, progress.update(interOp).get().getExtracted());
+  }
+
+  @Test
+  public void testWideTileNumbers() throws IOException {
+    InterOpProgress progress = new InterOpProgress();
+    Files.delete(new File(interOp, "QMetricsOut.bin").toPath());
+    // Version 7 with two quality bins
+    append("QMetricsOut.bin", new byte[] {7, 58, 1, 2, 2, 19, 14, 20, 40, 30});
+    append("QMetricsOut.bin", records(58, 4, 1, 11101, 1, 1, 11101, 2, 2, 11101, 2));
+    append("ExtractionMetricsOut.bin", records(EXTRACTION_SIZE, 2, 1, 1101, 5));
+    append("CorrectedIntMetricsOut.bin", records(CORRECTED_SIZE, 2, 1, 1101, 5));
+
+    assertEquals(2, progress.update(interOp).get().getScored());
+  }
+
+  @Test
+  public void testUnsupportedVersionHasNoProgress() throws IOException {
+    InterOpProgress progress = new InterOpProgress();
+    Files.delete(new File(interOp, "QMetricsOut.bin").toPath());
+    append("QMetricsOut.bin", new byte[] {3, (byte) QUALITY_SIZE});
+    appendAll(1, 1101, 1);
+
+    assertFalse(progress.update(interOp).isPresent());
+  }
+
+  @Test
+  public void testMissingFileHasNoProgress() throws IOException {
+    InterOpProgress progress = new InterOpProgress();
+    Files.delete(new File(interOp, "CorrectedIntMetricsOut.bin").toPath());
+
+    assertFalse(progress.update(interOp).isPresent());
+  }
+
+  @Test
+  public void testNonsenseRecordHasNoProgress() throws IOException {
+    InterOpProgress progress = new InterOpProgress();
+    appendAll(1, 1101, 1);
+    append("ExtractionMetricsOut.bin", records(EXTRACTION_SIZE, 2, 42, 1101, 2));
+
+    assertFalse(progress.update(interOp).isPresent());
+    appendAll(1, 1101, 2);
+    assertFalse(progress.update(interOp).isPresent());
+  }
+}
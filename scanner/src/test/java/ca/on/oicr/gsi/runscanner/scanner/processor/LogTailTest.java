@@ -0,0 +1,89 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogTailTest {
+  private static final Pattern FAILED = Pattern.compile("(\\d+) failed");
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static void append(File file, String text) throws IOException {
+    Files.writeString(file.toPath(), text, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+  }
+
+  @Test
+  public void testOnlyAppendedLinesAreRead() throws IOException {
+    LogTail tail = new LogTail(FAILED);
+    File log = folder.newFile();
+    append(log, "1 started\n2 running\n");
+
+    assertFalse(tail.find(log).isPresent());
+    assertEquals(20, tail.getBytesRead());
+
+    append(log, "3 failed\n4 stopped\n");
+
+    assertEquals("3", tail.find(log).get().group(1));
+    assertEquals(20 + 19, tail.getBytesRead());
+  }
+
+  @Test
+  public void testMatchIsKept() throws IOException {
+    LogTail tail = new LogTail(FAILED);
+    File log = folder.newFile();
+    append(log, "1 failed\n");
+    tail.find(log);
+    append(log, "2 failed\n");
+
+    assertEquals("1", tail.find(log).get().group(1));
+    assertEquals(9, tail.getBytesRead());
+  }
+
+  @Test
+  public void testUnfinishedLineIsReadAgain() throws IOException {
+    LogTail tail = new LogTail(FAILED);
+    File log = folder.newFile();
+    append(log, "1 started\n2 fai");
+
+    assertFalse(tail.find(log).isPresent());
+
+    append(log, "led\n");
+
+    assertEquals("2", tail.find(log).get().group(1));
+    assertEquals(15 + 9, tail.getBytesRead());
+  }
+
+  @Test
+  public void testTruncatedFileIsReadFromStart() throws IOException {
+    LogTail tail = new LogTail(FAILED);
+    File log = folder.newFile();
+    append(log, "1 started\n2 running\n");
+    tail.find(log);
+    Files.writeString(log.toPath(), "3 failed\n");
+
+    assertEquals("3", tail.find(log).get().group(1));
+  }
+
+  @Test
+  public void testDeletedFileIsReported() throws IOException {
+    LogTail tail = new LogTail(FAILED);
+    File log = folder.newFile();
+    append(log, "1 started\n");
+    tail.find(log);
+    Files.delete(log.toPath());
+
+    assertThrows(NoSuchFileException.class, () -> tail.find(log));
+
+    append(log, "2 failed\n");
+    assertEquals("2", tail.find(log).get().group(1));
+  }
+}
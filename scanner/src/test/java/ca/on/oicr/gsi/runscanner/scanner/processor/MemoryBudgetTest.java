@@ -0,0 +1,143 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryBudgetTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static CompletableFuture<MemoryBudget.Reservation> reserveLater(
+      MemoryBudget budget, long bytes) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return budget.reserve(bytes);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
+
+  private static void assertWaiting(CompletableFuture<?> future)
+      throws ExecutionException, InterruptedException {
+    try {
+      future.get(200, TimeUnit.MILLISECONDS);
+      fail("Reservation should be waiting");
+    } catch (TimeoutException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testSmallRunsPassLargeRun()
+      throws ExecutionException, InterruptedException, TimeoutException {
+    MemoryBudget budget = new MemoryBudget(100);
+    MemoryBudget.Reservation first = budget.reserve(60);
+
+    CompletableFuture<MemoryBudget.Reservation> large = reserveLater(budget, 50);
+    assertWaiting(large);
+
+    MemoryBudget.Reservation small = budget.reserve(30);
+    small.close();
+    first.close();
+
+    large.get(5, TimeUnit.SECONDS).close();
+  }
+
+  @Test
+  public void testOversizedRunWaitsForEverything()
+      throws ExecutionException, InterruptedException, TimeoutException {
+    MemoryBudget budget = new MemoryBudget(100);
+    MemoryBudget.Reservation small = budget.reserve(10);
+
+    CompletableFuture<MemoryBudget.Reservation> huge = reserveLater(budget, 1000);
+    assertWaiting(huge);
+
+    small.close();
+    // Closing twice must not give back more than was reserved
+    small.close();
+    MemoryBudget.Reservation oversized = huge.get(5, TimeUnit.SECONDS);
+
+    CompletableFuture<MemoryBudget.Reservation> next = reserveLater(budget, 1);
+    assertWaiting(next);
+    oversized.close();
+    next.get(5, TimeUnit.SECONDS).close();
+  }
+
+  @Test
+  public void testSharedBudgetCoversAllProcessors()
+      throws ExecutionException, InterruptedException, TimeoutException {
+    MemoryBudget first = MemoryBudget.shared(12345);
+    assertSame(first, MemoryBudget.shared(12345));
+    assertNotSame(first, MemoryBudget.shared(54321));
+
+    MemoryBudget.Reservation held = first.reserve(10000);
+    CompletableFuture<MemoryBudget.Reservation> other =
+        reserveLater(MemoryBudget.shared(12345), 10000);
+    assertWaiting(other);
+
+    held.close();
+    other.get(5, TimeUnit.SECONDS).close();
+  }
+
+  @Test
+  public void testWaitingForMemoryDoesNotCountAgainstDeadline()
+      throws ExecutionException, InterruptedException, TimeoutException {
+    MemoryBudget budget = new MemoryBudget(100);
+    MemoryBudget.Reservation held = budget.reserve(100);
+    // A run that waits for memory for longer than its timeout
+    long timeoutMillis = 200;
+    CompletableFuture<Long> active =
+        CompletableFuture.supplyAsync(
+            () -> {
+              Cancellation cancellation = Cancellation.begin();
+              try (MemoryBudget.Reservation reservation = budget.reserve(50)) {
+                return cancellation.getActiveTime().toMillis();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              } finally {
+                cancellation.finish();
+              }
+            });
+    Thread.sleep(2 * timeoutMillis);
+    held.close();
+
+    assertTrue(active.get(5, TimeUnit.SECONDS) < timeoutMillis);
+  }
+
+  @Test
+  public void testEstimateUsesRunInfo() throws IOException {
+    File run = folder.newFolder("run");
+    Files.copy(
+        Path.of(
+            getClass()
+                .getResource("/illumina/20230418_LH00130_0003_B223YTFLT3/RunInfo.xml")
+                .getPath()),
+        run.toPath().resolve("RunInfo.xml"));
+
+    // 8 lanes × 2 surfaces × 2 swaths × 98 tiles × 318 cycles at 4 KiB each, plus 128 MiB
+    assertEquals(
+        (128L << 20) + 8L * 2 * 2 * 98 * 318 * 4096, DefaultIllumina.estimateInterOpMemory(run));
+  }
+
+  @Test
+  public void testEstimateUsesInterOpFiles() throws IOException {
+    File run = folder.newFolder("run");
+    Path cycle = Files.createDirectories(run.toPath().resolve("InterOp/C1.1"));
+    Files.write(cycle.resolve("ExtractionMetricsOut.bin"), new byte[1000]);
+    Files.write(run.toPath().resolve("InterOp/TileMetricsOut.bin"), new byte[24]);
+
+    assertEquals((128L << 20) + 4 * 1024, DefaultIllumina.estimateInterOpMemory(run));
+  }
+}
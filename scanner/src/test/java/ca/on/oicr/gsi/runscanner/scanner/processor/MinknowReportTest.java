@@ -0,0 +1,62 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.scanner.processor.BaseOxfordNanoporeProcessor.RunAttributes;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MinknowReportTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReportFields() throws IOException {
+    File report =
+        new File(
+            getClass()
+                .getResource(
+                    "/oxfordnanopore/promethion/20230501_1839_1A_PAO12345_1b2c3d4e/report_PAO12345_20230501_1839_1b2c3d4e.json")
+                .getPath());
+
+    RunAttributes attributes = MinknowReport.read(report).orElseThrow();
+
+    assertEquals(
+        Map.of(
+            "flow_cell_id", "PAO12345",
+            "flow_cell_product_code", "flo-pro114m",
+            "exp_start_time", "2023-05-01T18:39:15.523187843Z",
+            "version", "5.5.3",
+            "protocols_version", "5.5.7",
+            "device_id", "1A",
+            "hostname", "PC24B123"),
+        attributes.trackingId());
+    assertEquals(Map.of("sequencing_kit", "sqk-lsk114"), attributes.contextTags());
+  }
+
+  @Test
+  public void testUserSpecifiedFlowCell() throws IOException {
+    File report = folder.newFile("report_X.json");
+    Files.writeString(
+        report.toPath(),
+        "{\"protocol_run_info\": {\"flow_cell\": {\"flow_cell_id\": \"\","
+            + " \"user_specified_flow_cell_id\": \"FAH12345\"}}}");
+
+    Optional<RunAttributes> attributes = MinknowReport.read(report);
+
+    assertEquals(Optional.of("FAH12345"), attributes.flatMap(a -> a.trackingId("flow_cell_id")));
+  }
+
+  @Test
+  public void testNoFlowCell() throws IOException {
+    File report = folder.newFile("report_X.json");
+    Files.writeString(report.toPath(), "{\"host\": {\"serial\": \"MN12345\"}, \"graphs\": [1, 2]}");
+
+    assertTrue(MinknowReport.read(report).isEmpty());
+  }
+}
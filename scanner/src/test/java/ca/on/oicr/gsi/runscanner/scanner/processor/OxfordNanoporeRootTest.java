@@ -0,0 +1,112 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.dto.type.Platform;
+import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor.Builder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OxfordNanoporeRootTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final PromethionProcessor instance =
+      new PromethionProcessor(new Builder(Platform.OXFORDNANOPORE, "promethion", null));
+  private Path root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = folder.newFolder("promethion").toPath();
+  }
+
+  @After
+  public void tearDown() {
+    instance.close();
+  }
+
+  private Path run(String experiment, String sample, String flowCell, String reads)
+      throws IOException {
+    Path run = root.resolve(experiment).resolve(sample).resolve(flowCell);
+    Files.createDirectories(run.resolve(reads));
+    return run;
+  }
+
+  private Set<Path> runs() {
+    return instance.getRunsFromRoot(root.toFile()).map(File::toPath).collect(Collectors.toSet());
+  }
+
+  @Test
+  public void testRunsAreFound() throws IOException {
+    Path fast5 = run("exp1", "sample1", "20240101_1200_1A_PAW00001_aaaa", "fast5_pass");
+    Path pod5 = run("exp1", "sample2", "20240101_1200_1B_PAW00002_bbbb", "pod5_pass");
+    Path loose = Files.createDirectories(root.resolve("exp2/loose"));
+    Files.createFile(loose.resolve("read_0.fast5"));
+    Files.createDirectories(root.resolve("exp3/sample3/other"));
+
+    assertEquals(Set.of(fast5, pod5, loose), runs());
+  }
+
+  @Test
+  public void testNewRunsAreFound() throws IOException {
+    Path first = run("exp1", "sample1", "20240101_1200_1A_PAW00001_aaaa", "fast5_pass");
+    assertEquals(Set.of(first), runs());
+
+    Path second = run("exp1", "sample1", "20240102_1200_1A_PAW00003_cccc", "pod5_fail");
+    Path third = run("exp2", "sample1", "20240102_1200_1A_PAW00004_dddd", "fastq_pass");
+    assertEquals(Set.of(first, second, third), runs());
+
+    Files.delete(first.resolve("fast5_pass"));
+    Files.delete(first);
+    assertEquals(Set.of(second, third), runs());
+  }
+
+  @Test
+  public void testRunsAreFoundFromReportedPaths() throws IOException {
+    Path other = run("exp2", "sample1", "20240101_1200_1B_PAW00002_bbbb", "fast5_pass");
+    Path sample = Files.createDirectories(root.resolve("exp1/sample1"));
+    Path run = Files.createDirectories(sample.resolve("20240101_1200_1A_PAW00001_aaaa"));
+    assertEquals(List.of(), instance.getRunsFromDirectory(root.toFile(), run.toFile()).toList());
+
+    // The reads directory appearing makes its parent a run
+    Path reads = Files.createDirectories(run.resolve("pod5_pass"));
+    assertEquals(
+        List.of(run.toFile()),
+        instance.getRunsFromDirectory(root.toFile(), reads.toFile()).toList());
+    assertEquals(
+        List.of(run.toFile()),
+        instance.getRunsFromDirectory(root.toFile(), root.resolve("exp1").toFile()).toList());
+    assertEquals(
+        List.of(other.toFile()),
+        instance
+            .getRunsFromDirectory(root.toFile(), other.resolve("final_summary.txt").toFile())
+            .toList());
+    assertEquals(List.of(), instance.getRunsFromDirectory(root.toFile(), root.toFile()).toList());
+  }
+
+  @Test
+  public void testUnmodifiedDirectoriesAreNotListedAgain() throws IOException {
+    Path sample = Files.createDirectories(root.resolve("exp1/sample1"));
+    FileTime modified = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+    Files.setLastModifiedTime(sample, modified);
+    assertEquals(Set.of(), runs());
+
+    // If the sample directory were listed again, it would now be a run
+    Files.createFile(sample.resolve("read_0.pod5"));
+    Files.setLastModifiedTime(sample, modified);
+    assertEquals(Set.of(), runs());
+
+    Files.setLastModifiedTime(sample, FileTime.fromMillis(System.currentTimeMillis()));
+    assertEquals(Set.of(sample), runs());
+  }
+}
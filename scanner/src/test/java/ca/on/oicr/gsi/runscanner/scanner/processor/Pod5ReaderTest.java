@@ -0,0 +1,89 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import ca.on.oicr.gsi.runscanner.scanner.processor.BaseOxfordNanoporeProcessor.RunAttributes;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Pod5ReaderTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final File pod5 =
+      new File(
+          getClass()
+              .getResource(
+                  "/oxfordnanopore/promethion/20240115_1201_2B_PAW54321_9f8e7d6c/pod5_pass/PAW54321_pass_9f8e7d6c_0.pod5")
+              .getPath());
+
+  @Test
+  public void testRunInfo() throws IOException {
+    RunAttributes attributes = Pod5Reader.read(pod5);
+
+    assertEquals(
+        Map.of(
+            "experiment_type",
+            "genomic_dna",
+            "flowcell_type",
+            "flo-pro114m",
+            "sequencing_kit",
+            "sqk-lsk114"),
+        attributes.contextTags());
+    assertEquals(10, attributes.trackingId().size());
+    assertEquals("PAW54321", attributes.trackingId("flow_cell_id").orElseThrow());
+    assertEquals("2B", attributes.trackingId("device_id").orElseThrow());
+    assertEquals(
+        "2024-01-15T12:01:44.163+00:00", attributes.trackingId("exp_start_time").orElseThrow());
+  }
+
+  /**
+   * The fixture above is assembled by hand, so files written by MinKNOW or the pod5 tools can be
+   * checked as well by pointing -Dpod5Directory at a directory of them. MinKNOW names each file
+   * after its flow cell, which must match the run information read from it.
+   */
+  @Test
+  public void testExternalFiles() throws IOException {
+    String directory = System.getProperty("pod5Directory");
+    assumeTrue(directory != null && !directory.isEmpty());
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(Path.of(directory))) {
+      files = walk.filter(file -> file.toString().endsWith(".pod5")).sorted().toList();
+    }
+    assertFalse("No POD5 files in " + directory, files.isEmpty());
+    for (Path file : files) {
+      RunAttributes attributes = Pod5Reader.read(file.toFile());
+      String flowCell = attributes.trackingId("flow_cell_id").orElseThrow();
+      assertTrue(file.toString(), file.getFileName().toString().startsWith(flowCell + "_"));
+      OffsetDateTime.parse(attributes.trackingId("exp_start_time").orElseThrow());
+      assertTrue(file.toString(), attributes.contextTags().containsKey("sequencing_kit"));
+    }
+  }
+
+  @Test
+  public void testTruncatedFile() throws IOException {
+    byte[] bytes = Files.readAllBytes(pod5.toPath());
+    Path truncated = folder.getRoot().toPath().resolve("truncated.pod5");
+    Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 100));
+
+    assertThrows(IOException.class, () -> Pod5Reader.read(truncated.toFile()));
+  }
+
+  @Test
+  public void testNotPod5() throws IOException {
+    File fast5 = folder.newFile("reads.pod5");
+    Files.write(fast5.toPath(), new byte[256]);
+
+    assertThrows(IOException.class, () -> Pod5Reader.read(fast5));
+  }
+}
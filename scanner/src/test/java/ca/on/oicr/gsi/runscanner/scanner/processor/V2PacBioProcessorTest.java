@@ -1,18 +1,28 @@
 package ca.on.oicr.gsi.runscanner.scanner.processor;
 
+import static org.junit.Assert.*;
+
 import ca.on.oicr.gsi.runscanner.dto.NotificationDto;
 import ca.on.oicr.gsi.runscanner.dto.PacBioNotificationDto;
+import ca.on.oicr.gsi.runscanner.dto.type.HealthType;
 import ca.on.oicr.gsi.runscanner.dto.type.Platform;
 import ca.on.oicr.gsi.runscanner.scanner.processor.RunProcessor.Builder;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.TimeZone;
 import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class V2PacBioProcessorTest<T> extends AbstractProcessorTest<PacBioNotificationDto> {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
   private final V2PacBioProcessor instance =
       new V2PacBioProcessor(new Builder(Platform.PACBIO, "unittest", null));
 
@@ -50,4 +60,33 @@ public class V2PacBioProcessorTest<T> extends AbstractProcessorTest<PacBioNotifi
   public void testGoldens() throws IOException {
     checkDirectory("/pacbiorevio");
   }
+
+  @Test
+  public void testSymlinkedMarkersAndCellWithoutMetadata() throws IOException {
+    File markers = folder.newFolder("markers");
+    Path transferDone = Files.createFile(markers.toPath().resolve("m84028_250101_000000_s1.done"));
+    Path transferTest = Files.createFile(markers.toPath().resolve("Transfer_Test.txt"));
+    File run = folder.newFolder("r84028_20250101_000000");
+    // This cell's markers are links, as when a run is assembled from another filesystem
+    Path linkedCell = Files.createDirectories(run.toPath().resolve("1_A01/metadata"));
+    Files.createSymbolicLink(
+        linkedCell.resolve("m84028_250101_000000_s1.transferdone"), transferDone);
+    Files.createSymbolicLink(
+        linkedCell.getParent().resolve("Transfer_Test_250101_000000.txt"), transferTest);
+    // This cell has finished transferring, but has no metadata XML file
+    Path plainCell = Files.createDirectories(run.toPath().resolve("1_B01/metadata"));
+    Files.createFile(plainCell.resolve("m84028_250101_010000_s2.transferdone"));
+
+    PacBioNotificationDto dto = (PacBioNotificationDto) process(run);
+
+    assertEquals(2, dto.getLaneCount());
+    assertEquals(HealthType.COMPLETED, dto.getHealthType());
+    assertEquals("r84028_20250101_000000", dto.getRunAlias());
+    assertNotNull(dto.getStartDate());
+    assertNotNull(dto.getCompletionDate());
+
+    // A broken link is not a marker, so the run is still transferring
+    Files.delete(transferDone);
+    assertEquals(HealthType.RUNNING, process(run).getHealthType());
+  }
 }
@@ -0,0 +1,89 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import org.w3c.dom.Document;
+
+/**
+ * Compares reading values from the test fixtures with {@link XmlExtractor} against parsing a DOM
+ * and evaluating XPath expressions, as {@link RunProcessor#parseXml(File)} callers do.
+ *
+ * <p>This is not run as part of the tests. Run it from the scanner directory with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=ca.on.oicr.gsi.runscanner.scanner.processor.XmlExtractorBenchmark
+ * </pre>
+ */
+public final class XmlExtractorBenchmark {
+  private static final int ITERATIONS = 200;
+  private static final int WARMUP = 50;
+
+  private interface Reader {
+    void read(File file) throws XPathExpressionException;
+  }
+
+  private static List<File> find(String directory, String suffix) throws IOException {
+    try (Stream<Path> files =
+        Files.walk(Path.of(XmlExtractorBenchmark.class.getResource(directory).getPath()))) {
+      return files
+          .filter(file -> file.getFileName().toString().endsWith(suffix))
+          .map(Path::toFile)
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static double measure(List<File> files, Reader reader) throws XPathExpressionException {
+    for (int i = 0; i < WARMUP; i++) {
+      for (File file : files) {
+        reader.read(file);
+      }
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      for (File file : files) {
+        reader.read(file);
+      }
+    }
+    return (System.nanoTime() - start) / 1e3 / ITERATIONS / files.size();
+  }
+
+  private static void compare(String name, List<File> files, List<String> expressions)
+      throws XPathExpressionException {
+    XPathExpression[] xpaths = RunProcessor.compileXPath(expressions.toArray(String[]::new));
+    double dom =
+        measure(
+            files,
+            file -> {
+              Document document = RunProcessor.parseXml(file).get();
+              for (XPathExpression xpath : xpaths) {
+                xpath.evaluate(document, XPathConstants.STRING);
+              }
+            });
+
+    XmlExtractor extractor = new XmlExtractor();
+    expressions.forEach(extractor::compile);
+    double stax = measure(files, file -> extractor.extract(file).get());
+
+    System.out.printf(
+        "%-16s %2d files, %2d paths: DOM+XPath %8.1f us/file, StAX %8.1f us/file (%.1fx)%n",
+        name, files.size(), expressions.size(), dom, stax, dom / stax);
+  }
+
+  public static void main(String[] args) throws IOException, XPathExpressionException {
+    compare(
+        "RunParameters",
+        find("/illumina", "unParameters.xml"),
+        XmlExtractorTest.RUN_PARAMETERS_PATHS);
+    compare("Revio metadata", find("/pacbiorevio", ".metadata.xml"), XmlExtractorTest.REVIO_PATHS);
+  }
+}
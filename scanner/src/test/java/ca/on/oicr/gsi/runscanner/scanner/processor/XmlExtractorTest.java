@@ -0,0 +1,151 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+
+public class XmlExtractorTest {
+  static final String REVIO_METADATA =
+      "/pacbiorevio/r84028_20230214_022129/2_A01/metadata/m84028_230215_023958_s1.metadata.xml";
+  static final List<String> REVIO_PATHS =
+      List.of(
+          "//RunDetails/TimeStampedName",
+          "//CollectionMetadata/@InstrumentName",
+          "//Run/@WhenStarted",
+          "//VersionInfo[@Name='smrtlink']/@Version",
+          "//ResultsFolder",
+          "//SubreadSet/@UniqueId",
+          "//CellPac/@PartNumber",
+          "//WellSample/@Name",
+          "//AutomationParameters/AutomationParameter[@Name='MovieLength']/@SimpleValue");
+
+  static final String RUN_PARAMETERS =
+      "/illumina/20240531_LH00130_0061_A22CC55LT4/RunParameters.xml";
+  static final List<String> RUN_PARAMETERS_PATHS =
+      List.of(
+          "//FlowcellRFIDTag/SerialNumber",
+          "//ReagentKitVersion",
+          "//Flowcell",
+          "//Chemistry",
+          "//Application",
+          "//WorkflowType",
+          "//RunStartTime",
+          "//RfidsInfo/SbsConsumableVersion",
+          "//Setup/PairEndFC",
+          "//Side",
+          "//ConsumableInfo/ConsumableInfo/PartNumber");
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String xml) throws IOException {
+    File file = folder.newFile();
+    Files.writeString(file.toPath(), xml);
+    return file;
+  }
+
+  private static void assertMatchesXPath(String resource, List<String> expressions)
+      throws XPathExpressionException {
+    File file = new File(XmlExtractorTest.class.getResource(resource).getPath());
+    Document document = RunProcessor.parseXml(file).get();
+    XmlExtractor extractor = new XmlExtractor();
+    List<XmlExtractor.Path> paths = expressions.stream().map(extractor::compile).toList();
+    XmlExtractor.Values values = extractor.extract(file).get();
+    for (int i = 0; i < expressions.size(); i++) {
+      assertEquals(
+          expressions.get(i),
+          RunProcessor.compileXPath(expressions.get(i))[0].evaluate(
+              document, XPathConstants.STRING),
+          values.get(paths.get(i)));
+    }
+  }
+
+  @Test
+  public void testMatchesXPathForRevioMetadata() throws XPathExpressionException {
+    assertMatchesXPath(REVIO_METADATA, REVIO_PATHS);
+  }
+
+  @Test
+  public void testMatchesXPathForRunParameters() throws XPathExpressionException {
+    assertMatchesXPath(RUN_PARAMETERS, RUN_PARAMETERS_PATHS);
+  }
+
+  @Test
+  public void testFirstMatchIncludesNestedText() throws IOException {
+    XmlExtractor extractor = new XmlExtractor();
+    XmlExtractor.Path name = extractor.compile("//Sample/Name");
+    XmlExtractor.Path well = extractor.compile("//Sample/*/@Well");
+    XmlExtractor.Path missing = extractor.compile("//Sample/Missing");
+    File file =
+        write(
+            "<Run><Name>run</Name><Sample><Name>first <b>pool</b> &amp; more</Name>"
+                + "<Position Well='A01'/></Sample><Sample><Name>second</Name></Sample></Run>");
+
+    XmlExtractor.Values values = extractor.extract(file).get();
+
+    assertEquals("first pool & more", values.get(name));
+    assertEquals("A01", values.get(well));
+    assertEquals("", values.get(missing));
+  }
+
+  @Test
+  public void testPredicateSelectsElement() throws IOException {
+    XmlExtractor extractor = new XmlExtractor();
+    XmlExtractor.Path version = extractor.compile("//VersionInfo[@Name=\"b/c\"]/@Version");
+    XmlExtractor.Path number = extractor.compile("//Parameter[@Name='Length']");
+    File file =
+        write(
+            "<p:Root xmlns:p='urn:test'><p:VersionInfo Name='a' Version='1'/>"
+                + "<p:VersionInfo Name='b/c' Version='2'/>"
+                + "<Parameter Name='Length'> 12.5 </Parameter></p:Root>");
+
+    XmlExtractor.Values values = extractor.extract(file).get();
+
+    assertEquals("2", values.get(version));
+    assertEquals(12.5, values.getNumber(number), 0);
+  }
+
+  @Test
+  public void testMislabelledEncodingIsReadAsUtf8() throws IOException {
+    XmlExtractor extractor = new XmlExtractor();
+    XmlExtractor.Path name = extractor.compile("//Name");
+    File file = folder.newFile();
+    byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    byte[] xml =
+        "<?xml version=\"1.0\" encoding=\"utf-16\"?><Run><Name>Café</Name></Run>"
+            .getBytes(StandardCharsets.UTF_8);
+    byte[] content = new byte[bom.length + xml.length];
+    System.arraycopy(bom, 0, content, 0, bom.length);
+    System.arraycopy(xml, 0, content, bom.length, xml.length);
+    Files.write(file.toPath(), content);
+
+    assertEquals("Café", extractor.extract(file).get().get(name));
+  }
+
+  @Test
+  public void testMalformedFileIsEmpty() throws IOException {
+    XmlExtractor extractor = new XmlExtractor();
+    extractor.compile("//Name");
+
+    assertFalse(extractor.extract(write("<Run><Name>run</Run>")).isPresent());
+  }
+
+  @Test
+  public void testUnsupportedPathsAreRejected() {
+    XmlExtractor extractor = new XmlExtractor();
+    for (String expression :
+        List.of(
+            "/Run/Name", "//Run/Read[2]", "//WorkflowType|//ClusteringChoice", "//Run/text()")) {
+      assertThrows(IllegalArgumentException.class, () -> extractor.compile(expression));
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor.dragen;
+
+import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Samplesheet;
+import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Samplesheet.SamplesheetException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Times {@link BCLConvert#process(Samplesheet, File)} on synthetic NovaSeq X analyses of increasing
+ * size, up to 8 lanes of 1,250 samples each, to show that the time per sample stays flat.
+ *
+ * <p>This is not run as part of the tests. Run it from the scanner directory with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=ca.on.oicr.gsi.runscanner.scanner.processor.dragen.BCLConvertBenchmark
+ * </pre>
+ */
+public final class BCLConvertBenchmark {
+  private static final int ITERATIONS = 5;
+  private static final int LANES = 8;
+  private static final int WARMUP = 3;
+
+  public static void main(String[] args) throws IOException, SamplesheetException {
+    Path root = Files.createTempDirectory("bclconvert-benchmark");
+    try {
+      for (int samplesPerLane : new int[] {125, 250, 625, 1250}) {
+        File attempt = root.resolve(Integer.toString(samplesPerLane)).toFile();
+        BCLConvertTest.writeAttempt(attempt, LANES, samplesPerLane);
+        Samplesheet samplesheet = new Samplesheet(attempt);
+        for (int i = 0; i < WARMUP; i++) {
+          BCLConvert.process(samplesheet, attempt);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+          BCLConvert.process(samplesheet, attempt);
+        }
+        double millis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        int samples = LANES * samplesPerLane;
+        System.out.printf(
+            "%6d samples: %8.1f ms, %6.1f us/sample%n", samples, millis, millis * 1e3 / samples);
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(root)) {
+        files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor.dragen;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.dto.AnalysisFile;
+import ca.on.oicr.gsi.runscanner.dto.dragen.DragenAnalysisUnit;
+import ca.on.oicr.gsi.runscanner.dto.dragen.DragenWorkflowRun;
+import ca.on.oicr.gsi.runscanner.dto.dragen.FastqAnalysisFile;
+import ca.on.oicr.gsi.runscanner.dto.type.WorkflowRunStatus;
+import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Samplesheet;
+import ca.on.oicr.gsi.runscanner.scanner.processor.dragen.samplesheet.Samplesheet.SamplesheetException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BCLConvertTest {
+  private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+  /** Make a distinct 10 base index from a number */
+  private static String index(int number) {
+    char[] index = new char[10];
+    for (int i = 0; i < index.length; i++) {
+      index[i] = BASES[number & 3];
+      number >>= 2;
+    }
+    return new String(index);
+  }
+
+  /**
+   * Write a synthetic BCLConvert analysis attempt with every report, and an empty gzip FASTQ file
+   * for each read of each sample.
+   */
+  static void writeAttempt(File attempt, int lanes, int samplesPerLane) throws IOException {
+    writeAttempt(attempt, lanes, samplesPerLane, false);
+  }
+
+  private static void writeAttempt(File attempt, int lanes, int samplesPerLane, boolean ora)
+      throws IOException {
+    Path data = attempt.toPath().resolve("Data");
+    String output = ora ? "ora_fastq" : "fastq";
+    Path fastqs = Files.createDirectories(data.resolve("BCLConvert").resolve(output));
+    Path reports = Files.createDirectories(fastqs.resolve("Reports"));
+    try (PrintWriter samplesheet =
+            new PrintWriter(Files.newBufferedWriter(data.resolve("BCLConvert/SampleSheet.csv")));
+        PrintWriter fastqList =
+            new PrintWriter(Files.newBufferedWriter(reports.resolve("fastq_list.csv")));
+        PrintWriter demultiplexStats =
+            new PrintWriter(Files.newBufferedWriter(reports.resolve("Demultiplex_Stats.csv")));
+        PrintWriter manifest =
+            new PrintWriter(Files.newBufferedWriter(attempt.toPath().resolve("Manifest.tsv")));
+        PrintWriter events =
+            new PrintWriter(Files.newBufferedWriter(data.resolve("b2c_dragen_events.csv")))) {
+      samplesheet.println("[Header],,,,");
+      samplesheet.println("FileFormatVersion,2,,,");
+      samplesheet.println("[Reads],,,,");
+      samplesheet.println("Read1Cycles,151,,,");
+      samplesheet.println("Read2Cycles,151,,,");
+      samplesheet.println("Index1Cycles,10,,,");
+      samplesheet.println("Index2Cycles,10,,,");
+      samplesheet.println("[BCLConvert_Settings],,,,");
+      samplesheet.println("SoftwareVersion,4.2.7,,,");
+      samplesheet.println("OverrideCycles,Y151;I10;I10;Y151,,,");
+      samplesheet.println("[BCLConvert_Data],,,,");
+      samplesheet.println("Lane,Sample_ID,Index,Index2,");
+      fastqList.println("RGID,RGSM,RGLB,Lane,Read1File,Read2File");
+      demultiplexStats.println(
+          "Lane,SampleID,Index,# Reads,# Perfect Index Reads,# One Mismatch Index Reads");
+      events.println("time,label");
+      events.println("2024-07-30 11:36:06,DRAGEN START");
+      int sampleNumber = 0;
+      for (int lane = 1; lane <= lanes; lane++) {
+        for (int i = 0; i < samplesPerLane; i++) {
+          sampleNumber++;
+          String sample = String.format("SAMPLE_%05d", sampleNumber);
+          String index1 = index(sampleNumber);
+          String index2 = BCLConvert.reverseComplement(index(sampleNumber * 7));
+          samplesheet.printf(
+              "%d,%s,%s,%s,%n", lane, sample, index1, BCLConvert.reverseComplement(index2));
+          String[] files = new String[2];
+          for (int read = 1; read <= 2; read++) {
+            files[read - 1] =
+                String.format(
+                    "%s_S%d_L%03d_R%d_001.fastq.%s",
+                    sample, sampleNumber, lane, read, ora ? "ora" : "gz");
+            Files.createFile(fastqs.resolve(files[read - 1]));
+            manifest.printf("Data/BCLConvert/%s/%s\t%08x%n", output, files[read - 1], sampleNumber);
+          }
+          fastqList.printf(
+              "%s.%s.%d,%s,UnknownLibrary,%d,%s,%s%n",
+              index1, index2, lane, sample, lane, files[0], files[1]);
+          demultiplexStats.printf(
+              "%d,%s,%s-%s,%d,%d,0%n", lane, sample, index1, index2, 1000 + sampleNumber, 1000);
+        }
+        demultiplexStats.printf("%d,Undetermined,,42,0,0%n", lane);
+      }
+      events.println("2024-07-30 12:36:06,DRAGEN END");
+    }
+  }
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReportsAreMatchedToSamples() throws IOException, SamplesheetException {
+    File attempt = folder.newFolder("1");
+    writeAttempt(attempt, 2, 5);
+
+    DragenWorkflowRun run = BCLConvert.process(new Samplesheet(attempt), attempt);
+
+    assertEquals(WorkflowRunStatus.COMPLETE, run.getWorkflowRunStatus());
+    assertEquals(10, run.getAnalysisOutputs().size());
+    DragenAnalysisUnit unit = run.getAnalysisOutputs().get(7);
+    assertEquals("SAMPLE_00008", unit.getSample());
+    assertEquals(2, unit.getLane());
+    assertEquals("Y151;I10;I10;Y151", unit.getOverrideCycles());
+    assertEquals(2, unit.getFiles().size());
+    for (AnalysisFile file : unit.getFiles()) {
+      assertEquals("00000008", file.getCrc32Checksum());
+      assertEquals(Integer.valueOf(1008), ((FastqAnalysisFile) file).getReadCount());
+    }
+  }
+
+  @Test
+  public void testOraFilesAreFound() throws IOException, SamplesheetException {
+    File attempt = folder.newFolder("1");
+    writeAttempt(attempt, 1, 3, true);
+
+    DragenWorkflowRun run = BCLConvert.process(new Samplesheet(attempt), attempt);
+
+    assertEquals(WorkflowRunStatus.COMPLETE, run.getWorkflowRunStatus());
+    assertTrue(
+        run.getAnalysisOutputs().get(0).getFiles().get(0).getPath().getPath().endsWith(".ora"));
+  }
+
+  @Test
+  public void testMissingReadCountIsIncomplete() throws IOException, SamplesheetException {
+    File attempt = folder.newFolder("1");
+    writeAttempt(attempt, 1, 3);
+    Path stats = attempt.toPath().resolve("Data/BCLConvert/fastq/Reports/Demultiplex_Stats.csv");
+    Files.write(stats, Files.readAllLines(stats).subList(0, 3));
+
+    DragenWorkflowRun run = BCLConvert.process(new Samplesheet(attempt), attempt);
+
+    assertNotEquals(WorkflowRunStatus.COMPLETE, run.getWorkflowRunStatus());
+    assertEquals(3, run.getAnalysisOutputs().size());
+  }
+}
@@ -0,0 +1,108 @@
+package ca.on.oicr.gsi.runscanner.scanner.processor.dragen;
+
+import static org.junit.Assert.*;
+
+import ca.on.oicr.gsi.runscanner.dto.IlluminaNotificationDto;
+import ca.on.oicr.gsi.runscanner.dto.PipelineRun;
+import ca.on.oicr.gsi.runscanner.dto.type.PipelineStatus;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessDragenTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final ProcessDragen dragen = new ProcessDragen();
+
+  private List<PipelineRun> analyse(File run) throws IOException {
+    return dragen.analyse(run, new IlluminaNotificationDto()).getPipelineRuns();
+  }
+
+  private static Path complete(File attempt) throws IOException {
+    return Files.createFile(attempt.toPath().resolve("Data/Secondary_Analysis_Complete.txt"));
+  }
+
+  @Test
+  public void testCompleteAttemptIsNotScannedAgain() throws IOException {
+    File run = folder.newFolder("run");
+    File attempt = new File(run, "Analysis/1");
+    BCLConvertTest.writeAttempt(attempt, 1, 3);
+    Path marker = complete(attempt);
+
+    List<PipelineRun> first = analyse(run);
+    assertEquals(1, first.size());
+    assertEquals(PipelineStatus.COMPLETE, first.get(0).getPipelineStatus());
+
+    // If the reports were read again, the attempt would no longer be complete
+    Path fastqList = attempt.toPath().resolve("Data/BCLConvert/fastq/Reports/fastq_list.csv");
+    byte[] fastqs = Files.readAllBytes(fastqList);
+    Files.delete(fastqList);
+    List<PipelineRun> second = analyse(run);
+    assertEquals(1, second.size());
+    assertSame(first.get(0), second.get(0));
+
+    // A rewritten completion marker means the attempt must be read again
+    Files.setLastModifiedTime(
+        marker, FileTime.fromMillis(Files.getLastModifiedTime(marker).toMillis() - 60_000));
+    Files.write(fastqList, fastqs);
+    List<PipelineRun> third = analyse(run);
+    assertEquals(1, third.size());
+    assertNotSame(first.get(0), third.get(0));
+    assertEquals(PipelineStatus.COMPLETE, third.get(0).getPipelineStatus());
+  }
+
+  @Test
+  public void testForgottenRunIsScannedAgain() throws IOException {
+    File run = folder.newFolder("run");
+    File attempt = new File(run, "Analysis/1");
+    BCLConvertTest.writeAttempt(attempt, 1, 2);
+    complete(attempt);
+    PipelineRun first = analyse(run).get(0);
+
+    dragen.forget(run);
+    List<PipelineRun> runs = analyse(run);
+
+    assertEquals(1, runs.size());
+    assertNotSame(first, runs.get(0));
+  }
+
+  @Test
+  public void testPendingAttemptIsScannedAgain() throws IOException {
+    File run = folder.newFolder("run");
+    File attempt = new File(run, "Analysis/1");
+    BCLConvertTest.writeAttempt(attempt, 1, 3);
+    Path stats = attempt.toPath().resolve("Data/BCLConvert/fastq/Reports/Demultiplex_Stats.csv");
+    List<String> lines = Files.readAllLines(stats);
+    Files.write(stats, lines.subList(0, 3));
+
+    assertTrue(analyse(run).isEmpty());
+
+    Files.write(stats, lines);
+    List<PipelineRun> runs = analyse(run);
+    assertEquals(1, runs.size());
+    assertEquals(PipelineStatus.COMPLETE, runs.get(0).getPipelineStatus());
+  }
+
+  @Test
+  public void testNewAttemptIsScanned() throws IOException {
+    File run = folder.newFolder("run");
+    File attempt = new File(run, "Analysis/1");
+    BCLConvertTest.writeAttempt(attempt, 1, 2);
+    complete(attempt);
+    PipelineRun first = analyse(run).get(0);
+
+    File rerun = new File(run, "Analysis/2");
+    BCLConvertTest.writeAttempt(rerun, 1, 2);
+    complete(rerun);
+    List<PipelineRun> runs = analyse(run);
+
+    assertEquals(2, runs.size());
+    assertTrue(runs.contains(first));
+  }
+}